@@ -1,23 +1,63 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import simpledb.Aggregator.Op;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * single column. If the child produces batches, they are aggregated a batch
+ * at a time.
+ * <p>
+ * Groups are kept in memory up to a memory budget. When there are more, the
+ * partial state of every group is hash-partitioned by group into
+ * {@link SpillFile}s and the rest of the child is aggregated into a fresh
+ * table, which is spilled the same way whenever it fills up. Each spilled
+ * partition is then aggregated on its own, after being partitioned again
+ * with a different hash function if its groups still do not fit.
+ * <p>
+ * Over an {@link Exchange}, such as a parallel scan, the aggregate is
+ * computed in two phases: each of the exchange's children is aggregated
+ * into partial states on a worker thread, and the partial states are then
+ * merged into the final groups.
+ * <p>
+ * If the child is known to be sorted on the group-by field (see
+ * {@link #setInputSorted}), no table is built: the tuples of each group are
+ * aggregated as they arrive and the group is returned as soon as the next
+ * one starts, so only one group is held in memory at a time.
  */
 public class Aggregate extends Operator {
 
 	private static final long serialVersionUID = 1L;
+
+	/** Bytes of partial group states kept in memory unless another budget is given. */
+	public static final long DEFAULT_MEMORY_BUDGET = 4L << 20;
+
+	/** Number of partitions spilled groups are split into at a time. */
+	static final int NUM_PARTITIONS = 16;
+
+	/** Levels of repartitioning after which a partition is aggregated in memory whatever its size. */
+	static final int MAX_DEPTH = 4;
+
 	private DbIterator child;
 	private int aField;
 	private int gfield;
 	private Op aop;
 	private Aggregator aggregator;
 	private DbIterator aggregatorIterator = null;
+	private long memoryBudget;
+	transient private int maxGroups;
+	// the aggregates of all groups, if any were spilled, and a reader of them
+	transient private SpillFile results = null;
+	transient private DbFileIterator resultIterator = null;
+	private boolean inputSorted = false;
+	// when the input is sorted: the aggregator of the current group, the
+	// schema of the output, and the first tuple of the next group
+	transient private Aggregator groupAggregator = null;
+	transient private TupleDesc groupTd = null;
+	transient private Tuple nextGroupFirst = null;
 
 	/**
 	 * Constructor.
@@ -38,12 +78,31 @@ public class Aggregate extends Operator {
 	 *            The aggregation operator to use
 	 */
 	public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+		this(child, afield, gfield, aop, DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * @param memoryBudget
+	 *            the number of bytes of partial group states, as stored on a
+	 *            page, to keep in memory before spilling them to disk
+	 * @see #Aggregate(DbIterator, int, int, Aggregator.Op)
+	 */
+	public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop,
+			long memoryBudget) {
 		// some code goes here
 		this.child = child;
+		this.memoryBudget = memoryBudget;
 		this.aField = afield;
 		this.gfield = gfield;
 		this.aop = aop;
+		this.aggregator = newAggregator(gfield);
+	}
 
+	/**
+	 * @return an empty aggregator for the aggregate field and operator of
+	 *         this Aggregate, grouping on gfield.
+	 */
+	private Aggregator newAggregator(int gfield) {
 		Type gbFieldType;
 		if(gfield == -1) {
 			gbFieldType = null;
@@ -52,12 +111,28 @@ public class Aggregate extends Operator {
 			gbFieldType = getTupleDesc().getFieldType(gfield);
 		}
 
-		if(getTupleDesc().getFieldType(afield) == Type.INT_TYPE) {
-			this.aggregator = new IntegerAggregator(gfield, gbFieldType, afield, aop);
-		}
-		else {
-			this.aggregator = new StringAggregator(gfield, gbFieldType, afield, aop);
+		if(getTupleDesc().getFieldType(this.aField) == Type.INT_TYPE) {
+			return new IntegerAggregator(gfield, gbFieldType, this.aField, this.aop);
 		}
+		return new StringAggregator(gfield, gbFieldType, this.aField, this.aop);
+	}
+
+	/**
+	 * Declares whether the child's output is sorted on the group-by field,
+	 * ascending or descending, so that the tuples of each group are
+	 * adjacent. If so, groups are aggregated one at a time, in the order of
+	 * the child, instead of in a table. Must be called before open.
+	 */
+	public void setInputSorted(boolean inputSorted) {
+		this.inputSorted = inputSorted;
+	}
+
+	/**
+	 * @return true if groups are aggregated one at a time as the sorted
+	 *         child streams past.
+	 */
+	public boolean isInputSorted() {
+		return this.inputSorted;
 	}
 
 	/**
@@ -115,15 +190,314 @@ public class Aggregate extends Operator {
 	public void open() throws NoSuchElementException, DbException,
 	TransactionAbortedException {
 		// some code goes here
-		if(this.aggregatorIterator == null) {
-			this.child.open();
+		if (this.inputSorted) {
+			openSorted();
+			super.open();
+			return;
+		}
+		if(this.aggregatorIterator == null && this.results == null) {
+			this.maxGroups = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+					this.memoryBudget / this.aggregator.getPartialTupleDesc().getSize()));
+			SpillFile[] spills = null;
+			if (this.child instanceof Exchange) {
+				spills = aggregateInParallel((Exchange) this.child);
+			}
+			else {
+				spills = aggregateSerially();
+			}
+			if (spills == null) {
+				this.aggregatorIterator = this.aggregator.iterator();
+			}
+			else {
+				spillGroups(spills, 0);
+				this.results = new SpillFile(this.aggregator.iterator().getTupleDesc());
+				for (SpillFile spill : spills) {
+					if (spill != null) {
+						aggregatePartition(spill, 1);
+					}
+				}
+				this.resultIterator = this.results.iterator();
+			}
+		}
+		if (this.aggregatorIterator != null) {
+			this.aggregatorIterator.open();
+		}
+		else {
+			this.resultIterator.open();
+		}
+		super.open();
+	}
+
+	private void openSorted() throws DbException, TransactionAbortedException {
+		this.groupAggregator = newAggregator(Aggregator.NO_GROUPING);
+		if (this.gfield == Aggregator.NO_GROUPING) {
+			this.groupTd = new TupleDesc(new Type[] { Type.INT_TYPE },
+					new String[] { "aggregateVal" });
+		}
+		else {
+			this.groupTd = new TupleDesc(
+					new Type[] { getTupleDesc().getFieldType(this.gfield), Type.INT_TYPE },
+					new String[] { "groupVal", "aggregateVal" });
+		}
+		this.nextGroupFirst = null;
+		this.child.open();
+	}
+
+	/**
+	 * Aggregates the tuples of the child up to the first one of another
+	 * group, which is kept for the next call.
+	 *
+	 * @return the aggregate of the group, or null if the child is exhausted
+	 */
+	private Tuple nextSortedGroup() throws DbException, TransactionAbortedException {
+		Tuple first = this.nextGroupFirst;
+		this.nextGroupFirst = null;
+		if (first == null) {
+			if (!this.child.hasNext()) {
+				return null;
+			}
+			first = this.child.next();
+		}
+		Field key = this.gfield == Aggregator.NO_GROUPING ? null : first.getField(this.gfield);
+		this.groupAggregator.clear();
+		this.groupAggregator.mergeTupleIntoGroup(first);
+		while (this.child.hasNext()) {
+			Tuple t = this.child.next();
+			if (key != null && !key.equals(t.getField(this.gfield))) {
+				this.nextGroupFirst = t;
+				break;
+			}
+			this.groupAggregator.mergeTupleIntoGroup(t);
+		}
+		DbIterator it = this.groupAggregator.iterator();
+		it.open();
+		Field value = it.next().getField(0);
+		it.close();
+		Tuple result = new Tuple(this.groupTd);
+		if (key == null) {
+			result.setField(0, value);
+		}
+		else {
+			result.setField(0, key);
+			result.setField(1, value);
+		}
+		return result;
+	}
+
+	/**
+	 * Merges the child into the aggregator on this thread.
+	 *
+	 * @return the partitions of spilled groups, or null if all of them fit
+	 *         in memory
+	 */
+	private SpillFile[] aggregateSerially() throws DbException, TransactionAbortedException {
+		SpillFile[] spills = null;
+		this.child.open();
+		if (producesBatches(this.child)) {
+			TupleBatch batch;
+			while ((batch = ((BatchIterator) this.child).nextBatch()) != null) {
+				this.aggregator.mergeBatchIntoGroups(batch);
+				if (this.aggregator.numGroups() > this.maxGroups) {
+					spills = spillGroups(spills, 0);
+				}
+			}
+		}
+		else {
 			while(this.child.hasNext()) {
 				this.aggregator.mergeTupleIntoGroup(child.next());
+				if (this.aggregator.numGroups() > this.maxGroups) {
+					spills = spillGroups(spills, 0);
+				}
+			}
+		}
+		return spills;
+	}
+
+	/**
+	 * The groups one worker of a parallel aggregate merged its partition
+	 * into: those in its aggregator, and those it spilled to make room.
+	 */
+	private static class Partial {
+		Aggregator aggregator;
+		SpillFile spill = null;
+
+		Partial(Aggregator aggregator) {
+			this.aggregator = aggregator;
+		}
+	}
+
+	/**
+	 * Aggregates the children of exchange in two phases. In the partial
+	 * phase each child is merged into an aggregator of its own, on a worker
+	 * of the exchange's pool; in the final phase the partial states of the
+	 * workers' groups are merged into the aggregator on this thread. The
+	 * partial state of an AVG is a sum and a count, so it can be combined.
+	 *
+	 * @return the partitions of spilled groups, or null if all of them fit
+	 *         in memory
+	 */
+	private SpillFile[] aggregateInParallel(Exchange exchange) throws DbException,
+	TransactionAbortedException {
+		DbIterator[] parts = exchange.getChildren();
+		// each worker gets its share of the budget
+		final int workerGroups = Math.max(1, this.maxGroups / parts.length);
+		ArrayList<Callable<Partial>> tasks = new ArrayList<Callable<Partial>>();
+		for (final DbIterator part : parts) {
+			final Partial partial = new Partial(newAggregator(this.gfield));
+			tasks.add(new Callable<Partial>() {
+				public Partial call() throws DbException, TransactionAbortedException {
+					aggregatePart(part, partial, workerGroups);
+					return partial;
+				}
+			});
+		}
+		SpillFile[] spills = null;
+		for (Partial partial : Exchange.runAll(tasks)) {
+			DbIterator it = partial.aggregator.partialIterator();
+			partial.aggregator = null;
+			it.open();
+			while (it.hasNext()) {
+				spills = mergePartial(it.next(), spills);
+			}
+			it.close();
+			if (partial.spill != null) {
+				DbFileIterator spilled = partial.spill.iterator();
+				spilled.open();
+				while (spilled.hasNext()) {
+					spills = mergePartial(spilled.next(), spills);
+				}
+				spilled.close();
+				partial.spill.delete();
+			}
+		}
+		return spills;
+	}
+
+	/**
+	 * Runs on a worker: merges part into the aggregator of partial, writing
+	 * the partial states of its groups to a spill file whenever there are
+	 * more than maxGroups of them.
+	 */
+	private static void aggregatePart(DbIterator part, Partial partial, int maxGroups)
+	throws DbException, TransactionAbortedException {
+		part.open();
+		if (producesBatches(part)) {
+			TupleBatch batch;
+			while ((batch = ((BatchIterator) part).nextBatch()) != null) {
+				partial.aggregator.mergeBatchIntoGroups(batch);
+				if (partial.aggregator.numGroups() > maxGroups) {
+					spillPartial(partial);
+				}
+			}
+		}
+		else {
+			while (part.hasNext()) {
+				partial.aggregator.mergeTupleIntoGroup(part.next());
+				if (partial.aggregator.numGroups() > maxGroups) {
+					spillPartial(partial);
+				}
+			}
+		}
+		part.close();
+	}
+
+	/**
+	 * Appends the partial states of the groups of a worker's aggregator to
+	 * its spill file, and empties the aggregator.
+	 */
+	private static void spillPartial(Partial partial) throws DbException,
+	TransactionAbortedException {
+		DbIterator it = partial.aggregator.partialIterator();
+		if (partial.spill == null) {
+			partial.spill = new SpillFile(it.getTupleDesc());
+		}
+		it.open();
+		while (it.hasNext()) {
+			partial.spill.add(it.next());
+		}
+		it.close();
+		partial.aggregator.clear();
+	}
+
+	/**
+	 * Merges the partial state of a group into the aggregator, spilling its
+	 * groups if there are too many.
+	 *
+	 * @return the partitions of spilled groups, or null if none were spilled
+	 */
+	private SpillFile[] mergePartial(Tuple partial, SpillFile[] spills) throws DbException,
+	TransactionAbortedException {
+		this.aggregator.mergePartial(partial);
+		if (this.aggregator.numGroups() > this.maxGroups) {
+			spills = spillGroups(spills, 0);
+		}
+		return spills;
+	}
+
+	/**
+	 * Writes the partial state of every group in the aggregator to the
+	 * partition of its group under the level'th hash function, and empties
+	 * the aggregator.
+	 *
+	 * @param spills
+	 *            the partitions, or null if they are yet to be created
+	 * @return the partitions
+	 */
+	private SpillFile[] spillGroups(SpillFile[] spills, int level) throws DbException,
+	TransactionAbortedException {
+		if (spills == null) {
+			spills = new SpillFile[NUM_PARTITIONS];
+		}
+		DbIterator it = this.aggregator.partialIterator();
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			int p = HashEquiJoin.partitionOf(TupleBatch.valueOf(t.getField(0)), level, NUM_PARTITIONS);
+			if (spills[p] == null) {
+				spills[p] = new SpillFile(it.getTupleDesc());
+			}
+			spills[p].add(t);
+		}
+		it.close();
+		this.aggregator.clear();
+		return spills;
+	}
+
+	/**
+	 * Aggregates the partial states in a spilled partition and appends the
+	 * aggregates of its groups to the results, partitioning it again under
+	 * the level'th hash function first if its groups do not fit in memory.
+	 * The partition is deleted.
+	 */
+	private void aggregatePartition(SpillFile partition, int level) throws DbException,
+	TransactionAbortedException {
+		SpillFile[] spills = null;
+		DbFileIterator it = partition.iterator();
+		it.open();
+		while (it.hasNext()) {
+			this.aggregator.mergePartial(it.next());
+			if (this.aggregator.numGroups() > this.maxGroups && level < MAX_DEPTH) {
+				spills = spillGroups(spills, level);
+			}
+		}
+		it.close();
+		partition.delete();
+		if (spills == null) {
+			DbIterator aggregates = this.aggregator.iterator();
+			aggregates.open();
+			while (aggregates.hasNext()) {
+				this.results.add(aggregates.next());
+			}
+			aggregates.close();
+			this.aggregator.clear();
+			return;
+		}
+		spillGroups(spills, level);
+		for (SpillFile spill : spills) {
+			if (spill != null) {
+				aggregatePartition(spill, level + 1);
 			}
-			this.aggregatorIterator = this.aggregator.iterator();
 		}
-		this.aggregatorIterator.open();
-		super.open();
 	}
 
 	/**
@@ -135,6 +509,12 @@ public class Aggregate extends Operator {
 	 */
 	protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 		// some code goes here
+		if (this.inputSorted) {
+			return nextSortedGroup();
+		}
+		if (this.aggregatorIterator == null) {
+			return this.resultIterator.hasNext() ? this.resultIterator.next() : null;
+		}
 		if(this.aggregatorIterator.hasNext()) {
 			return this.aggregatorIterator.next();
 		}
@@ -143,7 +523,16 @@ public class Aggregate extends Operator {
 
 	public void rewind() throws DbException, TransactionAbortedException {
 		// some code goes here
-		this.aggregatorIterator.rewind();
+		if (this.inputSorted) {
+			this.child.rewind();
+			this.nextGroupFirst = null;
+		}
+		else if (this.aggregatorIterator == null) {
+			this.resultIterator.rewind();
+		}
+		else {
+			this.aggregatorIterator.rewind();
+		}
 	}
 
 	/**
@@ -164,10 +553,33 @@ public class Aggregate extends Operator {
 
 	public void close() {
 		// some code goes here
-		this.aggregatorIterator.close();
+		// the hash path reads the child once, in open, but leaves it open
+		this.child.close();
+		this.nextGroupFirst = null;
+		if (this.aggregatorIterator != null) {
+			this.aggregatorIterator.close();
+		}
+		if (this.results != null) {
+			this.resultIterator.close();
+			this.results.delete();
+			this.results = null;
+			this.resultIterator = null;
+		}
 		super.close();
 	}
 
+	@Override
+	public int getSortField() {
+		// groups come out in the order of the sorted child
+		return this.inputSorted && this.gfield != Aggregator.NO_GROUPING ? 0 : -1;
+	}
+
+	@Override
+	public boolean isSortAscending() {
+		return this.inputSorted && this.child instanceof Operator
+				&& ((Operator) this.child).isSortAscending();
+	}
+
 	@Override
 	public DbIterator[] getChildren() {
 		// some code goes here
@@ -57,10 +57,49 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merges every selected row of batch into the aggregate, as
+     * mergeTupleIntoGroup would each of them.
+     *
+     * @param batch rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatchIntoGroups(TupleBatch batch);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
      */
     public DbIterator iterator();
+
+    /**
+     * @return the number of distinct groups merged into so far.
+     */
+    public int numGroups();
+
+    /**
+     * @return the schema of the tuples of partialIterator: the group-by
+     *   field, if there is one, followed by the state of the group.
+     */
+    public TupleDesc getPartialTupleDesc();
+
+    /**
+     * Create a DbIterator over the partial state of each group, which
+     * mergePartial of an aggregator constructed with the same arguments
+     * can merge back, e.g. after the states were written to disk.
+     */
+    public DbIterator partialIterator();
+
+    /**
+     * Merges a tuple of partialIterator into the aggregate, as if the
+     * tuples it summarizes were merged with mergeTupleIntoGroup.
+     *
+     * @param partial the partial state of one group
+     */
+    public void mergePartial(Tuple partial);
+
+    /**
+     * Drops every group, leaving the aggregator as it was constructed.
+     */
+    public void clear();
     
 }
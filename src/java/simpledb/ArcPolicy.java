@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha). Resident pages are split
+ * between T1 (seen once recently) and T2 (seen at least twice recently);
+ * ghost lists B1 and B2 remember pages recently evicted from each. A miss
+ * that hits a ghost list shifts the target size p of T1 towards whichever
+ * list would have kept the page, so the policy tunes itself between
+ * recency (scans) and frequency (point lookups) without a knob.
+ * All operations are O(1) apart from skipping pages the filter rejects.
+ */
+public class ArcPolicy extends EvictionPolicy {
+
+    private final int c;
+    private int p = 0;
+    private boolean missInB2 = false;
+
+    private LinkedHashSet<PageId> t1 = new LinkedHashSet<PageId>();
+    private LinkedHashSet<PageId> t2 = new LinkedHashSet<PageId>();
+    private LinkedHashSet<PageId> b1 = new LinkedHashSet<PageId>();
+    private LinkedHashSet<PageId> b2 = new LinkedHashSet<PageId>();
+
+    /**
+     * @param capacity
+     *            the maximum number of resident pages
+     */
+    public ArcPolicy(int capacity) {
+        this.c = Math.max(1, capacity);
+    }
+
+    /** @return the current target size of T1, exposed for tests */
+    public int getTarget() {
+        return p;
+    }
+
+    protected void onHit(PageId pid) {
+        if (t1.remove(pid) || t2.remove(pid))
+            t2.add(pid);
+    }
+
+    protected void onMiss(PageId pid) {
+        missInB2 = false;
+        if (b1.contains(pid)) {
+            int delta = Math.max(b2.size() / b1.size(), 1);
+            p = Math.min(c, p + delta);
+        } else if (b2.contains(pid)) {
+            int delta = Math.max(b1.size() / b2.size(), 1);
+            p = Math.max(0, p - delta);
+            missInB2 = true;
+        }
+    }
+
+    public void pageAdmitted(PageId pid) {
+        if (t1.contains(pid) || t2.contains(pid)) {
+            onHit(pid);
+            return;
+        }
+        if (b1.remove(pid) || b2.remove(pid))
+            t2.add(pid);
+        else
+            t1.add(pid);
+        missInB2 = false;
+
+        // keep the directory at |T1| + |B1| <= c and total <= 2c
+        while (t1.size() + b1.size() > c && !b1.isEmpty())
+            removeOldest(b1);
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c
+                && !b2.isEmpty())
+            removeOldest(b2);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (!t1.remove(pid))
+            t2.remove(pid);
+    }
+
+    public PageId evict(VictimFilter filter) {
+        boolean fromT1 = !t1.isEmpty()
+                && (t1.size() > p || (missInB2 && t1.size() == p));
+        PageId victim;
+        if (fromT1) {
+            victim = evictFrom(t1, b1, filter);
+            if (victim == null)
+                victim = evictFrom(t2, b2, filter);
+        } else {
+            victim = evictFrom(t2, b2, filter);
+            if (victim == null)
+                victim = evictFrom(t1, b1, filter);
+        }
+        return victim;
+    }
+
+    public String getName() {
+        return "ARC";
+    }
+
+    private static PageId evictFrom(LinkedHashSet<PageId> list,
+            LinkedHashSet<PageId> ghost, VictimFilter filter) {
+        Iterator<PageId> it = list.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                ghost.add(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private static void removeOldest(LinkedHashSet<PageId> list) {
+        Iterator<PageId> it = list.iterator();
+        it.next();
+        it.remove();
+    }
+}
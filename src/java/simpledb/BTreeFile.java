@@ -0,0 +1,557 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BTreeFile is a secondary index on one field of a table stored in a
+ * {@link HeapFile}: a B+-tree of {@link BTreePage}s whose leaves hold, in
+ * key order, an entry per tuple of the table with its key and record id.
+ * As a DbFile it stands for the indexed table read in key order, so its
+ * TupleDesc is the table's, insertTuple and deleteTuple maintain the entry
+ * of a tuple of the table, and {@link #iterator(TransactionId, Predicate.Op, Field)}
+ * returns the tuples whose key satisfies a predicate.
+ * <p>
+ * Pages are read and written through the BufferPool, so they are locked by
+ * the transactions that use them like the pages of a HeapFile: lookups take
+ * shared locks on the path to a leaf, and an insert or a delete upgrades
+ * them on the pages it changes, which a concurrent transaction can then
+ * neither read nor change until it completes. Page allocation and the
+ * growth of the file, which are not covered by a page lock, are latched.
+ * Deletes never merge pages: a leaf that becomes empty stays in the tree.
+ */
+public class BTreeFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    // share of a leaf that bulk loading fills, so that inserts do not split
+    // every leaf right away
+    private static final double LOAD_FACTOR = 0.75;
+
+    private File file;
+    private int tableid;
+    private int keyField;
+    private TupleDesc td;
+    private FileChannel fileChannel;
+    // held while a page is allocated at the end of the file
+    private ReentrantLock latch = new ReentrantLock();
+
+    /**
+     * Opens the index stored in f, or creates an empty one if f is empty.
+     *
+     * @param f
+     *            the file that stores the index
+     * @param tableid
+     *            the id of the indexed table
+     * @param keyField
+     *            the index of the indexed field in the table's tuples
+     */
+    public BTreeFile(File f, int tableid, int keyField) {
+        this.file = f;
+        this.tableid = tableid;
+        this.keyField = keyField;
+        this.td = Database.getCatalog().getTupleDesc(tableid);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+            this.fileChannel = raf.getChannel();
+            if (this.fileChannel.size() == 0) {
+                writePageData(0, metaPageData(0));
+            }
+        } catch (IOException e) {
+            System.out.println("Couldn't open index file " + f);
+        }
+    }
+
+    /**
+     * Creates an index on field keyField of a table in f, replacing what f
+     * held, and fills it with an entry for every tuple the table has. The
+     * leaves are written bottom-up from the sorted entries, not through the
+     * BufferPool, so nothing must use f meanwhile. The index still has to be
+     * added to the catalog.
+     *
+     * @see Catalog#addIndex
+     */
+    public static BTreeFile create(File f, int tableid, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        new FileOutputStream(f).close();
+        BTreeFile index = new BTreeFile(f, tableid, keyField);
+        TransactionId tid = new TransactionId();
+        ArrayList<BTreePage.Entry> entries = new ArrayList<BTreePage.Entry>();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            RecordId rid = t.getRecordId();
+            entries.add(new BTreePage.Entry(t.getField(keyField),
+                    rid.getPageId().pageNumber(), rid.tupleno()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(entries);
+        index.bulkLoad(entries);
+        return index;
+    }
+
+    /**
+     * Writes the sorted entries into the empty file as a tree.
+     */
+    private void bulkLoad(ArrayList<BTreePage.Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        int keyLen = getKeyType().getLen();
+        int perLeaf = Math.max(1, (int) (LOAD_FACTOR
+                * ((BufferPool.PAGE_SIZE - 12) / (keyLen + 8))));
+        int perNode = Math.max(2, (int) (LOAD_FACTOR
+                * ((BufferPool.PAGE_SIZE - 16) / (keyLen + 12))));
+        int nextPage = 1;
+        // the first page and first entry of each node of the level below
+        ArrayList<Integer> pages = new ArrayList<Integer>();
+        ArrayList<BTreePage.Entry> firsts = new ArrayList<BTreePage.Entry>();
+        int numLeaves = (entries.size() + perLeaf - 1) / perLeaf;
+        for (int i = 0; i < numLeaves; i++) {
+            List<BTreePage.Entry> chunk = entries.subList(i * perLeaf,
+                    Math.min(entries.size(), (i + 1) * perLeaf));
+            int next = i + 1 < numLeaves ? nextPage + 1 : 0;
+            writePageData(nextPage, nodePageData(BTreePage.LEAF, next, null, chunk));
+            pages.add(nextPage++);
+            firsts.add(chunk.get(0));
+        }
+        while (pages.size() > 1) {
+            ArrayList<Integer> upPages = new ArrayList<Integer>();
+            ArrayList<BTreePage.Entry> upFirsts = new ArrayList<BTreePage.Entry>();
+            int fanout = perNode + 1;
+            for (int i = 0; i < pages.size(); i += fanout) {
+                int end = Math.min(pages.size(), i + fanout);
+                writePageData(nextPage, nodePageData(BTreePage.INTERNAL, 0,
+                        pages.subList(i, end), firsts.subList(i + 1, end)));
+                upPages.add(nextPage++);
+                upFirsts.add(firsts.get(i));
+            }
+            pages = upPages;
+            firsts = upFirsts;
+        }
+        writePageData(0, metaPageData(pages.get(0)));
+    }
+
+    private static byte[] metaPageData(int root) {
+        ByteBuffer b = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        b.putInt(BTreePage.META);
+        b.putInt(0);
+        b.putInt(root);
+        return b.array();
+    }
+
+    private static byte[] nodePageData(int kind, int next, List<Integer> children,
+            List<BTreePage.Entry> entries) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(kind);
+        dos.writeInt(entries.size());
+        dos.writeInt(next);
+        if (children != null) {
+            dos.writeInt(children.get(0));
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            BTreePage.Entry e = entries.get(i);
+            e.key.serialize(dos);
+            dos.writeInt(e.page);
+            dos.writeInt(e.slot);
+            if (children != null) {
+                dos.writeInt(children.get(i + 1));
+            }
+        }
+        dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, the hash code of
+     * the absolute name of its file, as for a HeapFile.
+     */
+    public int getId() {
+        return this.file.getAbsoluteFile().hashCode();
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    public int getKeyField() {
+        return this.keyField;
+    }
+
+    public Type getKeyType() {
+        return this.td.getFieldType(this.keyField);
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            this.fileChannel.read(buffer, (long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+            return new BTreePage((BTreePageId) pid, buffer.array());
+        } catch (IOException e) {
+            System.out.println("Could not read specified page.");
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pageNumber, byte[] data) throws IOException {
+        this.fileChannel.write(ByteBuffer.wrap(data), (long) pageNumber * BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, the meta page included.
+     */
+    public int numPages() {
+        try {
+            return (int) (this.fileChannel.size() / BufferPool.PAGE_SIZE);
+        } catch (IOException e) {
+            System.out.println("Couldn't determine file size.");
+            return 0;
+        }
+    }
+
+    private BTreePageId pageId(int pageNumber) {
+        return new BTreePageId(getId(), pageNumber);
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNumber, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pageId(pageNumber), perm);
+    }
+
+    /**
+     * Allocates a page of the given kind at the end of the file, locked by
+     * tid.
+     */
+    private BTreePage newPage(TransactionId tid, int kind, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNumber;
+        this.latch.lock();
+        try {
+            pageNumber = numPages();
+            writePageData(pageNumber, new byte[BufferPool.PAGE_SIZE]);
+        } finally {
+            this.latch.unlock();
+        }
+        BTreePage p = getPage(tid, pageNumber, Permissions.READ_WRITE);
+        p.kind = kind;
+        dirty(tid, p, dirtied);
+        return p;
+    }
+
+    private static void dirty(TransactionId tid, BTreePage p, ArrayList<Page> dirtied) {
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p)) {
+            dirtied.add(p);
+        }
+    }
+
+    /**
+     * Descends from the root to the leaf that holds e, or to the first leaf
+     * if e is null, with shared locks.
+     *
+     * @param path
+     *            if not null, gets the page numbers of the internal nodes on
+     *            the way, root first
+     * @return the page number of the leaf, or 0 if the tree is empty
+     */
+    private int findLeaf(TransactionId tid, BTreePage.Entry e, ArrayList<Integer> path)
+            throws DbException, TransactionAbortedException {
+        int pageNumber = getPage(tid, 0, Permissions.READ_ONLY).next;
+        while (pageNumber != 0) {
+            BTreePage p = getPage(tid, pageNumber, Permissions.READ_ONLY);
+            if (p.kind != BTreePage.INTERNAL) {
+                break;
+            }
+            if (path != null) {
+                path.add(pageNumber);
+            }
+            pageNumber = p.childFor(e);
+        }
+        return pageNumber;
+    }
+
+    /**
+     * @return the entry of t, which must have a record id.
+     */
+    private BTreePage.Entry entryOf(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple has no record id");
+        }
+        return new BTreePage.Entry(t.getField(this.keyField),
+                rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /**
+     * Adds the entry of t, a tuple of the indexed table that has just been
+     * inserted, to the index, splitting the pages that overflow.
+     *
+     * @see DbFile#insertTuple
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage.Entry e = entryOf(t);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        int leafNumber = findLeaf(tid, e, path);
+        if (leafNumber == 0) {
+            BTreePage meta = getPage(tid, 0, Permissions.READ_WRITE);
+            if (meta.next == 0) {
+                meta.next = newPage(tid, BTreePage.LEAF, dirtied).getId().pageNumber();
+                dirty(tid, meta, dirtied);
+            }
+            path.clear();
+            leafNumber = findLeaf(tid, e, path);
+        }
+        BTreePage leaf = getPage(tid, leafNumber, Permissions.READ_WRITE);
+        leaf.entries.add(leaf.lowerBound(e), e);
+        dirty(tid, leaf, dirtied);
+        if (leaf.entries.size() > leaf.maxEntries()) {
+            BTreePage right = newPage(tid, BTreePage.LEAF, dirtied);
+            int mid = leaf.entries.size() / 2;
+            List<BTreePage.Entry> upper = leaf.entries.subList(mid, leaf.entries.size());
+            right.entries.addAll(upper);
+            upper.clear();
+            right.next = leaf.next;
+            leaf.next = right.getId().pageNumber();
+            insertInParent(tid, path, leaf, right.entries.get(0), right, dirtied);
+        }
+        return dirtied;
+    }
+
+    /**
+     * Adds separator sep, with right to its right, to the parent of left,
+     * the last page of path, or to a new root if left is the root.
+     */
+    private void insertInParent(TransactionId tid, ArrayList<Integer> path, BTreePage left,
+            BTreePage.Entry sep, BTreePage right, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            BTreePage meta = getPage(tid, 0, Permissions.READ_WRITE);
+            BTreePage root = newPage(tid, BTreePage.INTERNAL, dirtied);
+            root.children.add(left.getId().pageNumber());
+            root.children.add(right.getId().pageNumber());
+            root.entries.add(sep);
+            meta.next = root.getId().pageNumber();
+            dirty(tid, meta, dirtied);
+            return;
+        }
+        BTreePage parent = getPage(tid, path.remove(path.size() - 1), Permissions.READ_WRITE);
+        int i = parent.upperBound(sep);
+        parent.entries.add(i, sep);
+        parent.children.add(i + 1, right.getId().pageNumber());
+        dirty(tid, parent, dirtied);
+        if (parent.entries.size() > parent.maxEntries()) {
+            BTreePage sibling = newPage(tid, BTreePage.INTERNAL, dirtied);
+            int mid = parent.entries.size() / 2;
+            BTreePage.Entry up = parent.entries.get(mid);
+            List<BTreePage.Entry> upper = parent.entries.subList(mid + 1, parent.entries.size());
+            sibling.entries.addAll(upper);
+            upper.clear();
+            parent.entries.remove(mid);
+            List<Integer> upperChildren = parent.children.subList(mid + 1, parent.children.size());
+            sibling.children.addAll(upperChildren);
+            upperChildren.clear();
+            insertInParent(tid, path, parent, up, sibling, dirtied);
+        }
+    }
+
+    /**
+     * Removes the entry of t, a tuple of the indexed table that is being
+     * deleted, from the index.
+     *
+     * @throws DbException
+     *             if the index has no entry for t
+     * @see DbFile#deleteTuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        BTreePage.Entry e = entryOf(t);
+        int leafNumber = findLeaf(tid, e, null);
+        if (leafNumber != 0) {
+            BTreePage leaf = getPage(tid, leafNumber, Permissions.READ_WRITE);
+            int i = leaf.lowerBound(e);
+            if (i < leaf.entries.size() && leaf.entries.get(i).compareTo(e) == 0) {
+                leaf.entries.remove(i);
+                leaf.markDirty(true, tid);
+                return leaf;
+            }
+        }
+        throw new DbException("tuple not in index");
+    }
+
+    /**
+     * Returns the tuples of the indexed table in key order.
+     *
+     * @see DbFile#iterator
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null, null);
+    }
+
+    /**
+     * Returns the tuples of the indexed table whose key satisfies
+     * key op operand, in key order.
+     *
+     * @param op
+     *            EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("cannot look up " + op + " in an index");
+        }
+        return new BTreeFileIterator(tid, op, operand);
+    }
+
+    // see IndexFile.java for javadocs
+    public boolean supports(Predicate.Op op) {
+        return SortMergeJoin.supports(op);
+    }
+
+    public boolean isSorted() {
+        return true;
+    }
+
+    /**
+     * Iterates over the leaves from the first entry that can satisfy the
+     * predicate to the last one, and returns the heap tuples of the entries
+     * that do. It resumes after the last entry it returned rather than at a
+     * position in a page, so entries deleted meanwhile by its own
+     * transaction, e.g. by a Delete reading from it, make it skip nothing.
+     */
+    private class BTreeFileIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+        private boolean open = false;
+        // the leaf to continue in, 0 once there is nothing left, and the
+        // entry to continue after, or before if it is the start entry
+        private int leaf;
+        private BTreePage.Entry last;
+        private boolean started;
+        private Tuple nextTuple;
+
+        BTreeFileIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.open = true;
+            rewind();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.last = null;
+            if (this.op == Predicate.Op.EQUALS || this.op == Predicate.Op.GREATER_THAN_OR_EQ) {
+                this.last = new BTreePage.Entry(this.operand, Integer.MIN_VALUE, Integer.MIN_VALUE);
+            } else if (this.op == Predicate.Op.GREATER_THAN) {
+                this.last = new BTreePage.Entry(this.operand, Integer.MAX_VALUE, Integer.MAX_VALUE);
+            }
+            this.leaf = findLeaf(this.tid, this.last, null);
+            this.started = false;
+            this.nextTuple = null;
+        }
+
+        /**
+         * @return false if no entry from e on can satisfy the predicate.
+         */
+        private boolean inRange(BTreePage.Entry e) {
+            if (this.op == null) {
+                return true;
+            }
+            int c = TupleComparator.compareFields(e.key, this.operand);
+            switch (this.op) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return c <= 0;
+            case LESS_THAN:
+                return c < 0;
+            default:
+                return true;
+            }
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            while (this.leaf != 0) {
+                BTreePage p = getPage(this.tid, this.leaf, Permissions.READ_ONLY);
+                int i = this.last == null ? 0
+                        : this.started ? p.upperBound(this.last) : p.lowerBound(this.last);
+                if (i == p.entries.size()) {
+                    this.leaf = p.next;
+                    continue;
+                }
+                BTreePage.Entry e = p.entries.get(i);
+                this.last = e;
+                this.started = true;
+                if (!inRange(e)) {
+                    this.leaf = 0;
+                    break;
+                }
+                HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(this.tid,
+                        new HeapPageId(tableid, e.page), Permissions.READ_ONLY);
+                Tuple t = heapPage.getTuple(e.slot);
+                if (t != null) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!this.open) {
+                return false;
+            }
+            if (this.nextTuple == null) {
+                this.nextTuple = readNext();
+            }
+            return this.nextTuple != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = this.nextTuple;
+            this.nextTuple = null;
+            return t;
+        }
+
+        public void close() {
+            this.open = false;
+            this.nextTuple = null;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Each instance of BTreePage stores one page of a {@link BTreeFile}: the
+ * meta page, page 0, which holds the number of the root page, or a leaf or
+ * internal node of the tree. The format of a page is three ints, its kind,
+ * its number of entries and a page number (the right sibling of a leaf, or
+ * the root for the meta page), followed by the entries:
+ * <ul>
+ * <li>a leaf holds sorted entries, each a key followed by the page number
+ * and slot of the heap tuple it indexes;
+ * <li>an internal node holds its first child's page number, then each
+ * separator entry, formatted as in a leaf, followed by the page number of
+ * the child to its right.
+ * </ul>
+ * Entries are ordered by key, then by page number and slot, so that every
+ * entry is distinct even when keys are not. The child to the left of a
+ * separator holds the entries below it, the child to its right those at or
+ * above it.
+ *
+ * @see BTreeFile
+ * @see BufferPool
+ */
+public class BTreePage implements Page {
+
+    /** Kind of a page that was allocated but is not part of the tree yet. */
+    static final int FREE = 0;
+    static final int LEAF = 1;
+    static final int INTERNAL = 2;
+    static final int META = 3;
+
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * An entry of the index: a key and the record id of the heap tuple with
+     * that key.
+     */
+    static class Entry implements Comparable<Entry> {
+        final Field key;
+        final int page;
+        final int slot;
+
+        Entry(Field key, int page, int slot) {
+            this.key = key;
+            this.page = page;
+            this.slot = slot;
+        }
+
+        public int compareTo(Entry o) {
+            int c = TupleComparator.compareFields(this.key, o.key);
+            if (c != 0)
+                return c;
+            if (this.page != o.page)
+                return this.page < o.page ? -1 : 1;
+            return this.slot < o.slot ? -1 : (this.slot == o.slot ? 0 : 1);
+        }
+
+        /**
+         * @return the index of the first of the sorted entries that is not
+         *         below e (or, if strict, is above e), or the number of
+         *         entries if there is none.
+         */
+        static int search(List<Entry> entries, Entry e, boolean strict) {
+            int lo = 0, hi = entries.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = entries.get(mid).compareTo(e);
+                if (c < 0 || (c == 0 && strict)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private final BTreePageId pid;
+    private final Type keyType;
+    int kind;
+    // a leaf's right sibling, 0 if it is the last leaf; the meta page's root,
+    // 0 if the tree is empty
+    int next;
+    final ArrayList<Entry> entries = new ArrayList<Entry>();
+    // an internal node's children, one more than its entries
+    final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    private byte[] oldData;
+    private TransactionId dirtyTid;
+
+    /**
+     * Create a BTreePage from a set of bytes of data read from disk, in the
+     * format described above. A page of zeroes is a FREE page.
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = ((IndexFile) Database.getCatalog().getDbFile(id.getTableId()))
+                .getKeyType();
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.kind = dis.readInt();
+        int n = dis.readInt();
+        this.next = dis.readInt();
+        try {
+            if (this.kind == INTERNAL) {
+                this.children.add(dis.readInt());
+            }
+            for (int i = 0; i < n; i++) {
+                this.entries.add(new Entry(this.keyType.parse(dis), dis.readInt(), dis.readInt()));
+                if (this.kind == INTERNAL) {
+                    this.children.add(dis.readInt());
+                }
+            }
+        } catch (ParseException e) {
+            throw new IOException("bad index entry on " + id.pageNumber());
+        }
+        this.oldData = data.clone();
+    }
+
+    public BTreePageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * @return the most entries a page of this kind can hold.
+     */
+    int maxEntries() {
+        int entrySize = this.keyType.getLen() + 8;
+        if (this.kind == INTERNAL) {
+            return (BufferPool.PAGE_SIZE - HEADER_SIZE - 4) / (entrySize + 4);
+        }
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / entrySize;
+    }
+
+    /**
+     * @return the index of the first entry that is not below e, or the
+     *         number of entries if there is none.
+     */
+    int lowerBound(Entry e) {
+        return Entry.search(this.entries, e, false);
+    }
+
+    /**
+     * @return the index of the first entry above e, or the number of
+     *         entries if there is none.
+     */
+    int upperBound(Entry e) {
+        return Entry.search(this.entries, e, true);
+    }
+
+    /**
+     * @return the page number of the child of this internal node that holds
+     *         e, or its first child if e is null.
+     */
+    int childFor(Entry e) {
+        return this.children.get(e == null ? 0 : upperBound(e));
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(this.kind);
+            dos.writeInt(this.entries.size());
+            dos.writeInt(this.next);
+            if (this.kind == INTERNAL) {
+                dos.writeInt(this.children.get(0));
+            }
+            for (int i = 0; i < this.entries.size(); i++) {
+                Entry e = this.entries.get(i);
+                e.key.serialize(dos);
+                dos.writeInt(e.page);
+                dos.writeInt(e.slot);
+                if (this.kind == INTERNAL) {
+                    dos.writeInt(this.children.get(i + 1));
+                }
+            }
+            dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage() {
+        try {
+            return new BTreePage(this.pid, this.oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        this.oldData = getPageData().clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.dirtyTid;
+    }
+}
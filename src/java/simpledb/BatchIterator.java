@@ -0,0 +1,30 @@
+package simpledb;
+
+/**
+ * BatchIterator is implemented by operators that can produce their output a
+ * {@link TupleBatch} at a time instead of a Tuple at a time, which saves a
+ * virtual call and usually an allocation per tuple at every level of the
+ * plan. An operator that consumes batches asks for them with nextBatch
+ * instead of next; a single consumer should not mix the two.
+ * <p>
+ * Some operators only produce batches when their child does, so callers
+ * should check {@link #isBatchSource} before relying on nextBatch.
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of output. The batch may have no selected rows
+     * and stays valid until the next call to nextBatch, rewind or close.
+     *
+     * @return the next batch, or null if the iteration is finished.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException;
+
+    /**
+     * @return true if nextBatch is supported, i.e. this iterator produces
+     *         batches natively or its children do.
+     */
+    public boolean isBatchSource();
+}
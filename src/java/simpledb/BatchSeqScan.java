@@ -0,0 +1,208 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchSeqScan is a sequential scan that reads its table a
+ * {@link TupleBatch} at a time. Tuples of a HeapFile are decoded straight
+ * from the page into the batch's columns, without creating a Tuple per row;
+ * other files are read through their tuple iterator.
+ */
+public class BatchSeqScan extends SeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableid;
+    private int batchSize;
+    private int partition = 0;
+    private int numPartitions = 1;
+
+    transient private DbFile file = null;
+    transient private TupleBatch batch = null;
+    // next page and slot to read from a HeapFile
+    transient private int pageNo;
+    transient private int slot;
+    // first page and one past the last page of this scan's partition
+    transient private int firstPage;
+    transient private int endPage;
+    transient private DbFileIterator fileIterator = null;
+    transient private TupleBatch.Cursor cursor = null;
+    transient private Tuple nextTuple = null;
+
+    /**
+     * Creates a batched sequential scan over the specified table as a part
+     * of the specified transaction.
+     * 
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @see SeqScan#SeqScan(TransactionId, int, String)
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, TupleBatch.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param batchSize
+     *            the maximum number of tuples per batch
+     * @see #BatchSeqScan(TransactionId, int, String)
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias,
+            int batchSize) {
+        super(tid, tableid, tableAlias);
+        this.tid = tid;
+        this.tableid = tableid;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Creates a scan of one partition of a HeapFile: partition i of n reads
+     * the ith of n contiguous page ranges of about the same size, so that n
+     * scans can read the table in parallel. The ranges are computed when the
+     * scan is opened. Files other than HeapFiles are read by partition 0
+     * only.
+     *
+     * @param partition
+     *            the partition to read, from 0 to numPartitions - 1
+     * @param numPartitions
+     *            the number of partitions the table is split into
+     * @see #BatchSeqScan(TransactionId, int, String, int)
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias,
+            int batchSize, int partition, int numPartitions) {
+        this(tid, tableid, tableAlias, batchSize);
+        if (partition < 0 || partition >= numPartitions) {
+            throw new IllegalArgumentException("no partition " + partition
+                    + " of " + numPartitions);
+        }
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+    }
+
+    /**
+     * @return a tuple-at-a-time scan of the whole table, for consumers that
+     *         would not use batches.
+     */
+    SeqScan asSeqScan() {
+        return new SeqScan(this.tid, this.tableid, getAlias());
+    }
+
+    public void reset(int tableid, String tableAlias) {
+        super.reset(tableid, tableAlias);
+        this.tableid = tableid;
+        this.batch = null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (this.batch != null) {
+            throw new DbException("Already Open");
+        }
+        this.file = Database.getCatalog().getDbFile(this.tableid);
+        this.batch = new TupleBatch(getTupleDesc(), this.batchSize);
+        this.firstPage = 0;
+        this.endPage = 0;
+        if (this.file instanceof HeapFile) {
+            long numPages = ((HeapFile) this.file).numPages();
+            this.firstPage = (int) (numPages * this.partition / this.numPartitions);
+            this.endPage = (int) (numPages * (this.partition + 1) / this.numPartitions);
+        } else if (this.partition == 0) {
+            this.fileIterator = this.file.iterator(this.tid);
+            this.fileIterator.open();
+        }
+        this.pageNo = this.firstPage;
+        this.slot = 0;
+        this.cursor = new TupleBatch.Cursor();
+        this.nextTuple = null;
+    }
+
+    public boolean isBatchSource() {
+        return true;
+    }
+
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (this.batch == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        this.batch.clear();
+        if (this.fileIterator != null) {
+            KeyFilter filter = this.keyFilter;
+            int field = this.keyField;
+            while (!this.batch.isFull() && this.fileIterator.hasNext()) {
+                Tuple t = this.fileIterator.next();
+                if (filter != null
+                        && !filter.mightContain(TupleBatch.valueOf(t.getField(field)))) {
+                    continue;
+                }
+                int row = this.batch.addRow();
+                this.batch.setFields(row, t, 0);
+                if (t.getRecordId() != null) {
+                    this.batch.setRecordId(row, t.getRecordId().getPageId(),
+                            t.getRecordId().tupleno());
+                }
+            }
+        } else {
+            KeyFilter filter = this.keyFilter;
+            int field = this.keyField;
+            while (!this.batch.isFull() && this.pageNo < this.endPage) {
+                HeapPageId pid = new HeapPageId(this.tableid, this.pageNo);
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                        this.tid, pid, Permissions.READ_ONLY);
+                this.slot = page.fillBatch(this.batch, this.slot, field, filter);
+                if (this.slot >= page.numSlots()) {
+                    this.pageNo++;
+                    this.slot = 0;
+                }
+            }
+        }
+        return this.batch.numRows() > 0 ? this.batch : null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (this.batch == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        if (this.nextTuple == null) {
+            this.nextTuple = this.cursor.next(this);
+        }
+        return this.nextTuple != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = this.nextTuple;
+        this.nextTuple = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (this.batch == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        this.pageNo = this.firstPage;
+        this.slot = 0;
+        if (this.fileIterator != null) {
+            this.fileIterator.rewind();
+        }
+        this.cursor.reset();
+        this.nextTuple = null;
+    }
+
+    public void close() {
+        if (this.fileIterator != null) {
+            this.fileIterator.close();
+            this.fileIterator = null;
+        }
+        this.batch = null;
+        this.cursor = null;
+        this.nextTuple = null;
+    }
+}
@@ -1,9 +1,11 @@
 package simpledb;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +15,11 @@ import java.util.Iterator;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * BufferPool itself holds no monitor: transactional locks are acquired
+ * before the page table is touched, and the {@link PageCache} partitions
+ * its page table so that a blocked transaction or a slow page fault does
+ * not stall requests for unrelated pages.
  */
 public class BufferPool {
 	/** Bytes per page, including header. */
@@ -22,10 +29,18 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
 	public static final int DEFAULT_PAGES = 50;
-	private int maxPages;
-	private HashMap<PageId,Page> pages;
-	private ArrayList<PageId> orderedPageIds;
+
+	/** Replacement policy used when none is passed to the constructor. */
+	public static final EvictionPolicy.Kind DEFAULT_POLICY = EvictionPolicy.Kind.LRU;
+
+	private PageCache cache;
 	private LockManager lockManager;
+	private ReadAhead readAhead;
+	// pages each running transaction fetched with READ_WRITE, i.e. the only
+	// pages it can have dirtied
+	private ConcurrentHashMap<TransactionId, Set<PageId>> writeSets;
+	// pages each running transaction's bulk inserts wrote straight to disk
+	private ConcurrentHashMap<TransactionId, Set<HeapPageId>> directPages;
 
 	/**
 	 * Creates a BufferPool that caches up to numPages pages.
@@ -33,11 +48,47 @@ public class BufferPool {
 	 * @param numPages maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int numPages) {
+		this(numPages, DEFAULT_POLICY);
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and replaces
+	 * them according to the given policy.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 * @param policy the page replacement policy
+	 */
+	public BufferPool(int numPages, EvictionPolicy.Kind policy) {
 		// some code goes here
-		this.maxPages = numPages;
-		this.pages = new HashMap<PageId,Page>();
-		this.orderedPageIds = new ArrayList<PageId>();
+		this.cache = new PageCache(numPages, EvictionPolicy.create(policy, numPages));
 		this.lockManager = new LockManager();
+		this.readAhead = new ReadAhead(this.cache);
+		this.writeSets = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+		this.directPages = new ConcurrentHashMap<TransactionId, Set<HeapPageId>>();
+	}
+
+	/**
+	 * @return the replacement policy of this buffer pool, which also
+	 *         reports its hit ratio.
+	 */
+	public EvictionPolicy getEvictionPolicy() {
+		return this.cache.getPolicy();
+	}
+
+	/**
+	 * @return the lock manager of this buffer pool, which also reports lock
+	 *         wait and deadlock statistics.
+	 */
+	public LockManager getLockManager() {
+		return this.lockManager;
+	}
+
+	/**
+	 * @return the read-ahead of this buffer pool, which prefetches pages
+	 *         of tables that are read in order.
+	 */
+	public ReadAhead getReadAhead() {
+		return this.readAhead;
 	}
 
 	/**
@@ -56,26 +107,66 @@ public class BufferPool {
 	 * @param perm the requested permissions on the page
 	 * @throws IOException 
 	 */
-	public synchronized Page getPage(TransactionId tid, PageId pid, Permissions perm)
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm)
 			throws TransactionAbortedException, DbException{
 		// some code goes here
+		lockPage(tid, pid, perm);
+		return this.cache.getPage(pid);
+	}
+
+	/**
+	 * Retrieves a page as getPage does, pinned so that it is not evicted
+	 * while the caller works on it, e.g. while a scan iterates over its
+	 * tuples. The caller must release the pin with
+	 * {@link PageCache.Frame#unpin} once it is done with the page.
+	 *
+	 * @param tid the ID of the transaction requesting the page
+	 * @param pid the ID of the requested page
+	 * @param perm the requested permissions on the page
+	 * @return the frame holding the page
+	 */
+	public PageCache.Frame getPinnedPage(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		lockPage(tid, pid, perm);
+		return this.cache.getPinnedFrame(pid);
+	}
+
+	private void lockPage(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException {
 		this.lockManager.acquireLock(pid, tid, perm);
-		
-		if(this.pages.containsKey(pid)) {
-			this.orderedPageIds.remove(pid);
-			this.orderedPageIds.add(pid);
-			return this.pages.get(pid);
+		if (perm.equals(Permissions.READ_WRITE)) {
+			writeSetOf(tid).add(pid);
 		}
-		else {
-			if(this.pages.size() == this.maxPages){
-				evictPage();
-			}
-			DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
-			Page page = file.readPage(pid);
-			this.pages.put(pid, page);
-			this.orderedPageIds.add(pid);
-			return page;
-		}        	
+		this.readAhead.pageRequested(tid, pid);
+	}
+
+	/**
+	 * Locks a whole table for tid, e.g. before scanning all of it, so that
+	 * its pages need no locks of their own.
+	 *
+	 * @param tid the ID of the transaction requesting the lock
+	 * @param tableId the table to lock
+	 * @param mode the requested lock mode
+	 */
+	public void lockTable(TransactionId tid, int tableId, LockMode mode)
+			throws TransactionAbortedException {
+		this.lockManager.acquireTableLock(tableId, tid, mode);
+	}
+
+	/**
+	 * Locks a single tuple for tid, taking only intention locks on its page.
+	 * Nothing in the engine calls this yet: inserts and deletes still change
+	 * a page through getPage with READ_WRITE, whose X lock on the page
+	 * conflicts with other transactions' intention locks, and dirty pages
+	 * and before images are tracked per page, not per tuple.
+	 *
+	 * @param tid the ID of the transaction requesting the lock
+	 * @param rid the tuple to lock
+	 * @param perm the requested permissions on the tuple
+	 */
+	public void lockTuple(TransactionId tid, RecordId rid, Permissions perm)
+			throws TransactionAbortedException {
+		this.lockManager.acquireTupleLock(rid, tid, perm);
 	}
 
 	/**
@@ -122,24 +213,41 @@ public class BufferPool {
 			throws IOException {
 		// some code goes here
 		// not necessary for proj1
-		Iterator<PageId> pageIds = this.pages.keySet().iterator();
-		Page currentPage = null;
-		while (pageIds.hasNext()) {
-			currentPage = this.pages.get(pageIds.next());
-			if (commit) {
-				//flush all dirty pages associated with tid
-				if(currentPage.isDirty() != null && currentPage.isDirty().equals(tid)) {
-					flushPage(currentPage.getId());
+		// only the pages tid wrote need flushing or rolling back, so the
+		// cost is independent of the size of the buffer pool
+		Set<PageId> written = this.writeSets.remove(tid);
+		if (written != null) {
+			for (PageId pid : written) {
+				Page currentPage = this.cache.peekPage(pid);
+				if (currentPage == null) {
+					continue;
 				}
-				currentPage.setBeforeImage();
-			}
-			else {
-				// revert all dirty pages associated with tid
-				if(currentPage.isDirty() != null && currentPage.isDirty().equals(tid)) {
-					this.pages.put(currentPage.getId(), currentPage.getBeforeImage());
+				boolean dirtiedByTid = currentPage.isDirty() != null && currentPage.isDirty().equals(tid);
+				if (commit) {
+					//flush all dirty pages associated with tid
+					if (dirtiedByTid) {
+						flushPage(pid);
+					}
+					currentPage.setBeforeImage();
 				}
+				else if (dirtiedByTid) {
+					// revert all dirty pages associated with tid
+					this.cache.putPage(currentPage.getBeforeImage());
+				}
+			}
+		}
+		Set<HeapPageId> direct = this.directPages.remove(tid);
+		if (direct != null && !commit) {
+			// the pages were new, so their before images are empty
+			for (HeapPageId pid : direct) {
+				DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+				file.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+				// after the write, so that a copy read ahead before it is
+				// dropped too
+				this.cache.discardPage(pid);
 			}
 		}
+		this.readAhead.transactionComplete(tid);
 		this.lockManager.releaseAllLocks(tid);
 		// release all locks associated with tid
 	}
@@ -153,6 +261,7 @@ public class BufferPool {
 	 * Marks any pages that were dirtied by the operation as dirty by calling
 	 * their markDirty bit, and updates cached versions of any pages that have 
 	 * been dirtied so that future requests see up-to-date pages. 
+	 * Adds the tuple to the indexes on the table too.
 	 *
 	 * @param tid the transaction adding the tuple
 	 * @param tableId the table to add the tuple to
@@ -164,6 +273,63 @@ public class BufferPool {
 		// not necessary for proj1
 		DbFile file = Database.getCatalog().getDbFile(tableId);
 		file.insertTuple(tid, t);
+		for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+			index.insertTuple(tid, t);
+		}
+	}
+
+	/**
+	 * Adds tuples to the specified table on behalf of transaction tid in
+	 * bulk: tid takes a single X lock on the whole table, rather than one
+	 * lock per page, and the table fills its pages in order and appends
+	 * new ones in extents. Tables that are not heap files get the tuples
+	 * one at a time. The tuples are added to the indexes on the table too.
+	 * <p>
+	 * tid dirties at most half of the pool filling existing heap pages with
+	 * free space. New heap pages go through the pool too, so, as for any
+	 * transaction under NO STEAL, a load that dirties more pages than the
+	 * pool holds fails.
+	 * <p>
+	 * If direct, new heap pages bypass the pool and the log instead: they
+	 * are written to disk as soon as they are full, and emptied again if
+	 * tid aborts. Recovery after a crash does not undo them, so this is
+	 * meant for loading tables nothing else depends on yet. Index pages
+	 * still go through the pool, so loading an indexed table is limited by
+	 * the pool either way.
+	 *
+	 * @param tid the transaction adding the tuples
+	 * @param tableId the table to add the tuples to
+	 * @param tuples the tuples to add
+	 * @param direct whether to write new pages straight to disk
+	 * @see HeapFile#insertTuples
+	 */
+	public void insertTuples(TransactionId tid, int tableId, List<Tuple> tuples, boolean direct)
+			throws DbException, IOException, TransactionAbortedException {
+		DbFile file = Database.getCatalog().getDbFile(tableId);
+		if (!(file instanceof HeapFile)) {
+			for (Tuple t : tuples) {
+				insertTuple(tid, tableId, t);
+			}
+			return;
+		}
+		lockTable(tid, tableId, LockMode.X);
+		Set<HeapPageId> pages = this.directPages.get(tid);
+		if (pages == null) {
+			pages = Collections.emptySet();
+		}
+		int budget = Math.max(0, this.cache.getCapacity() / 2 - writeSetOf(tid).size());
+		List<HeapPageId> written = ((HeapFile) file).insertTuples(tid, tuples, pages, budget, direct);
+		if (!written.isEmpty()) {
+			if (pages.isEmpty()) {
+				this.directPages.put(tid, pages = new HashSet<HeapPageId>());
+			}
+			pages.addAll(written);
+		}
+		for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+			for (Tuple t : tuples) {
+				index.insertTuple(tid, t);
+			}
+		}
 	}
 
 	/**
@@ -174,7 +340,8 @@ public class BufferPool {
 	 * Marks any pages that were dirtied by the operation as dirty by calling
 	 * their markDirty bit.  Does not need to update cached versions of any pages that have 
 	 * been dirtied, as it is not possible that a new page was created during the deletion
-	 * (note difference from addTuple).
+	 * (note difference from addTuple). Removes the tuple from the indexes on
+	 * its table too.
 	 *
 	 * @param tid the transaction adding the tuple.
 	 * @param t the tuple to add
@@ -185,6 +352,9 @@ public class BufferPool {
 		// not necessary for proj1
 		PageId pid = t.getRecordId().getPageId();
 		DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+		for (IndexFile index : Database.getCatalog().getIndexes(pid.getTableId())) {
+			index.deleteTuple(tid, t);
+		}
 		file.deleteTuple(tid, t);
 	}
 
@@ -193,12 +363,11 @@ public class BufferPool {
 	 * NB: Be careful using this routine -- it writes dirty data to disk so will
 	 *     break simpledb if running in NO STEAL mode.
 	 */
-	public synchronized void flushAllPages() throws IOException {
+	public void flushAllPages() throws IOException {
 		// some code goes here
 		// not necessary for proj1
-		Iterator<PageId> pageIds = this.pages.keySet().iterator();
-		while(pageIds.hasNext()) {
-			flushPage(this.pages.get(pageIds.next()).getId());
+		for (Page page : this.cache.getPages()) {
+			flushPage(page.getId());
 		}
 	}
 
@@ -207,59 +376,63 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
 	 */
-	public synchronized void discardPage(PageId pid) {
+	public void discardPage(PageId pid) {
 		// some code goes here
 		// not necessary for proj1
+		this.cache.discardPage(pid);
 	}
 
 	/**
 	 * Flushes a certain page to disk
 	 * @param pid an ID indicating the page to flush
 	 */
-	private synchronized void flushPage(PageId pid) throws IOException {
+	private void flushPage(PageId pid) throws IOException {
 		// some code goes here
 		// not necessary for proj1
-		DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
-		file.writePage(this.pages.get(pid));
+		PageCache.Frame frame = this.cache.getFrame(pid);
+		if (frame == null) {
+			return;
+		}
+		// latch the frame so the page is neither replaced nor evicted while
+		// it is being written out
+		frame.getLatch().writeLock().lock();
+		try {
+			Page page = frame.getPage();
+			DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+			file.writePage(page);
+			page.markDirty(false, null);
+		} finally {
+			frame.getLatch().writeLock().unlock();
+		}
 	}
 
 	/** Write all pages of the specified transaction to disk.
 	 */
-	public synchronized  void flushPages(TransactionId tid) throws IOException {
+	public void flushPages(TransactionId tid) throws IOException {
 		// some code goes here
 		// not necessary for proj1
+		Set<PageId> written = this.writeSets.get(tid);
+		if (written == null) {
+			return;
+		}
+		for (PageId pid : written) {
+			Page page = this.cache.peekPage(pid);
+			if (page != null && page.isDirty() != null && page.isDirty().equals(tid)) {
+				flushPage(pid);
+			}
+		}
 	}
 
-	/**
-	 * Discards a page from the buffer pool.
-	 * Flushes the page to disk to ensure dirty pages are updated on disk.
-	 * @throws IOException 
-	 */
-	private synchronized void evictPage() throws DbException{
-		// some code goes here
-		// not necessary for proj1
-		Iterator<PageId> pageIds = this.pages.keySet().iterator();
-		Page currentPage = null;
-		boolean cleanPageFound = false;
-		while (pageIds.hasNext()) {
-			currentPage = this.pages.get(pageIds.next());
-			if (currentPage.isDirty() == null) {
-				cleanPageFound = true;
-				break;
+	private Set<PageId> writeSetOf(TransactionId tid) {
+		Set<PageId> pages = this.writeSets.get(tid);
+		if (pages == null) {
+			Set<PageId> created = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+			pages = this.writeSets.putIfAbsent(tid, created);
+			if (pages == null) {
+				pages = created;
 			}
 		}
-		if (!cleanPageFound) {
-			throw new DbException("No clean page found to evict.");
-		}
-		PageId toEvictPid = currentPage.getId();
-		this.orderedPageIds.remove(toEvictPid);
-		try {
-			flushPage(toEvictPid);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		this.pages.remove(toEvictPid);
+		return pages;
 	}
 
 }
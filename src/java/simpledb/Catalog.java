@@ -17,6 +17,7 @@ import java.util.*;
 public class Catalog {
 
 	private ArrayList<Table> tables;
+	private ArrayList<IndexFile> indexes;
 	/**
 	 * Constructor.
 	 * Creates a new, empty catalog.
@@ -24,6 +25,7 @@ public class Catalog {
 	public Catalog() {
 		// some code goes here
 		this.tables = new ArrayList<Table>();
+		this.indexes = new ArrayList<IndexFile>();
 	}
 
 	/**
@@ -126,9 +128,56 @@ public class Catalog {
 				return t.file;
 			}
 		}
+		for(IndexFile index: this.indexes){
+			if(index.getId() == tableid) {
+				return index;
+			}
+		}
 		throw new NoSuchElementException();
 	}
 
+	/**
+	 * Registers an index on a column of a table of the catalog, replacing
+	 * one on the same file. Its pages can then be read by id like those of
+	 * a table, and BufferPool.insertTuple and deleteTuple maintain it. An
+	 * index is not a table: tableIdIterator does not return it.
+	 */
+	public void addIndex(IndexFile index) {
+		for (int i=0; i<this.indexes.size(); i++) {
+			if (this.indexes.get(i).getId() == index.getId()) {
+				this.indexes.remove(i);
+				break;
+			}
+		}
+		this.indexes.add(index);
+	}
+
+	/**
+	 * Returns the indexes on the columns of the specified table.
+	 */
+	public List<IndexFile> getIndexes(int tableid) {
+		ArrayList<IndexFile> result = new ArrayList<IndexFile>();
+		for(IndexFile index: this.indexes){
+			if(index.getTableId() == tableid)
+				result.add(index);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns an index on the specified column of the specified table that
+	 * can look up the tuples that satisfy a predicate with op, or null if it
+	 * has none.
+	 */
+	public IndexFile getIndex(int tableid, int field, Predicate.Op op) {
+		for(IndexFile index: this.indexes){
+			if(index.getTableId() == tableid && index.getKeyField() == field
+					&& index.supports(op))
+				return index;
+		}
+		return null;
+	}
+
 	public String getPrimaryKey(int tableid) {
 		// some code goes here
 		for(Table t: this.tables){
@@ -160,6 +209,7 @@ public class Catalog {
 	public void clear() {
 		// some code goes here
 		this.tables = new ArrayList<Table>();
+		this.indexes = new ArrayList<IndexFile>();
 	}
 
 	/**
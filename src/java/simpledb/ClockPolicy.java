@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.HashMap;
+
+/**
+ * CLOCK (second chance) replacement. Every frame has a reference bit that is
+ * set on each hit; the clock hand sweeps the frames, clearing reference bits,
+ * and evicts the first unreferenced page the filter accepts. Hits only set a
+ * bit, which makes this the cheapest policy on the hit path.
+ */
+public class ClockPolicy extends EvictionPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private HashMap<PageId, Integer> frameOf;
+    private int[] freeFrames;
+    private int numFree;
+    private int hand = 0;
+
+    /**
+     * @param capacity
+     *            the maximum number of pages resident at the same time
+     */
+    public ClockPolicy(int capacity) {
+        frames = new PageId[capacity];
+        referenced = new boolean[capacity];
+        frameOf = new HashMap<PageId, Integer>();
+        freeFrames = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            freeFrames[i] = capacity - 1 - i;
+        numFree = capacity;
+    }
+
+    protected void onHit(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            referenced[frame] = true;
+    }
+
+    public void pageAdmitted(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            if (numFree == 0)
+                grow();
+            frame = freeFrames[--numFree];
+            frames[frame] = pid;
+            frameOf.put(pid, frame);
+        }
+        referenced[frame] = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null)
+            release(frame);
+    }
+
+    public PageId evict(VictimFilter filter) {
+        // two full sweeps are enough to clear every reference bit and come
+        // back around to an unreferenced page
+        for (int steps = 0; steps < 2 * frames.length; steps++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[frame];
+            if (pid == null)
+                continue;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            if (filter.canEvict(pid)) {
+                frameOf.remove(pid);
+                release(frame);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return "CLOCK";
+    }
+
+    private void release(int frame) {
+        frames[frame] = null;
+        referenced[frame] = false;
+        freeFrames[numFree++] = frame;
+    }
+
+    /**
+     * The cache may briefly hold more pages than its nominal capacity (for
+     * example when every resident page is dirty); make room for that rather
+     * than failing.
+     */
+    private void grow() {
+        int oldLen = frames.length;
+        int newLen = Math.max(1, oldLen * 2);
+        PageId[] newFrames = new PageId[newLen];
+        boolean[] newReferenced = new boolean[newLen];
+        System.arraycopy(frames, 0, newFrames, 0, oldLen);
+        System.arraycopy(referenced, 0, newReferenced, 0, oldLen);
+        int[] newFree = new int[newLen];
+        for (int i = newLen - 1; i >= oldLen; i--)
+            newFree[numFree++] = i;
+        frames = newFrames;
+        referenced = newReferenced;
+        freeFrames = newFree;
+    }
+}
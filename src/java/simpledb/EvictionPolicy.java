@@ -0,0 +1,135 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which resident page the {@link PageCache} should
+ * give up when it runs out of frames. Implementations only track page ids;
+ * the cache owns the pages themselves.
+ * <p>
+ * The cache drives a policy through the following protocol:
+ * <ul>
+ * <li>{@link #pageHit} when a resident page is requested,</li>
+ * <li>{@link #pageMissed} when a requested page is not resident, before
+ * any eviction happens on its behalf,</li>
+ * <li>{@link #evict} zero or more times to make room,</li>
+ * <li>{@link #pageAdmitted} once the missing page has been read in,</li>
+ * <li>{@link #pageRemoved} when a page leaves the cache for any other
+ * reason (e.g. {@link BufferPool#discardPage}).</li>
+ * </ul>
+ * Policies are not thread safe; the cache serializes calls into them.
+ * Every policy counts its own hits and misses so that workloads can be
+ * compared across policies.
+ */
+public abstract class EvictionPolicy {
+
+    /** The replacement policies that {@link #create} knows how to build. */
+    public enum Kind {
+        LRU, CLOCK, LRU_K, TWO_Q, ARC;
+    }
+
+    /**
+     * Callback used by {@link #evict} to skip pages that may not leave the
+     * cache right now (dirty or pinned pages, for example). The first page
+     * for which it returns true is evicted, so it may remove the page from
+     * the cache itself.
+     */
+    public interface VictimFilter {
+        public boolean canEvict(PageId pid);
+    }
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Builds a policy of the given kind for a cache of the given size.
+     *
+     * @param kind
+     *            the replacement policy to use
+     * @param capacity
+     *            the maximum number of resident pages
+     */
+    public static EvictionPolicy create(Kind kind, int capacity) {
+        switch (kind) {
+        case LRU:
+            return new LruPolicy();
+        case CLOCK:
+            return new ClockPolicy(capacity);
+        case LRU_K:
+            return new LruKPolicy(LruKPolicy.DEFAULT_K, capacity);
+        case TWO_Q:
+            return new TwoQueuePolicy(capacity);
+        case ARC:
+            return new ArcPolicy(capacity);
+        }
+        throw new IllegalArgumentException("unknown eviction policy " + kind);
+    }
+
+    /** Records a request for a page that is already resident. */
+    public final void pageHit(PageId pid) {
+        hits++;
+        onHit(pid);
+    }
+
+    /**
+     * Records a request for a page that is not resident. Called before any
+     * call to {@link #evict} made on behalf of this page.
+     */
+    public final void pageMissed(PageId pid) {
+        misses++;
+        onMiss(pid);
+    }
+
+    /** Starts tracking a page that has just been read into the cache. */
+    public abstract void pageAdmitted(PageId pid);
+
+    /** Stops tracking a page that left the cache without being evicted. */
+    public abstract void pageRemoved(PageId pid);
+
+    /**
+     * Chooses a resident page to evict and stops tracking it.
+     *
+     * @param filter
+     *            pages for which filter.canEvict returns false are skipped
+     * @return the page to evict, or null if no resident page may be evicted
+     */
+    public abstract PageId evict(VictimFilter filter);
+
+    /** Called by {@link #pageHit}; a resident page was referenced. */
+    protected abstract void onHit(PageId pid);
+
+    /**
+     * Called by {@link #pageMissed}. Policies that keep history of pages
+     * that are no longer resident use this to adapt. Does nothing by default.
+     */
+    protected void onMiss(PageId pid) {
+    }
+
+    /** @return the short name of this policy, used in reports */
+    public abstract String getName();
+
+    /** @return the number of requests served from the cache */
+    public long getHits() {
+        return hits;
+    }
+
+    /** @return the number of requests that had to read the page from disk */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** @return hits / (hits + misses), or 0 if there were no requests */
+    public double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /** Clears the hit and miss counters. */
+    public void resetStats() {
+        hits = 0;
+        misses = 0;
+    }
+
+    public String toString() {
+        return getName() + " (hits = " + hits + ", misses = " + misses
+                + ", hit ratio = " + getHitRatio() + ")";
+    }
+}
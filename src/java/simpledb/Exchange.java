@@ -0,0 +1,388 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exchange is a gather operator: it runs each of its children on a thread of
+ * a shared worker pool and returns their output, in no particular order, as
+ * one stream. The children are usually partitions of one plan fragment, such
+ * as {@link BatchSeqScan}s of disjoint page ranges of a table with the same
+ * Filter above each, so that the fragment runs in parallel; see
+ * {@link #parallelScan}.
+ * <p>
+ * Workers hand their output to the consuming thread a {@link TupleBatch} at
+ * a time through a bounded queue, so Exchange always produces batches. All
+ * children run as part of the transaction of the plan and must have the same
+ * TupleDesc.
+ */
+public class Exchange extends Operator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of workers used by {@link #parallelScan} by default. */
+    public static final int DEFAULT_DEGREE = Runtime.getRuntime().availableProcessors();
+
+    /** Batches each worker may have queued before it waits for the consumer. */
+    private static final int BATCHES_PER_WORKER = 2;
+
+    // marks the end of a worker's output in the queue
+    private static final TupleBatch DONE = TupleBatch.projection(
+            new TupleDesc(new Type[] { Type.INT_TYPE }));
+
+    private static ExecutorService pool = null;
+
+    private DbIterator[] children;
+
+    transient private BlockingQueue<TupleBatch> queue = null;
+    transient private Future<?>[] workers = null;
+    // the thread running each worker, while it runs; see stopWorkers
+    transient private Thread[] threads = null;
+    transient private volatile boolean cancelled;
+    transient private volatile Throwable failure;
+    transient private int running;
+    transient private TupleBatch.Cursor cursor = null;
+
+    /**
+     * Creates an Exchange that gathers the output of children.
+     *
+     * @param children
+     *            the plan fragments to run in parallel
+     */
+    public Exchange(DbIterator[] children) {
+        if (children.length == 0) {
+            throw new IllegalArgumentException("Exchange needs a child");
+        }
+        this.children = children;
+    }
+
+    /**
+     * Creates a parallel scan of a table: an Exchange over degree
+     * {@link BatchSeqScan}s of contiguous page ranges of the table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param degree
+     *            the number of partitions and workers
+     */
+    public static Exchange parallelScan(TransactionId tid, int tableid,
+            String tableAlias, int degree) {
+        DbIterator[] scans = new DbIterator[degree];
+        for (int i = 0; i < degree; i++) {
+            scans[i] = new BatchSeqScan(tid, tableid, tableAlias,
+                    TupleBatch.DEFAULT_SIZE, i, degree);
+        }
+        return new Exchange(scans);
+    }
+
+    /**
+     * @return the name shown for this operator by the QueryPlanVisualizer.
+     */
+    public String getName() {
+        return "exchange(" + this.children.length + ")";
+    }
+
+    /**
+     * @return the number of children run in parallel.
+     */
+    public int getDegree() {
+        return this.children.length;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        for (DbIterator child : this.children) {
+            child.open();
+        }
+        this.cursor = new TupleBatch.Cursor();
+        startWorkers();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        stopWorkers();
+        for (DbIterator child : this.children) {
+            child.close();
+        }
+        this.cursor = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopWorkers();
+        for (DbIterator child : this.children) {
+            child.rewind();
+        }
+        this.cursor.reset();
+        startWorkers();
+    }
+
+    public boolean isBatchSource() {
+        return true;
+    }
+
+    /**
+     * Returns the next batch produced by any worker. Each batch is a copy
+     * owned by the caller.
+     *
+     * @throws DbException
+     *             if a worker failed; TransactionAbortedExceptions and
+     *             runtime exceptions of workers are rethrown as they are
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (this.queue == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        while (this.running > 0) {
+            TupleBatch batch;
+            try {
+                batch = this.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted waiting for workers");
+            }
+            if (batch == DONE) {
+                this.running--;
+                rethrowFailure();
+            } else {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return this.cursor.next(this);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return this.children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.children = children;
+    }
+
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            // unbounded, so that workers blocked on a full queue can never
+            // keep the workers of another Exchange of the plan from running
+            pool = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "exchange-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    private void startWorkers() {
+        this.queue = new ArrayBlockingQueue<TupleBatch>(
+                BATCHES_PER_WORKER * this.children.length + this.children.length);
+        this.cancelled = false;
+        this.failure = null;
+        this.running = this.children.length;
+        this.workers = new Future<?>[this.children.length];
+        final Thread[] threads = new Thread[this.children.length];
+        this.threads = threads;
+        for (int i = 0; i < this.children.length; i++) {
+            final DbIterator child = this.children[i];
+            final int index = i;
+            this.workers[i] = pool().submit(new Runnable() {
+                public void run() {
+                    synchronized (threads) {
+                        threads[index] = Thread.currentThread();
+                    }
+                    try {
+                        produce(child);
+                    } catch (Throwable e) {
+                        failure = e;
+                    } finally {
+                        synchronized (threads) {
+                            threads[index] = null;
+                        }
+                    }
+                    // dropped if the consumer has given up on this run
+                    put(DONE);
+                }
+            });
+        }
+    }
+
+    /**
+     * Cancels the workers of the current run and waits for them to finish,
+     * so that the children can be rewound or closed. A worker waiting for a
+     * lock never sees the run cancelled, so its wait is made to fail with a
+     * TransactionAbortedException. Workers are not interrupted: an
+     * interrupt closes any file channel the worker is reading from.
+     */
+    private void stopWorkers() {
+        if (this.workers == null) {
+            return;
+        }
+        this.cancelled = true;
+        this.queue.clear();
+        LockManager lockManager = Database.getBufferPool().getLockManager();
+        for (int i = 0; i < this.workers.length; i++) {
+            while (true) {
+                // under the lock, so that the thread cannot have moved on
+                // to a task of another Exchange
+                synchronized (this.threads) {
+                    if (this.threads[i] != null) {
+                        lockManager.cancelWait(this.threads[i]);
+                    }
+                }
+                try {
+                    this.workers[i].get(10, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    // the worker may have started to wait for a lock since
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    // already recorded by the worker
+                    break;
+                }
+            }
+        }
+        this.workers = null;
+        this.threads = null;
+        this.running = 0;
+    }
+
+    /**
+     * Runs on a worker: copies the output of child to the queue.
+     */
+    private void produce(DbIterator child) throws DbException,
+            TransactionAbortedException {
+        if (producesBatches(child)) {
+            BatchIterator source = (BatchIterator) child;
+            TupleBatch batch;
+            while (!this.cancelled && (batch = source.nextBatch()) != null) {
+                if (batch.numSelected() > 0 && !put(batch.copySelected())) {
+                    return;
+                }
+            }
+            return;
+        }
+        TupleDesc td = getTupleDesc();
+        TupleBatch batch = new TupleBatch(td, TupleBatch.DEFAULT_SIZE);
+        while (!this.cancelled && child.hasNext()) {
+            Tuple t = child.next();
+            int row = batch.addRow();
+            batch.setFields(row, t, 0);
+            if (t.getRecordId() != null) {
+                batch.setRecordId(row, t.getRecordId().getPageId(),
+                        t.getRecordId().tupleno());
+            }
+            if (batch.isFull()) {
+                if (!put(batch)) {
+                    return;
+                }
+                batch = new TupleBatch(td, TupleBatch.DEFAULT_SIZE);
+            }
+        }
+        if (batch.numRows() > 0) {
+            put(batch);
+        }
+    }
+
+    /**
+     * Queues batch, waiting for room unless the run is cancelled.
+     *
+     * @return false if the run was cancelled
+     */
+    private boolean put(TupleBatch batch) {
+        try {
+            while (!this.cancelled) {
+                if (this.queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Runs tasks on the worker pool and waits for all of them.
+     *
+     * @return the result of each task
+     * @throws DbException
+     *             if a task failed, after every task has finished;
+     *             TransactionAbortedExceptions and runtime exceptions of
+     *             tasks are rethrown as they are
+     */
+    static <T> ArrayList<T> runAll(ArrayList<Callable<T>> tasks)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Future<T>> futures = new ArrayList<Future<T>>();
+        for (Callable<T> task : tasks) {
+            futures.add(pool().submit(task));
+        }
+        ArrayList<T> results = new ArrayList<T>();
+        Throwable failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new DbException("interrupted waiting for workers");
+            }
+        }
+        rethrow(failure);
+        return results;
+    }
+
+    private void rethrowFailure() throws DbException,
+            TransactionAbortedException {
+        rethrow(this.failure);
+    }
+
+    private static void rethrow(Throwable e) throws DbException,
+            TransactionAbortedException {
+        if (e == null) {
+            return;
+        }
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new DbException("worker failed: " + e);
+    }
+}
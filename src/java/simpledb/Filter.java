@@ -3,13 +3,15 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. If its child
+ * produces batches, it filters them a batch at a time.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private Predicate predicate;
     private DbIterator child;
+    transient private TupleBatch.Cursor cursor = null;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -40,18 +42,48 @@ public class Filter extends Operator {
             TransactionAbortedException {
         // some code goes here
     	this.child.open();
+    	this.cursor = new TupleBatch.Cursor();
     	super.open();
     }
 
     public void close() {
         // some code goes here
     	this.child.close();
+    	this.cursor = null;
     	super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
     	this.child.rewind();
+    	this.cursor.reset();
+    }
+
+    public boolean isBatchSource() {
+        return producesBatches(this.child);
+    }
+
+    @Override
+    public int getSortField() {
+        return sortFieldOf(this.child);
+    }
+
+    @Override
+    public boolean isSortAscending() {
+        return this.child instanceof Operator && ((Operator) this.child).isSortAscending();
+    }
+
+    /**
+     * Returns the next batch of the child, with the rows that do not pass
+     * the predicate dropped from its selection vector.
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        TupleBatch batch = ((BatchIterator) this.child).nextBatch();
+        if (batch != null) {
+            this.predicate.filter(batch);
+        }
+        return batch;
     }
 
     /**
@@ -66,6 +98,9 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
+        if (isBatchSource()) {
+            return this.cursor.next(this);
+        }
         while(this.child.hasNext()) {
         	Tuple currentTuple = this.child.next();
         	if(this.predicate.filter(currentTuple)){
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * GroupTable numbers the distinct values of a group-by column: the first
+ * value seen is group 0, the next new one group 1, and so on, so that an
+ * aggregator can keep the state of its groups in plain arrays indexed by
+ * group. The table is open-addressed with linear probing over an int[] of
+ * slots and keeps its keys unboxed, so looking up a key that is already in
+ * it allocates nothing.
+ */
+class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    private final boolean strings;
+    // slots[i] is 1 + the group hashed to slot i, or 0 if it is free; there
+    // are always at least twice as many slots as groups
+    private int[] slots;
+    private int mask;
+    // the key of each group, in intKeys or stringKeys by type, and its hash
+    private int[] intKeys;
+    private String[] stringKeys;
+    private int[] hashes;
+    private int size;
+
+    /**
+     * @param keyType
+     *            the type of the group-by column
+     */
+    GroupTable(Type keyType) {
+        this.strings = keyType == Type.STRING_TYPE;
+        clear();
+    }
+
+    /**
+     * Removes every group.
+     */
+    void clear() {
+        this.slots = new int[2 * INITIAL_GROUPS];
+        this.mask = this.slots.length - 1;
+        this.hashes = new int[INITIAL_GROUPS];
+        if (this.strings) {
+            this.stringKeys = new String[INITIAL_GROUPS];
+        } else {
+            this.intKeys = new int[INITIAL_GROUPS];
+        }
+        this.size = 0;
+    }
+
+    /**
+     * @return the number of groups.
+     */
+    int size() {
+        return this.size;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the group of an INT_TYPE key, which is added if it is new.
+     */
+    int group(int key) {
+        int h = mix(key);
+        for (int i = h & this.mask;; i = (i + 1) & this.mask) {
+            int s = this.slots[i];
+            if (s == 0) {
+                return add(i, h, key, null);
+            }
+            if (this.intKeys[s - 1] == key) {
+                return s - 1;
+            }
+        }
+    }
+
+    /**
+     * @return the group of a STRING_TYPE key, which is added if it is new.
+     */
+    int group(String key) {
+        int h = mix(key.hashCode());
+        for (int i = h & this.mask;; i = (i + 1) & this.mask) {
+            int s = this.slots[i];
+            if (s == 0) {
+                return add(i, h, 0, key);
+            }
+            if (this.hashes[s - 1] == h && this.stringKeys[s - 1].equals(key)) {
+                return s - 1;
+            }
+        }
+    }
+
+    /**
+     * @return the group of key, which is added if it is new.
+     */
+    int group(Field key) {
+        if (this.strings) {
+            return group(((StringField) key).getValue());
+        }
+        return group(((IntField) key).getValue());
+    }
+
+    private int add(int slot, int h, int intKey, String stringKey) {
+        int g = this.size++;
+        if (g == this.hashes.length) {
+            int n = 2 * g;
+            this.hashes = Arrays.copyOf(this.hashes, n);
+            if (this.strings) {
+                this.stringKeys = Arrays.copyOf(this.stringKeys, n);
+            } else {
+                this.intKeys = Arrays.copyOf(this.intKeys, n);
+            }
+        }
+        this.hashes[g] = h;
+        if (this.strings) {
+            this.stringKeys[g] = stringKey;
+        } else {
+            this.intKeys[g] = intKey;
+        }
+        this.slots[slot] = g + 1;
+        if (2 * this.size > this.slots.length) {
+            rehash();
+        }
+        return g;
+    }
+
+    private void rehash() {
+        this.slots = new int[2 * this.slots.length];
+        this.mask = this.slots.length - 1;
+        for (int g = 0; g < this.size; g++) {
+            int i = this.hashes[g] & this.mask;
+            while (this.slots[i] != 0) {
+                i = (i + 1) & this.mask;
+            }
+            this.slots[i] = g + 1;
+        }
+    }
+
+    /**
+     * @return the key of group g.
+     */
+    Field key(int g) {
+        if (this.strings) {
+            return new StringField(this.stringKeys[g], Type.STRING_LEN);
+        }
+        return new IntField(this.intKeys[g]);
+    }
+}
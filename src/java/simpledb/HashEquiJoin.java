@@ -3,21 +3,49 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equi-join as a hybrid hash join.
+ * The left (outer) child is the build side: its tuples are hashed into
+ * partitions, and while they fit in the memory budget all partitions stay in
+ * memory. When they do not, the largest partitions are written to
+ * {@link SpillFile}s. The right (inner) child is then read once; its tuples
+ * probe the partitions that are in memory and are written to disk alongside
+ * the spilled ones otherwise. Each pair of spilled partitions is joined
+ * afterwards, partitioned again with a different hash function if it still
+ * does not fit, or in memory-sized chunks if repartitioning does not split it
+ * up, e.g. because most of its tuples share one key.
+ * <p>
+ * If the inner child produces batches, it is probed a batch at a time and
+ * the output is produced in batches too.
+ * <p>
+ * While the build side is read, its keys are collected into a
+ * {@link KeyFilter}, which is then pushed down into the scans of the inner
+ * child, through Filters and Exchanges, so that inner tuples whose key is
+ * not on the build side are mostly dropped before they are decoded.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Bytes of build-side tuples kept in memory unless another budget is given. */
+    public static final long DEFAULT_MEMORY_BUDGET = 4L << 20;
+
+    /** Most partitions the build side is split into at a time. */
+    static final int MAX_PARTITIONS = 64;
+
+    /** Levels of repartitioning before a spilled partition is joined in chunks. */
+    static final int MAX_DEPTH = 4;
+
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
+    private long memoryBudget;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -26,9 +54,21 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget
+     *            the number of bytes of left tuples, as stored on a page, to
+     *            keep in memory before spilling to disk
+     * @see #HashEquiJoin(JoinPredicate, DbIterator, DbIterator)
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            long memoryBudget) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBudget = memoryBudget;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -39,7 +79,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -49,49 +89,464 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    /**
+     * @return the fraction of a build side of card tuples of tupleSize bytes
+     *         that a join with the given memory budget writes to disk.
+     */
+    static double spillFraction(int card, int tupleSize, long memoryBudget) {
+        double bytes = (double) card * tupleSize;
+        return bytes <= memoryBudget ? 0.0 : 1.0 - memoryBudget / bytes;
+    }
+
+    /**
+     * A pair of spilled partitions, still to be joined.
+     */
+    private static class SpilledPair {
+        final SpillFile build;
+        final SpillFile probe;
+        // hash function to repartition them with
+        final int level;
+
+        SpilledPair(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    // build tuples that fit in memory, keyed by the value of their join
+    // field (see TupleBatch#getValue); while child2 is probed there is one
+    // map per partition, null if the partition was spilled
+    transient private ArrayList<HashMap<Object, ArrayList<Tuple>>> partitions = null;
+    transient private int[] partitionSizes = null;
+    transient private SpillFile[] buildSpills = null;
+    transient private SpillFile[] probeSpills = null;
+    transient private int numPartitions;
+    transient private int maxBuildTuples;
+    transient private boolean probingChild = false;
+
+    // the spilled pair being joined, and what is left of them
+    transient private LinkedList<SpilledPair> pending = null;
+    transient private SpilledPair current = null;
+    transient private HashMap<Object, ArrayList<Tuple>> map = null;
+    transient private DbFileIterator chunkIt = null;
+    transient private DbFileIterator probeIt = null;
+
+    transient private boolean batchMode = false;
+    transient private TupleBatch out = null;
+    transient private TupleBatch probe = null;
+    transient private int probePos = 0;
+    transient private int probeRow = 0;
+    // whether the current probe row is probeRow of probe, or t2
+    transient private boolean probeInBatch = false;
+    transient private TupleBatch.Cursor cursor = null;
+
+    /**
+     * @return the partition of key under the level'th hash function.
+     */
+    private int partitionOf(Object key, int level) {
+        return partitionOf(key, level, numPartitions);
+    }
+
+    /**
+     * @return the partition of key, out of numPartitions, under the
+     *         level'th hash function.
+     */
+    static int partitionOf(Object key, int level, int numPartitions) {
+        int h = key.hashCode() ^ (level * 0x27d4eb2f);
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % numPartitions;
+    }
+
+    /**
+     * Keeps build tuple t in map under key. t is materialized first, so
+     * that it does not hold on to the page it was read from, which the
+     * budget does not count.
+     */
+    private static void add(HashMap<Object, ArrayList<Tuple>> map, Object key, Tuple t) {
+        t.materialize();
+        ArrayList<Tuple> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(key, list);
+        }
+        list.add(t);
+    }
+
+    /**
+     * Reads child1 into the in-memory partitions, spilling the largest ones
+     * whenever they exceed the memory budget.
+     */
+    @SuppressWarnings("unchecked")
+    private void build() throws DbException, TransactionAbortedException {
+        int tupleSize = child1.getTupleDesc().getSize();
+        maxBuildTuples = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / tupleSize));
+        // every spilled partition buffers a page of output
+        numPartitions = (int) Math.max(2, Math.min(MAX_PARTITIONS,
+                memoryBudget / (2 * BufferPool.PAGE_SIZE)));
+        partitions = new ArrayList<HashMap<Object, ArrayList<Tuple>>>(numPartitions);
+        for (int i = 0; i < numPartitions; i++) {
+            partitions.add(new HashMap<Object, ArrayList<Tuple>>());
+        }
+        partitionSizes = new int[numPartitions];
+        buildSpills = new SpillFile[numPartitions];
+        probeSpills = new SpillFile[numPartitions];
+        pending = new LinkedList<SpilledPair>();
+
+        KeyFilter keys = KeyFilter.canPushDown(child2) ? new KeyFilter() : null;
+        int inMemory = 0;
         while (child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            Object key = TupleBatch.valueOf(t1.getField(pred.getField1()));
+            if (keys != null) {
+                keys.add(key);
+            }
+            int p = partitionOf(key, 0);
+            if (buildSpills[p] != null) {
+                buildSpills[p].add(t1);
+                continue;
+            }
+            add(partitions.get(p), key, t1);
+            partitionSizes[p]++;
+            if (++inMemory > maxBuildTuples) {
+                inMemory -= spillLargest();
+            }
+        }
+        for (int p = 0; p < numPartitions; p++) {
+            if (buildSpills[p] != null) {
+                probeSpills[p] = new SpillFile(child2.getTupleDesc());
+            }
+        }
+        if (keys != null) {
+            keys.finish();
+            KeyFilter.pushDown(child2, pred.getField2(), keys);
+        }
+        probingChild = true;
+    }
+
+    /**
+     * Writes the largest in-memory partition to disk.
+     *
+     * @return the number of tuples taken out of memory
+     */
+    private int spillLargest() throws DbException {
+        int victim = -1;
+        for (int p = 0; p < numPartitions; p++) {
+            if (partitions.get(p) != null && (victim < 0 || partitionSizes[p] > partitionSizes[victim])) {
+                victim = p;
+            }
+        }
+        SpillFile file = new SpillFile(child1.getTupleDesc());
+        for (ArrayList<Tuple> list : partitions.get(victim).values()) {
+            for (Tuple t : list) {
+                file.add(t);
+            }
+        }
+        buildSpills[victim] = file;
+        partitions.set(victim, null);
+        int n = partitionSizes[victim];
+        partitionSizes[victim] = 0;
+        return n;
+    }
+
+    /**
+     * Called once child2 is exhausted: queues the spilled partitions for
+     * joining.
+     */
+    private void finishProbingChild() {
+        for (int p = 0; p < numPartitions; p++) {
+            if (buildSpills[p] != null) {
+                pending.push(new SpilledPair(buildSpills[p], probeSpills[p], 1));
+            }
+        }
+        buildSpills = null;
+        probeSpills = null;
+        partitions = null;
+        probingChild = false;
+    }
+
+    /**
+     * Loads up to maxBuildTuples tuples of it into map.
+     */
+    private void loadChunk(DbFileIterator it) throws DbException,
+            TransactionAbortedException {
+        map = new HashMap<Object, ArrayList<Tuple>>();
+        for (int n = 0; n < maxBuildTuples && it.hasNext(); n++) {
+            Tuple t = it.next();
+            add(map, TupleBatch.valueOf(t.getField(pred.getField1())), t);
+        }
+    }
+
+    /**
+     * Splits pair into numPartitions pairs with the hash function of its
+     * level, and queues those that can produce output.
+     */
+    private void repartition(SpilledPair pair) throws DbException,
+            TransactionAbortedException {
+        SpillFile[] builds = new SpillFile[numPartitions];
+        SpillFile[] probes = new SpillFile[numPartitions];
+        DbFileIterator it = pair.build.iterator();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int p = partitionOf(TupleBatch.valueOf(t.getField(pred.getField1())), pair.level);
+            if (builds[p] == null) {
+                builds[p] = new SpillFile(pair.build.getTupleDesc());
+            }
+            builds[p].add(t);
+        }
+        it.close();
+        it = pair.probe.iterator();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int p = partitionOf(TupleBatch.valueOf(t.getField(pred.getField2())), pair.level);
+            if (builds[p] == null) {
+                continue;
+            }
+            if (probes[p] == null) {
+                probes[p] = new SpillFile(pair.probe.getTupleDesc());
+            }
+            probes[p].add(t);
+        }
+        it.close();
+        for (int p = 0; p < numPartitions; p++) {
+            if (builds[p] == null) {
+                continue;
+            }
+            if (probes[p] == null) {
+                builds[p].delete();
+                continue;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            // a partition that did not shrink will not shrink at the next
+            // level either, so join it in chunks right away
+            int level = builds[p].size() == pair.build.size() ? MAX_DEPTH : pair.level + 1;
+            pending.push(new SpilledPair(builds[p], probes[p], level));
         }
-        return cnt > 0;
+    }
+
+    /**
+     * Sets up map and probeIt for the next chunk of the current spilled pair,
+     * or for the next spilled pair with output.
+     *
+     * @return false if there are no more spilled pairs
+     */
+    private boolean nextSpilledPass() throws DbException,
+            TransactionAbortedException {
+        if (probeIt != null) {
+            probeIt.close();
+            probeIt = null;
+        }
+        map = null;
+        if (chunkIt != null && chunkIt.hasNext()) {
+            loadChunk(chunkIt);
+            probeIt = current.probe.iterator();
+            probeIt.open();
+            return true;
+        }
+        if (chunkIt != null) {
+            chunkIt.close();
+            chunkIt = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        while (!pending.isEmpty()) {
+            SpilledPair pair = pending.pop();
+            if (pair.build.size() == 0 || pair.probe.size() == 0) {
+                pair.delete();
+                continue;
+            }
+            if (pair.build.size() > maxBuildTuples && pair.level < MAX_DEPTH) {
+                repartition(pair);
+                pair.delete();
+                continue;
+            }
+            // fits, or is joined a memory-sized chunk at a time
+            current = pair;
+            chunkIt = pair.build.iterator();
+            chunkIt.open();
+            loadChunk(chunkIt);
+            probeIt = pair.probe.iterator();
+            probeIt.open();
+            return true;
+        }
+        return false;
+    }
 
+    /**
+     * Advances to the next probe row with matches, setting listIt to them.
+     *
+     * @return false if the join is finished
+     */
+    private boolean nextMatch() throws DbException, TransactionAbortedException {
+        int f2 = pred.getField2();
+        while (true) {
+            if (probingChild && batchMode) {
+                if (probe != null && probePos < probe.numSelected()) {
+                    int row = probe.getSelection()[probePos++];
+                    Object key = probe.getValue(f2, row);
+                    int p = partitionOf(key, 0);
+                    if (partitions.get(p) == null) {
+                        probeSpills[p].add(probe, row);
+                        continue;
+                    }
+                    ArrayList<Tuple> l = partitions.get(p).get(key);
+                    if (l != null) {
+                        listIt = l.iterator();
+                        probeRow = row;
+                        probeInBatch = true;
+                        return true;
+                    }
+                    continue;
+                }
+                probe = ((BatchIterator) child2).nextBatch();
+                probePos = 0;
+                if (probe == null) {
+                    finishProbingChild();
+                }
+            } else if (probingChild) {
+                if (!child2.hasNext()) {
+                    finishProbingChild();
+                    continue;
+                }
+                t2 = child2.next();
+                Object key = TupleBatch.valueOf(t2.getField(f2));
+                int p = partitionOf(key, 0);
+                if (partitions.get(p) == null) {
+                    probeSpills[p].add(t2);
+                    continue;
+                }
+                ArrayList<Tuple> l = partitions.get(p).get(key);
+                if (l != null) {
+                    listIt = l.iterator();
+                    probeInBatch = false;
+                    return true;
+                }
+            } else if (probeIt != null && probeIt.hasNext()) {
+                t2 = probeIt.next();
+                ArrayList<Tuple> l = map.get(TupleBatch.valueOf(t2.getField(f2)));
+                if (l != null) {
+                    listIt = l.iterator();
+                    probeInBatch = false;
+                    return true;
+                }
+            } else if (!nextSpilledPass()) {
+                return false;
+            }
+        }
     }
 
+    /**
+     * Drops all state of the current run and deletes its spill files.
+     */
+    private void reset() {
+        if (buildSpills != null) {
+            for (int p = 0; p < numPartitions; p++) {
+                if (buildSpills[p] != null)
+                    buildSpills[p].delete();
+                if (probeSpills[p] != null)
+                    probeSpills[p].delete();
+            }
+        }
+        if (chunkIt != null)
+            chunkIt.close();
+        if (probeIt != null)
+            probeIt.close();
+        if (current != null)
+            current.delete();
+        if (pending != null) {
+            for (SpilledPair pair : pending)
+                pair.delete();
+        }
+        partitions = null;
+        partitionSizes = null;
+        buildSpills = null;
+        probeSpills = null;
+        pending = null;
+        current = null;
+        map = null;
+        chunkIt = null;
+        probeIt = null;
+        probingChild = false;
+        listIt = null;
+        probe = null;
+        t1 = null;
+        t2 = null;
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        batchMode = producesBatches(child2);
+        if (batchMode) {
+            out = new TupleBatch(comboTD, TupleBatch.DEFAULT_SIZE);
+            cursor = new TupleBatch.Cursor();
+        }
+        build();
+        super.open();
     }
 
     public void close() {
         super.close();
+        reset();
+        KeyFilter.pushDown(child2, pred.getField2(), null);
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.out=null;
+        this.cursor=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        reset();
         child1.rewind();
         child2.rewind();
+        if (cursor != null) {
+            cursor.reset();
+        }
+        build();
+    }
+
+    public boolean isBatchSource() {
+        return producesBatches(child2);
+    }
+
+    /**
+     * Returns the next batch of joined rows, probing the partitions with the
+     * selected rows of child2's batches.
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        int td1n = child1.getTupleDesc().numFields();
+        out.clear();
+        while (!out.isFull()) {
+            if (listIt == null || !listIt.hasNext()) {
+                if (!nextMatch()) {
+                    listIt = null;
+                    break;
+                }
+                continue;
+            }
+            int row = out.addRow();
+            out.setFields(row, listIt.next(), 0);
+            if (probeInBatch) {
+                out.copyFields(row, probe, probeRow, td1n);
+            } else {
+                out.setFields(row, t2, td1n);
+            }
+        }
+        return out.numRows() > 0 ? out : null;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -110,7 +565,7 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
@@ -132,32 +587,16 @@ public class HashEquiJoin extends Operator {
 
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+        if (batchMode) {
+            return cursor.next(this);
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        while (listIt == null || !listIt.hasNext()) {
+            if (!nextMatch()) {
+                listIt = null;
+                return null;
+            }
         }
-
-        return null;
+        return processList();
     }
 
     @Override
@@ -170,6 +609,6 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 
 }
@@ -0,0 +1,550 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * HashIndexFile is a secondary index on one field of a table stored in a
+ * {@link HeapFile} that finds the tuples with a given key in about one page
+ * read: a linear hash table of buckets of {@link HashIndexPage}s, each
+ * holding an entry, with its key and record id, per tuple of the table
+ * whose key hashes to the bucket.
+ * <p>
+ * A bucket is a chain of pages. When an insert has to add a page to a
+ * chain, the bucket the split pointer designates is split in two, so the
+ * number of buckets grows with the table one at a time, and a bucket holds
+ * about a page of entries unless its keys are skewed. The directory of the
+ * buckets is on the meta page, so there are at most
+ * {@link HashIndexPage#MAX_BUCKETS} of them; past that, chains grow.
+ * <p>
+ * Pages are read and written through the BufferPool, and locked like those
+ * of a {@link BTreeFile}. Deletes never merge buckets.
+ */
+public class HashIndexFile implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    // share of a bucket's first page that bulk loading fills
+    private static final double LOAD_FACTOR = 0.75;
+
+    private File file;
+    private int tableid;
+    private int keyField;
+    private TupleDesc td;
+    private FileChannel fileChannel;
+    // held while a page is allocated at the end of the file
+    private ReentrantLock latch = new ReentrantLock();
+
+    /**
+     * Opens the index stored in f, or creates an empty one, of one bucket,
+     * if f is empty.
+     *
+     * @param f
+     *            the file that stores the index
+     * @param tableid
+     *            the id of the indexed table
+     * @param keyField
+     *            the index of the indexed field in the table's tuples
+     */
+    public HashIndexFile(File f, int tableid, int keyField) {
+        this.file = f;
+        this.tableid = tableid;
+        this.keyField = keyField;
+        this.td = Database.getCatalog().getTupleDesc(tableid);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+            this.fileChannel = raf.getChannel();
+            if (this.fileChannel.size() == 0) {
+                writePageData(0, metaPageData(0, 0, Collections.singletonList(1)));
+                writePageData(1, bucketPageData(0, new ArrayList<BTreePage.Entry>()));
+            }
+        } catch (IOException e) {
+            System.out.println("Couldn't open index file " + f);
+        }
+    }
+
+    /**
+     * Creates an index on field keyField of a table in f, replacing what f
+     * held, and fills it with an entry for every tuple the table has, in
+     * enough buckets for them to take about one page each. The pages are
+     * written directly, not through the BufferPool, so nothing must use f
+     * meanwhile. The index still has to be added to the catalog.
+     *
+     * @see Catalog#addIndex
+     */
+    public static HashIndexFile create(File f, int tableid, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        new FileOutputStream(f).close();
+        HashIndexFile index = new HashIndexFile(f, tableid, keyField);
+        TransactionId tid = new TransactionId();
+        ArrayList<BTreePage.Entry> entries = new ArrayList<BTreePage.Entry>();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            RecordId rid = t.getRecordId();
+            entries.add(new BTreePage.Entry(t.getField(keyField),
+                    rid.getPageId().pageNumber(), rid.tupleno()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        index.bulkLoad(entries);
+        return index;
+    }
+
+    /**
+     * Writes the entries into the file, which holds an empty index, as
+     * enough buckets for each to fill about one page.
+     */
+    private void bulkLoad(ArrayList<BTreePage.Entry> entries) throws IOException {
+        int perPage = (BufferPool.PAGE_SIZE - 12) / (getKeyType().getLen() + 8);
+        int numBuckets = (int) Math.ceil(entries.size() / (perPage * LOAD_FACTOR));
+        numBuckets = Math.max(1, Math.min(HashIndexPage.MAX_BUCKETS, numBuckets));
+        int level = 31 - Integer.numberOfLeadingZeros(numBuckets);
+        int split = numBuckets - (1 << level);
+        ArrayList<ArrayList<BTreePage.Entry>> contents = new ArrayList<ArrayList<BTreePage.Entry>>();
+        for (int i = 0; i < numBuckets; i++) {
+            contents.add(new ArrayList<BTreePage.Entry>());
+        }
+        for (BTreePage.Entry e : entries) {
+            contents.get(bucketOf(hash(e.key), level, split)).add(e);
+        }
+        // the first page of each bucket, then the pages they overflow to
+        ArrayList<Integer> buckets = new ArrayList<Integer>();
+        int nextPage = 1 + numBuckets;
+        for (int i = 0; i < numBuckets; i++) {
+            ArrayList<BTreePage.Entry> bucket = contents.get(i);
+            Collections.sort(bucket);
+            int pageNumber = 1 + i;
+            buckets.add(pageNumber);
+            for (int start = 0; start == 0 || start < bucket.size(); start += perPage) {
+                int end = Math.min(bucket.size(), start + perPage);
+                int next = end < bucket.size() ? nextPage++ : 0;
+                writePageData(pageNumber, bucketPageData(next, bucket.subList(start, end)));
+                pageNumber = next;
+            }
+        }
+        writePageData(0, metaPageData(level, split, buckets));
+    }
+
+    private static byte[] metaPageData(int level, int split, List<Integer> buckets) {
+        ByteBuffer b = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        b.putInt(HashIndexPage.META);
+        b.putInt(buckets.size());
+        b.putInt(level);
+        b.putInt(split);
+        for (int bucket : buckets) {
+            b.putInt(bucket);
+        }
+        return b.array();
+    }
+
+    private static byte[] bucketPageData(int next, List<BTreePage.Entry> entries)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(HashIndexPage.BUCKET);
+        dos.writeInt(entries.size());
+        dos.writeInt(next);
+        for (BTreePage.Entry e : entries) {
+            e.key.serialize(dos);
+            dos.writeInt(e.page);
+            dos.writeInt(e.slot);
+        }
+        dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return the hash code of key, which is the same in every run.
+     */
+    private static int hash(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the bucket of a key with hash code h in a linear hash table of
+     *         the given level and split pointer.
+     */
+    private static int bucketOf(int h, int level, int split) {
+        int b = h & ((1 << level) - 1);
+        if (b < split) {
+            b = h & ((2 << level) - 1);
+        }
+        return b;
+    }
+
+    /**
+     * Returns the File backing this HashIndexFile on disk.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashIndexFile, the hash code
+     * of the absolute name of its file, as for a HeapFile.
+     */
+    public int getId() {
+        return this.file.getAbsoluteFile().hashCode();
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    public int getKeyField() {
+        return this.keyField;
+    }
+
+    public Type getKeyType() {
+        return this.td.getFieldType(this.keyField);
+    }
+
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    public boolean isSorted() {
+        return false;
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            this.fileChannel.read(buffer, (long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+            return new HashIndexPage((HashPageId) pid, buffer.array());
+        } catch (IOException e) {
+            System.out.println("Could not read specified page.");
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().pageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pageNumber, byte[] data) throws IOException {
+        this.fileChannel.write(ByteBuffer.wrap(data), (long) pageNumber * BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the number of pages in this HashIndexFile, the meta page
+     * included.
+     */
+    public int numPages() {
+        try {
+            return (int) (this.fileChannel.size() / BufferPool.PAGE_SIZE);
+        } catch (IOException e) {
+            System.out.println("Couldn't determine file size.");
+            return 0;
+        }
+    }
+
+    private HashIndexPage getPage(TransactionId tid, int pageNumber, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashIndexPage) Database.getBufferPool().getPage(tid,
+                new HashPageId(getId(), pageNumber), perm);
+    }
+
+    /**
+     * Allocates a bucket page at the end of the file, locked by tid.
+     */
+    private HashIndexPage newPage(TransactionId tid, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNumber;
+        this.latch.lock();
+        try {
+            pageNumber = numPages();
+            writePageData(pageNumber, new byte[BufferPool.PAGE_SIZE]);
+        } finally {
+            this.latch.unlock();
+        }
+        HashIndexPage p = getPage(tid, pageNumber, Permissions.READ_WRITE);
+        p.kind = HashIndexPage.BUCKET;
+        dirty(tid, p, dirtied);
+        return p;
+    }
+
+    private static void dirty(TransactionId tid, HashIndexPage p, ArrayList<Page> dirtied) {
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p)) {
+            dirtied.add(p);
+        }
+    }
+
+    /**
+     * @return the entry of t, which must have a record id.
+     */
+    private BTreePage.Entry entryOf(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple has no record id");
+        }
+        return new BTreePage.Entry(t.getField(this.keyField),
+                rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /**
+     * @return the first page of the bucket of key, read with a shared lock
+     *         on the meta page.
+     */
+    private int firstPageOf(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        HashIndexPage meta = getPage(tid, 0, Permissions.READ_ONLY);
+        return meta.buckets.get(bucketOf(hash(key), meta.level, meta.split));
+    }
+
+    /**
+     * Adds the entry of t, a tuple of the indexed table that has just been
+     * inserted, to the first page of its bucket with room, and splits a
+     * bucket if that takes a new page.
+     *
+     * @see DbFile#insertTuple
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePage.Entry e = entryOf(t);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int pageNumber = firstPageOf(tid, e.key);
+        HashIndexPage p = getPage(tid, pageNumber, Permissions.READ_ONLY);
+        while (p.entries.size() >= p.maxEntries() && p.next != 0) {
+            pageNumber = p.next;
+            p = getPage(tid, pageNumber, Permissions.READ_ONLY);
+        }
+        p = getPage(tid, pageNumber, Permissions.READ_WRITE);
+        boolean overflowed = false;
+        if (p.entries.size() >= p.maxEntries()) {
+            HashIndexPage q = newPage(tid, dirtied);
+            p.next = q.getId().pageNumber();
+            dirty(tid, p, dirtied);
+            p = q;
+            overflowed = true;
+        }
+        p.entries.add(BTreePage.Entry.search(p.entries, e, false), e);
+        dirty(tid, p, dirtied);
+        if (overflowed) {
+            split(tid, dirtied);
+        }
+        return dirtied;
+    }
+
+    /**
+     * Splits the bucket the split pointer designates: the entries that the
+     * next level of hashing puts in a new bucket move there, and the pointer
+     * moves to the next bucket.
+     */
+    private void split(TransactionId tid, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        HashIndexPage meta = getPage(tid, 0, Permissions.READ_WRITE);
+        if (meta.buckets.size() >= HashIndexPage.MAX_BUCKETS) {
+            return;
+        }
+        int s = meta.split;
+        int level = meta.level;
+        ArrayList<HashIndexPage> chain = new ArrayList<HashIndexPage>();
+        ArrayList<BTreePage.Entry> entries = new ArrayList<BTreePage.Entry>();
+        for (int pageNumber = meta.buckets.get(s); pageNumber != 0; ) {
+            HashIndexPage p = getPage(tid, pageNumber, Permissions.READ_WRITE);
+            chain.add(p);
+            entries.addAll(p.entries);
+            p.entries.clear();
+            dirty(tid, p, dirtied);
+            pageNumber = p.next;
+        }
+        HashIndexPage first = newPage(tid, dirtied);
+        meta.buckets.add(first.getId().pageNumber());
+        if (++meta.split == 1 << level) {
+            meta.level++;
+            meta.split = 0;
+        }
+        dirty(tid, meta, dirtied);
+
+        Collections.sort(entries);
+        int stay = 0;
+        HashIndexPage moved = first;
+        for (BTreePage.Entry e : entries) {
+            if ((hash(e.key) & ((2 << level) - 1)) == s) {
+                // fits, since the chain held it before
+                while (chain.get(stay).entries.size() >= chain.get(stay).maxEntries()) {
+                    stay++;
+                }
+                chain.get(stay).entries.add(e);
+            } else {
+                if (moved.entries.size() >= moved.maxEntries()) {
+                    HashIndexPage q = newPage(tid, dirtied);
+                    moved.next = q.getId().pageNumber();
+                    moved = q;
+                }
+                moved.entries.add(e);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry of t, a tuple of the indexed table that is being
+     * deleted, from the index.
+     *
+     * @throws DbException
+     *             if the index has no entry for t
+     * @see DbFile#deleteTuple
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        BTreePage.Entry e = entryOf(t);
+        int pageNumber = firstPageOf(tid, e.key);
+        while (pageNumber != 0) {
+            HashIndexPage p = getPage(tid, pageNumber, Permissions.READ_ONLY);
+            int i = BTreePage.Entry.search(p.entries, e, false);
+            if (i < p.entries.size() && p.entries.get(i).compareTo(e) == 0) {
+                p = getPage(tid, pageNumber, Permissions.READ_WRITE);
+                p.entries.remove(i);
+                p.markDirty(true, tid);
+                return p;
+            }
+            pageNumber = p.next;
+        }
+        throw new DbException("tuple not in index");
+    }
+
+    /**
+     * Returns the tuples of the indexed table, a bucket at a time.
+     *
+     * @see DbFile#iterator
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexIterator(tid, null);
+    }
+
+    /**
+     * Returns the tuples of the indexed table whose key equals operand.
+     *
+     * @param op
+     *            EQUALS
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field operand) {
+        if (!supports(op)) {
+            throw new IllegalArgumentException("cannot look up " + op + " in a hash index");
+        }
+        return new HashIndexIterator(tid, operand);
+    }
+
+    /**
+     * Iterates over the pages of one bucket, or of all of them, and returns
+     * the heap tuples of the entries with the key looked up. Within a page it
+     * resumes after the last entry it returned, as a BTreeFile iterator does.
+     */
+    private class HashIndexIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final Field operand;
+        private boolean open = false;
+        // the next bucket to read, for a scan of all of them, the page to
+        // continue in, 0 once there is nothing left, and the entry of it to
+        // continue after
+        private int bucket;
+        private int page;
+        private BTreePage.Entry last;
+        private Tuple nextTuple;
+
+        HashIndexIterator(TransactionId tid, Field operand) {
+            this.tid = tid;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.open = true;
+            rewind();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            if (this.operand == null) {
+                this.bucket = 0;
+                this.page = nextBucket();
+            } else {
+                this.page = firstPageOf(this.tid, this.operand);
+            }
+            this.last = null;
+            this.nextTuple = null;
+        }
+
+        /**
+         * @return the first page of the next bucket of a scan of all of
+         *         them, or 0 if there is none.
+         */
+        private int nextBucket() throws DbException, TransactionAbortedException {
+            HashIndexPage meta = getPage(this.tid, 0, Permissions.READ_ONLY);
+            return this.bucket < meta.buckets.size() ? meta.buckets.get(this.bucket++) : 0;
+        }
+
+        private Tuple readNext() throws DbException, TransactionAbortedException {
+            while (this.page != 0) {
+                HashIndexPage p = getPage(this.tid, this.page, Permissions.READ_ONLY);
+                int i;
+                if (this.last != null) {
+                    i = BTreePage.Entry.search(p.entries, this.last, true);
+                } else if (this.operand != null) {
+                    i = BTreePage.Entry.search(p.entries, new BTreePage.Entry(this.operand,
+                            Integer.MIN_VALUE, Integer.MIN_VALUE), false);
+                } else {
+                    i = 0;
+                }
+                if (i == p.entries.size() || (this.operand != null
+                        && TupleComparator.compareFields(p.entries.get(i).key, this.operand) != 0)) {
+                    this.page = p.next != 0 || this.operand != null ? p.next : nextBucket();
+                    this.last = null;
+                    continue;
+                }
+                BTreePage.Entry e = p.entries.get(i);
+                this.last = e;
+                HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(this.tid,
+                        new HeapPageId(tableid, e.page), Permissions.READ_ONLY);
+                Tuple t = heapPage.getTuple(e.slot);
+                if (t != null) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!this.open) {
+                return false;
+            }
+            if (this.nextTuple == null) {
+                this.nextTuple = readNext();
+            }
+            return this.nextTuple != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = this.nextTuple;
+            this.nextTuple = null;
+            return t;
+        }
+
+        public void close() {
+            this.open = false;
+            this.nextTuple = null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * Each instance of HashIndexPage stores one page of a {@link HashIndexFile}:
+ * the meta page, page 0, or a page of a bucket. The format of a page is
+ * three ints, its kind, a count and a third int, followed by:
+ * <ul>
+ * <li>for a bucket page, count entries sorted as in a {@link BTreePage}
+ * leaf, each a key followed by the page number and slot of the heap tuple
+ * it indexes; the third int is the next page of the bucket, 0 if it is the
+ * last one;
+ * <li>for the meta page, the split pointer of the linear hash table and the
+ * page number of the first page of each of its count buckets; the third int
+ * is the level of the table.
+ * </ul>
+ *
+ * @see HashIndexFile
+ * @see BufferPool
+ */
+public class HashIndexPage implements Page {
+
+    /** Kind of a page that was allocated but is not part of a bucket yet. */
+    static final int FREE = 0;
+    static final int BUCKET = 1;
+    static final int META = 3;
+
+    private static final int HEADER_SIZE = 12;
+
+    /** The most buckets the directory on the meta page can hold. */
+    static final int MAX_BUCKETS = (BufferPool.PAGE_SIZE - HEADER_SIZE - 4) / 4;
+
+    private final HashPageId pid;
+    private final Type keyType;
+    int kind;
+    // a bucket page's next page, 0 if it is the last one
+    int next;
+    final ArrayList<BTreePage.Entry> entries = new ArrayList<BTreePage.Entry>();
+    // the meta page's level, split pointer and the first page of each bucket
+    int level;
+    int split;
+    final ArrayList<Integer> buckets = new ArrayList<Integer>();
+
+    private byte[] oldData;
+    private TransactionId dirtyTid;
+
+    /**
+     * Create a HashIndexPage from a set of bytes of data read from disk, in
+     * the format described above. A page of zeroes is a FREE page.
+     */
+    public HashIndexPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.keyType = ((IndexFile) Database.getCatalog().getDbFile(id.getTableId()))
+                .getKeyType();
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.kind = dis.readInt();
+        int n = dis.readInt();
+        if (this.kind == META) {
+            this.level = dis.readInt();
+            this.split = dis.readInt();
+            for (int i = 0; i < n; i++) {
+                this.buckets.add(dis.readInt());
+            }
+        } else {
+            this.next = dis.readInt();
+            try {
+                for (int i = 0; i < n; i++) {
+                    this.entries.add(new BTreePage.Entry(this.keyType.parse(dis),
+                            dis.readInt(), dis.readInt()));
+                }
+            } catch (ParseException e) {
+                throw new IOException("bad index entry on " + id.pageNumber());
+            }
+        }
+        this.oldData = data.clone();
+    }
+
+    public HashPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * @return the most entries a bucket page can hold.
+     */
+    int maxEntries() {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / (this.keyType.getLen() + 8);
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(this.kind);
+            if (this.kind == META) {
+                dos.writeInt(this.buckets.size());
+                dos.writeInt(this.level);
+                dos.writeInt(this.split);
+                for (int b : this.buckets) {
+                    dos.writeInt(b);
+                }
+            } else {
+                dos.writeInt(this.entries.size());
+                dos.writeInt(this.next);
+                for (BTreePage.Entry e : this.entries) {
+                    e.key.serialize(dos);
+                    dos.writeInt(e.page);
+                    dos.writeInt(e.slot);
+                }
+            }
+            dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashIndexPage getBeforeImage() {
+        try {
+            return new HashIndexPage(this.pid, this.oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        this.oldData = getPageData().clone();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtyTid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return this.dirtyTid;
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb;
+
+/** Unique identifier for HashIndexPage objects. */
+public class HashPageId implements PageId {
+
+    private int tableId;
+    private int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index file.
+     *
+     * @param tableId The id of the HashIndexFile that is being referenced
+     * @param pgNo The page number in that file.
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the HashIndexFile associated with this PageId */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the page number in the file getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return this.pgNo;
+    }
+
+    /**
+     * @return a hash code for this page, represented by the concatenation of
+     *   the file id and the page number
+     * @see HeapPageId#hashCode
+     */
+    public int hashCode() {
+        return (this.tableId << 16 | this.pgNo);
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and file
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof PageId))
+            return false;
+        return this.pageNumber() == ((PageId) o).pageNumber()
+                && this.getTableId() == ((PageId) o).getTableId();
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+
+        data[0] = getTableId();
+        data[1] = pageNumber();
+
+        return data;
+    }
+
+}
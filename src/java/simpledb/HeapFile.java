@@ -2,23 +2,45 @@ package simpledb;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. Inserts find a page with an empty slot through a free-space
+ * map kept in a file next to it, rather than by scanning the pages.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+	/** Default number of pages the file grows by when it runs out of room. */
+	public static final int EXTENT_PAGES = 64;
+
 	private File file;
 	private TupleDesc td;
 	private FileChannel fileChannel;
+	private boolean memoryMapped;
+	// pages in use, and pages the file has room for; the pages in between
+	// are zeroes written ahead of time, see allocatePages
+	private volatile int numPages;
+	private int allocatedPages;
+	private int extentPages = EXTENT_PAGES;
+	// writes to the file begun and finished, see getWriteCount
+	private final AtomicLong writesBegun = new AtomicLong(0);
+	private final AtomicLong writesEnded = new AtomicLong(0);
+	// read-only mapping of the file, grown when pages are read past its end
+	private volatile MappedByteBuffer mapping;
+	// the free-space map: the pages that may have an empty slot, loaded on
+	// first use, and the file it is kept in, see freeSpaceMap
+	private BitSet freeSpace;
+	private int freeSpacePages;
+	private FileChannel freeSpaceChannel;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -28,16 +50,67 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally reading
+     * its pages through a memory mapping of the file. A page read from the
+     * mapping is a view over it rather than a copy, so reading a page costs
+     * no I/O call and no page-sized allocation once the file is in the OS
+     * page cache. Pages are still written through the file channel, which
+     * the mapping reflects.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether to read pages through a memory mapping
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         // some code goes here
     	try{
 	    	this.file = f;
 	    	this.td = td;
+	    	this.memoryMapped = memoryMapped;
 	    	RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
 	    	this.fileChannel = raf.getChannel();
+	    	this.allocatedPages = (int) (this.fileChannel.size() / BufferPool.PAGE_SIZE);
+	    	this.numPages = pagesInUse();
     	}
     	catch (FileNotFoundException e) {
     		System.out.println("Couldn't find file.");
     	}
+    	catch (IOException e) {
+    		System.out.println("Couldn't determine file size.");
+    	}
+    }
+
+    /**
+     * @return the number of pages of the file up to the last one that is
+     *         not all zeroes; the zeroes after it were preallocated, or are
+     *         empty pages no tuple refers to.
+     */
+    private int pagesInUse() throws IOException {
+    	ByteBuffer buffer = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+    	for (int n = this.allocatedPages; n > 0; n--) {
+    		buffer.clear();
+    		this.fileChannel.read(buffer, (long) (n - 1) * BufferPool.PAGE_SIZE);
+    		for (int i = 0; i < buffer.position(); i++) {
+    			if (buffer.get(i) != 0) {
+    				return n;
+    			}
+    		}
+    	}
+    	return 0;
+    }
+
+    /**
+     * Sets the number of pages the file grows by when a page is needed past
+     * the ones it has room for.
+     */
+    public void setExtentPages(int pages) {
+    	this.extentPages = Math.max(1, pages);
     }
 
     /**
@@ -80,6 +153,13 @@ public class HeapFile implements DbFile {
     	try {
 	    	int pageNumber = pid.pageNumber();
 	    	int offset = pageNumber * BufferPool.PAGE_SIZE;
+	    	
+	    	if (this.memoryMapped) {
+	    		ByteBuffer view = mappedPage(offset);
+	    		if (view != null) {
+	    			return new HeapPage((HeapPageId) pid, view);
+	    		}
+	    	}
 	    	 
 	    	ByteBuffer buffer = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
 	    	this.fileChannel.read(buffer, offset);
@@ -92,33 +172,154 @@ public class HeapFile implements DbFile {
     	}
     }
 
+    /**
+     * Reads up to n consecutive pages from page first on with a single
+     * positional read, e.g. to read ahead of a sequential scan. The pages
+     * are views over one buffer, so reading them costs one I/O call and one
+     * allocation.
+     * 
+     * @return the pages, fewer than n if the file ends before them
+     */
+    public HeapPage[] readPages(int first, int n) throws IOException {
+    	n = Math.max(0, Math.min(n, numPages() - first));
+    	ByteBuffer buffer = ByteBuffer.allocate(n * BufferPool.PAGE_SIZE);
+    	long offset = (long) first * BufferPool.PAGE_SIZE;
+    	while (buffer.hasRemaining()
+    			&& this.fileChannel.read(buffer, offset + buffer.position()) >= 0) {
+    	}
+    	HeapPage[] pages = new HeapPage[buffer.position() / BufferPool.PAGE_SIZE];
+    	for (int i = 0; i < pages.length; i++) {
+    		ByteBuffer view = buffer.duplicate();
+    		view.limit((i + 1) * BufferPool.PAGE_SIZE);
+    		view.position(i * BufferPool.PAGE_SIZE);
+    		pages[i] = new HeapPage(new HeapPageId(getId(), first + i), view);
+    	}
+    	return pages;
+    }
+
+    /**
+     * Returns a seqlock-style count of the writes to this file: it is odd
+     * while a write is in progress, and changes whenever one begins. A page
+     * read while the count was odd, or before it last changed, may be out of
+     * date.
+     */
+    public long getWriteCount() {
+    	// ended first: if begun equals it, no write was in progress when
+    	// begun was read
+    	long ended = this.writesEnded.get();
+    	long begun = this.writesBegun.get();
+    	return 2 * begun + (begun == ended ? 0 : 1);
+    }
+
+    /**
+     * @return whether pages are read through a memory mapping of the file.
+     */
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
+    }
+
+    /**
+     * Returns a view of the page at offset in the mapping, remapping the file
+     * if it has grown past the mapping.
+     * 
+     * @return the view, or null if the page lies outside the file or beyond
+     *         what a single mapping can address
+     */
+    private ByteBuffer mappedPage(long offset) throws IOException {
+    	long end = offset + BufferPool.PAGE_SIZE;
+    	MappedByteBuffer m = this.mapping;
+    	if (m == null || m.capacity() < end) {
+    		m = remap(end);
+    		if (m == null) {
+    			return null;
+    		}
+    	}
+    	ByteBuffer view = m.duplicate();
+    	view.position((int) offset);
+    	view.limit((int) end);
+    	return view;
+    }
+
+    private synchronized MappedByteBuffer remap(long minSize) throws IOException {
+    	if (this.mapping != null && this.mapping.capacity() >= minSize) {
+    		return this.mapping;
+    	}
+    	long size = Math.min(this.fileChannel.size(), Integer.MAX_VALUE);
+    	if (size < minSize) {
+    		return null;
+    	}
+    	this.mapping = this.fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    	return this.mapping;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
     	int pageNumber = page.getId().pageNumber();
     	int offset = pageNumber * BufferPool.PAGE_SIZE;
+    	this.writesBegun.incrementAndGet();
     	
     	try {
     		ByteBuffer buffer = ByteBuffer.wrap(page.getPageData());
     		this.fileChannel.write(buffer, offset);
     	} catch (IOException e) {
     		
+    	} finally {
+    		this.writesEnded.incrementAndGet();
     	}
+    	usePagesTo(pageNumber + 1);
+    	setFree(pageNumber, ((HeapPage) page).getNumEmptySlots() != 0);
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
-     * @throws IOException 
+     * Returns the number of pages in this HeapFile, which is kept in memory
+     * rather than derived from the size of the file.
      */
     public int numPages() {
         // some code goes here
-    	try {
-    		return (int) Math.ceil(this.fileChannel.size() / BufferPool.PAGE_SIZE);
+    	return this.numPages;
+    }
+
+    /**
+     * Adds n empty pages at the end of the file. The file is grown, if it
+     * has no room for them, by at least the extent size, with positional
+     * writes of zeroes, so that most new pages cost no I/O at all.
+     * 
+     * @return the number of the first new page
+     */
+    private synchronized int allocatePages(int n) throws IOException {
+    	int first = this.numPages;
+    	if (first + n > this.allocatedPages) {
+    		int pages = Math.max(first + n, this.allocatedPages + this.extentPages) - this.allocatedPages;
+    		ByteBuffer zeroes = ByteBuffer.allocate(Math.min(pages, EXTENT_PAGES) * BufferPool.PAGE_SIZE);
+    		long offset = (long) this.allocatedPages * BufferPool.PAGE_SIZE;
+    		long end = offset + (long) pages * BufferPool.PAGE_SIZE;
+    		this.writesBegun.incrementAndGet();
+    		try {
+    			while (offset < end) {
+    				zeroes.clear();
+    				zeroes.limit((int) Math.min(zeroes.capacity(), end - offset));
+    				offset += this.fileChannel.write(zeroes, offset);
+    			}
+    		} finally {
+    			this.writesEnded.incrementAndGet();
+    		}
+    		this.allocatedPages += pages;
     	}
-    	catch (IOException e) {
-    		System.out.println("Couldn't determine file size.");
-    		return 0;
+    	this.numPages = first + n;
+    	return first;
+    }
+
+    /**
+     * Counts the pages before n as in use, after one of them was written.
+     */
+    private synchronized void usePagesTo(int n) {
+    	if (n > this.numPages) {
+    		this.numPages = n;
+    	}
+    	if (n > this.allocatedPages) {
+    		this.allocatedPages = n;
     	}
     }
 
@@ -136,18 +337,246 @@ public class HeapFile implements DbFile {
     	return modifiedPages;
     }
     
+    /**
+     * Inserts tuples in bulk on behalf of tid, which must hold an X lock on
+     * this table, so that the pages need no locks of their own. The pages
+     * the free-space map lists are filled first, in order: those in own,
+     * which tid wrote straight to the file before, are rewritten the same
+     * way, and up to maxDirtyPages others are filled through the buffer
+     * pool. The rest of the tuples go to new
+     * pages at the end of the file, allocated up to an extent at a time.
+     * <p>
+     * Unless direct, the new pages are filled through the buffer pool as
+     * well. If direct, they are filled in memory and written straight to
+     * the file, each extent with a single call, so that the memory a bulk
+     * insert takes does not grow with the number of tuples. Those pages are
+     * on disk before tid commits; they are returned so that the caller can
+     * empty them if tid aborts.
+     * 
+     * @return the new pages written directly
+     */
+    public ArrayList<HeapPageId> insertTuples(TransactionId tid, List<Tuple> tuples,
+            Set<HeapPageId> own, int maxDirtyPages, boolean direct)
+            throws DbException, IOException, TransactionAbortedException {
+    	Iterator<Tuple> it = tuples.iterator();
+    	int left = tuples.size();
+    	int numPages = numPages();
+    	int dirtied = 0;
+    	for (int i = nextFreePage(0); left > 0 && i != -1 && i < numPages; i = nextFreePage(i + 1)) {
+    		HeapPageId pid = new HeapPageId(getId(), i);
+    		if (own.contains(pid)) {
+    			HeapPage[] page = readPages(i, 1);
+    			while (left > 0 && page[0].getNumEmptySlots() != 0) {
+    				page[0].insertTuple(it.next());
+    				left--;
+    			}
+    			// tid may have read the page through the pool meanwhile;
+    			// writePages drops that copy
+    			writePages(page);
+    			continue;
+    		}
+    		if (dirtied == maxDirtyPages) {
+    			continue;
+    		}
+    		HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+    				Permissions.READ_WRITE);
+    		int n = Math.min(left, page.getNumEmptySlots());
+    		if (n == 0) {
+    			setFree(i, false);
+    			continue;
+    		}
+    		for (int j = 0; j < n; j++) {
+    			page.insertTuple(it.next());
+    		}
+    		page.markDirty(true, tid);
+    		dirtied++;
+    		left -= n;
+    	}
+
+    	ArrayList<HeapPageId> written = new ArrayList<HeapPageId>();
+    	while (left > 0) {
+    		int n = Math.min(this.extentPages, (left + tuplesPerPage() - 1) / tuplesPerPage());
+    		int first = allocatePages(n);
+    		if (!direct) {
+    			for (int i = first; i < first + n; i++) {
+    				setFree(i, true);
+    				HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+    						new HeapPageId(getId(), i), Permissions.READ_WRITE);
+    				while (left > 0 && page.getNumEmptySlots() != 0) {
+    					page.insertTuple(it.next());
+    					left--;
+    				}
+    				page.markDirty(true, tid);
+    			}
+    			continue;
+    		}
+    		HeapPage[] extent = new HeapPage[n];
+    		for (int i = 0; i < n; i++) {
+    			extent[i] = new HeapPage(new HeapPageId(getId(), first + i), HeapPage.createEmptyPageData());
+    			while (left > 0 && extent[i].getNumEmptySlots() != 0) {
+    				extent[i].insertTuple(it.next());
+    				left--;
+    			}
+    			written.add(extent[i].getId());
+    		}
+    		writePages(extent);
+    	}
+    	return written;
+    }
+
+    /**
+     * @return the number of tuples a page of this file holds.
+     */
+    private int tuplesPerPage() {
+    	return (BufferPool.PAGE_SIZE * 8) / (this.td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Writes consecutive pages to the file with a single call, and drops
+     * any copies of them the buffer pool holds, e.g. ones read ahead.
+     */
+    private void writePages(HeapPage[] pages) throws IOException {
+    	ByteBuffer buffer = ByteBuffer.allocate(pages.length * BufferPool.PAGE_SIZE);
+    	for (HeapPage p : pages) {
+    		buffer.put(p.getPageData());
+    	}
+    	buffer.flip();
+    	long offset = (long) pages[0].getId().pageNumber() * BufferPool.PAGE_SIZE;
+    	this.writesBegun.incrementAndGet();
+    	try {
+    		while (buffer.hasRemaining()) {
+    			offset += this.fileChannel.write(buffer, offset);
+    		}
+    	} finally {
+    		this.writesEnded.incrementAndGet();
+    	}
+    	for (HeapPage p : pages) {
+    		Database.getBufferPool().discardPage(p.getId());
+    		setFree(p.getId().pageNumber(), p.getNumEmptySlots() != 0);
+    	}
+    }
+
+    /**
+     * Returns a page with an empty slot, locked READ_WRITE by tid: the first
+     * one the free-space map lists that still has one, or a new page at the
+     * end of the file.
+     */
     private HeapPage getOpenPage(TransactionId tid) throws TransactionAbortedException, DbException, IOException {
-    	for(int i=0; i<numPages(); i++) {
+    	int numPages = numPages();
+    	for (int i = nextFreePage(0); i != -1 && i < numPages; i = nextFreePage(i + 1)) {
     		PageId pid = new HeapPageId(getId(),i);
     		HeapPage currPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE); 
     		if(currPage.getNumEmptySlots() != 0) {
     			return currPage;
     		}
+    		setFree(i, false);
     	}
     	
-    	HeapPage newPage = new HeapPage(new HeapPageId(getId(), numPages()),new byte[BufferPool.PAGE_SIZE]);
-    	writePage(newPage);
-    	return newPage;
+    	int page = allocatePages(1);
+    	setFree(page, true);
+    	return (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), page), Permissions.READ_WRITE);
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it the first time:
+     * bit i is set if page i may have an empty slot. A page the map does
+     * not list has none, unless a transaction that filled it aborted; a
+     * page it lists may be full, which getOpenPage finds out and records.
+     * <p>
+     * The map is kept in a file next to this one, named after it with
+     * ".fsm" appended: the number of pages it describes, then the bits. If
+     * that file is missing or describes a different number of pages, the
+     * map is rebuilt by reading every page.
+     */
+    private synchronized BitSet freeSpaceMap() throws IOException {
+    	if (this.freeSpace != null) {
+    		return this.freeSpace;
+    	}
+    	int numPages = numPages();
+    	File f = freeSpaceMapFile();
+    	this.freeSpaceChannel = new RandomAccessFile(f, "rw").getChannel();
+    	ByteBuffer header = ByteBuffer.allocate(4);
+    	this.freeSpaceChannel.read(header, 0);
+    	BitSet map;
+    	if (header.position() == 4 && header.getInt(0) == numPages) {
+    		ByteBuffer bits = ByteBuffer.allocate((numPages + 7) / 8);
+    		this.freeSpaceChannel.read(bits, 4);
+    		map = BitSet.valueOf(bits.array());
+    	} else {
+    		map = new BitSet(numPages);
+    		for (int i = 0; i < numPages; i++) {
+    			HeapPage p = (HeapPage) readPage(new HeapPageId(getId(), i));
+    			map.set(i, p.getNumEmptySlots() != 0);
+    		}
+    		ByteBuffer data = ByteBuffer.allocate(4 + (numPages + 7) / 8);
+    		data.putInt(numPages);
+    		byte[] bits = map.toByteArray();
+    		data.put(bits);
+    		data.rewind();
+    		this.freeSpaceChannel.truncate(0);
+    		this.freeSpaceChannel.write(data, 0);
+    	}
+    	this.freeSpace = map;
+    	this.freeSpacePages = numPages;
+    	return map;
+    }
+
+    /**
+     * @return the file the free-space map of this file is kept in.
+     */
+    private File freeSpaceMapFile() {
+    	return new File(this.file.getPath() + ".fsm");
+    }
+
+    /**
+     * Requests that the file backing this heap file, and the file its
+     * free-space map is kept in, be deleted when the VM exits. Meant for
+     * temporary tables.
+     */
+    public void deleteOnExit() {
+    	this.file.deleteOnExit();
+    	freeSpaceMapFile().deleteOnExit();
+    }
+
+    /**
+     * @return the first page from page on that the free-space map lists, or
+     *         -1 if there is none.
+     */
+    private synchronized int nextFreePage(int page) throws IOException {
+    	return freeSpaceMap().nextSetBit(page);
+    }
+
+    /**
+     * Records in the free-space map whether page may have an empty slot,
+     * writing the byte that changes to the map's file, and the number of
+     * pages if page is a new one.
+     */
+    private synchronized void setFree(int page, boolean free) {
+    	try {
+    		BitSet map = freeSpaceMap();
+    		boolean grown = page >= this.freeSpacePages;
+    		if (map.get(page) == free && !grown) {
+    			return;
+    		}
+    		map.set(page, free);
+    		byte b = 0;
+    		for (int i = 0; i < 8; i++) {
+    			if (map.get((page & ~7) + i)) {
+    				b |= 1 << i;
+    			}
+    		}
+    		this.freeSpaceChannel.write(ByteBuffer.wrap(new byte[] { b }), 4 + page / 8);
+    		if (grown) {
+    			this.freeSpacePages = page + 1;
+    			ByteBuffer header = ByteBuffer.allocate(4);
+    			header.putInt(0, this.freeSpacePages);
+    			this.freeSpaceChannel.write(header, 0);
+    		}
+    	} catch (IOException e) {
+    		// dropped: the map is only a hint, and the page itself records
+    		// the update. A page the map gets wrong is found out when it is
+    		// used, or wasted until then
+    	}
     }
 
     // see DbFile.java for javadocs
@@ -158,6 +587,7 @@ public class HeapFile implements DbFile {
     	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
     	page.deleteTuple(t);
     	page.markDirty(true, tid);
+    	setFree(page.getId().pageNumber(), true);
     	return page;
     }
 
@@ -174,6 +604,12 @@ public class HeapFile implements DbFile {
         private int tableId;
         private int currentPage;
         private Iterator<Tuple> pageIterator;
+        // the frame of the page being iterated over, pinned until the
+        // iterator moves on or is closed
+        private PageCache.Frame frame;
+        // tuples whose keyField does not pass keyFilter are skipped
+        private volatile int keyField = -1;
+        private volatile KeyFilter keyFilter = null;
 
         HeapFileIterator(HeapFile hf, TransactionId tid) {
             this.heapFile = hf;
@@ -190,16 +626,18 @@ public class HeapFile implements DbFile {
         public boolean hasNext() throws DbException, TransactionAbortedException {
             if (this.pageIterator == null) {
                 return false;
-            } else if (this.pageIterator.hasNext()) {
-                return true;
-            } else {
-                this.currentPage++;
-                if (this.currentPage < this.heapFile.numPages()) {
-                	this.pageIterator = setPageIterator();
-                    return this.pageIterator.hasNext();
+            }
+            while (!this.pageIterator.hasNext()) {
+                if (this.currentPage + 1 >= this.heapFile.numPages()) {
+                    // the end of the file: callers that never close the
+                    // iterator must not keep its last page pinned
+                    unpin();
+                    return false;
                 }
+                this.currentPage++;
+                this.pageIterator = setPageIterator();
             }
-            return false;
+            return true;
         }
 
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
@@ -216,12 +654,35 @@ public class HeapFile implements DbFile {
 
         public void close() {
         	this.pageIterator = null;
+        	unpin();
+        }
+
+        private void unpin() {
+            if (this.frame != null) {
+                this.frame.unpin();
+                this.frame = null;
+            }
         }
         
         public Iterator<Tuple> setPageIterator() throws DbException, TransactionAbortedException {
             HeapPageId pid = new HeapPageId(this.tableId, this.currentPage);
-            HeapPage p = (HeapPage)Database.getBufferPool().getPage(this.transactionId, pid, Permissions.READ_ONLY);
-            return p.iterator();
+            unpin();
+            this.frame = Database.getBufferPool().getPinnedPage(this.transactionId, pid, Permissions.READ_ONLY);
+            HeapPage p = (HeapPage) this.frame.getPage();
+            KeyFilter filter = this.keyFilter;
+            return filter == null ? p.iterator() : p.iterator(this.keyField, filter);
+        }
+
+        /**
+         * Skips the rest of the tuples whose field does not pass filter, or
+         * none if filter is null.
+         */
+        void setKeyFilter(int field, KeyFilter filter) {
+            this.keyField = field;
+            this.keyFilter = filter;
+            if (this.pageIterator instanceof HeapPage.HeapPageIterator) {
+                ((HeapPage.HeapPageIterator) this.pageIterator).setKeyFilter(field, filter);
+            }
         }
     }
 }
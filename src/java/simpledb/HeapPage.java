@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -18,6 +19,9 @@ public class HeapPage implements Page {
 	byte header[];
 	Tuple tuples[];
 	int numSlots;
+	// the bytes this page was read from; a slot that is in use but has no
+	// entry in tuples has not been decoded yet
+	private ByteBuffer data;
 
 	byte[] oldData;
 	private TransactionId dirtyTid;
@@ -35,32 +39,46 @@ public class HeapPage implements Page {
 	 * <p>
 	 *      ceiling(no. tuple slots / 8)
 	 * <p>
+	 * The page keeps a reference to data rather than a copy, so the caller
+	 * must not modify it afterwards.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#PAGE_SIZE
 	 */
 	public HeapPage(HeapPageId id, byte[] data) throws IOException {
+		this(id, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Create a HeapPage that is a view over the bytes of data from its
+	 * position to its limit, e.g. a slice of a memory-mapped file. Only the
+	 * header is read here; a tuple is created the first time its slot is
+	 * accessed, and decodes each field from data only when it is read.
+	 * <p>
+	 * data must not change while the page is in use, except by writing this
+	 * page's own contents back to it.
+	 *
+	 * @see #HeapPage(HeapPageId, byte[])
+	 */
+	public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
 		this.pid = id;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 		this.numSlots = getNumTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		this.data = data.slice();
+		if (this.data.remaining() < BufferPool.PAGE_SIZE) {
+			throw new IOException("short page: " + this.data.remaining() + " bytes");
+		}
 
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
 		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
-
-		try{
-			// allocate and read the actual records of this page
-			tuples = new Tuple[numSlots];
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
-		dis.close();
+			header[i] = this.data.get(i);
+
+		// tuples are decoded on demand by getTuple
+		tuples = new Tuple[numSlots];
 
-		setBeforeImage();
+		// until this page is first modified its before image is data itself
+		oldData = null;
 	}
 
 	/** Retrieve the number of tuples on this page.
@@ -83,7 +101,7 @@ public class HeapPage implements Page {
         -- used by recovery */
 	public HeapPage getBeforeImage(){
 		try {
-			return new HeapPage(pid,oldData);
+			return new HeapPage(pid, oldData != null ? oldData : copyData());
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -96,6 +114,25 @@ public class HeapPage implements Page {
 		oldData = getPageData().clone();
 	}
 
+	/**
+	 * Snapshots the before image if this page has not been modified since
+	 * it was read, as data no longer describes it after the modification
+	 * is flushed.
+	 */
+	private void captureBeforeImage() {
+		if (oldData == null) {
+			oldData = copyData();
+		}
+	}
+
+	private byte[] copyData() {
+		byte[] copy = new byte[BufferPool.PAGE_SIZE];
+		ByteBuffer src = data.duplicate();
+		src.clear();
+		src.get(copy);
+		return copy;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -105,36 +142,93 @@ public class HeapPage implements Page {
 	}
 
 	/**
-	 * Suck up tuples from the source file.
+	 * Returns the tuple in slot i, decoding it from the page data on first
+	 * access.
+	 *
+	 * @return the tuple in slot i, or null if the slot is empty
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
+	Tuple getTuple(int i) {
+		if (!isSlotUsed(i)) {
 			return null;
 		}
+		Tuple t = tuples[i];
+		if (t == null) {
+			t = readTuple(i);
+			tuples[i] = t;
+		}
+		return t;
+	}
 
-		// read fields in the tuple
-		Tuple t = new Tuple(td);
-		RecordId rid = new RecordId(pid, slotId);
-		t.setRecordId(rid);
-		try {
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
+	/**
+	 * Appends the tuples in the used slots from, from+1, ... to batch until
+	 * it is full. Slots that were never accessed as Tuples are decoded
+	 * straight from the page data into the batch's columns.
+	 *
+	 * @return the slot to continue from, or the number of slots on this
+	 *         page if all of them were read
+	 */
+	int fillBatch(TupleBatch batch, int from) {
+		return fillBatch(batch, from, -1, null);
+	}
+
+	/**
+	 * Like {@link #fillBatch(TupleBatch, int)}, but skips the tuples whose
+	 * field does not pass filter, testing the encoded field of slots that
+	 * were never decoded.
+	 */
+	int fillBatch(TupleBatch batch, int from, int field, KeyFilter filter) {
+		int i = from;
+		for (; i < numSlots && !batch.isFull(); i++) {
+			if (!isSlotUsed(i) || !passes(i, field, filter)) {
+				continue;
 			}
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
+			int row = batch.addRow();
+			if (tuples[i] != null) {
+				batch.setFields(row, tuples[i], 0);
+			} else {
+				batch.decodeFields(row, data, slotOffset(i));
+			}
+			batch.setRecordId(row, pid, i);
 		}
+		return i;
+	}
 
+	/**
+	 * @return true if the tuple in slot i, which must be used, passes
+	 *         filter on field, or if filter is null.
+	 */
+	private boolean passes(int i, int field, KeyFilter filter) {
+		if (filter == null) {
+			return true;
+		}
+		if (tuples[i] != null) {
+			return filter.mightContain(TupleBatch.valueOf(tuples[i].getField(field)));
+		}
+		return filter.mightContain(td.getFieldType(field), data,
+				slotOffset(i) + td.getFieldOffset(field));
+	}
+
+	/**
+	 * @return the number of tuple slots on this page, used or not.
+	 */
+	int numSlots() {
+		return numSlots;
+	}
+
+	/**
+	 * @return the offset of slot i in the page data.
+	 */
+	private int slotOffset(int i) {
+		return header.length + i * td.getSize();
+	}
+
+	/**
+	 * Creates the tuple in slot slotId. Its fields are decoded from the page
+	 * data only when they are read.
+	 */
+	private Tuple readTuple(int slotId) {
+		Tuple t = new Tuple(td, data, slotOffset(slotId));
+		t.setRecordId(new RecordId(pid, slotId));
 		return t;
 	}
 
@@ -180,6 +274,20 @@ public class HeapPage implements Page {
 				continue;
 			}
 
+			// non-empty slot that was never decoded: copy its bytes
+			if (tuples[i] == null) {
+				ByteBuffer src = data.duplicate();
+				src.position(slotOffset(i));
+				for (int j=0; j<td.getSize(); j++) {
+					try {
+						dos.writeByte(src.get());
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+				continue;
+			}
+
 			// non-empty slot
 			for (int j=0; j<td.numFields(); j++) {
 				Field f = tuples[i].getField(j);
@@ -241,6 +349,11 @@ public class HeapPage implements Page {
 			throw new DbException("Tuple not found");
 		}
 
+		captureBeforeImage();
+		// the slot's bytes may be reused, so t must stop reading them
+		if (this.tuples[tupleNo] != null) {
+			this.tuples[tupleNo].materialize();
+		}
 		markSlotUsed(tupleNo, false);
 		this.tuples[tupleNo] = null;
 	}
@@ -260,18 +373,18 @@ public class HeapPage implements Page {
 		}
 
 		int slotToUse = findOpenSlot();
+		captureBeforeImage();
+		// t may be backed by another page's bytes
+		t.materialize();
 		t.setRecordId(new RecordId(this.pid, slotToUse));
 		markSlotUsed(slotToUse, true);
 		this.tuples[slotToUse] = t;
 	}
 
 	private int findOpenSlot() throws DbException {
-		for(int i=0; i<header.length; i++) {
-			for(int slot=0; slot<8; slot++) {
-				int slotNum = (i*8) + slot;
-				if(!isSlotUsed(slotNum)) {
-					return slotNum;
-				}
+		for(int slotNum=0; slotNum<numSlots; slotNum++) {
+			if(!isSlotUsed(slotNum)) {
+				return slotNum;
 			}
 		}
 
@@ -358,25 +471,61 @@ public class HeapPage implements Page {
 		return new HeapPageIterator(this);
 	}
 
+	/**
+	 * @return an iterator over the tuples on this page whose field passes
+	 *         filter, which is tested before a tuple is created
+	 */
+	Iterator<Tuple> iterator(int field, KeyFilter filter) {
+		return new HeapPageIterator(this, field, filter);
+	}
+
 	public class HeapPageIterator implements Iterator<Tuple> {
 		private HeapPage page;
-		private int numTuples;
-		private int curTuple;
+		private int nextSlot;
+		private int field;
+		private KeyFilter filter;
 
 		// Assumes pages cannot be modified while iterating over them
 		// Iterates over only valid tuples
 		public HeapPageIterator(HeapPage page) {
+			this(page, -1, null);
+		}
+
+		HeapPageIterator(HeapPage page, int field, KeyFilter filter) {
 			this.page = page;
-			this.curTuple = 0;
-			this.numTuples = this.page.getNumTuples() - page.getNumEmptySlots();
+			this.nextSlot = 0;
+			this.field = field;
+			this.filter = filter;
+			advance();
+		}
+
+		/**
+		 * Skips the rest of the tuples whose field does not pass filter.
+		 */
+		void setKeyFilter(int field, KeyFilter filter) {
+			this.field = field;
+			this.filter = filter;
+			advance();
+		}
+
+		private void advance() {
+			while (this.nextSlot < this.page.numSlots && (!this.page.isSlotUsed(this.nextSlot)
+					|| !this.page.passes(this.nextSlot, this.field, this.filter))) {
+				this.nextSlot++;
+			}
 		}
 
 		public boolean hasNext() {
-			return this.curTuple < this.numTuples;
+			return this.nextSlot < this.page.numSlots;
 		}
 
 		public Tuple next() {
-			return this.page.tuples[this.curTuple++];
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Tuple t = this.page.getTuple(this.nextSlot++);
+			advance();
+			return t;
 		}
 
 		public void remove() throws UnsupportedOperationException {
@@ -384,4 +533,4 @@ public class HeapPage implements Page {
 		}
 	}
 
-}
\ No newline at end of file
+}
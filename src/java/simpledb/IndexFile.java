@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * The interface for secondary indexes on one field of a table. An index is
+ * a DbFile whose pages go through the BufferPool like a table's, registered
+ * with {@link Catalog#addIndex}; its insertTuple and deleteTuple maintain
+ * the entry of a tuple of the indexed table, which BufferPool does whenever
+ * it inserts or deletes one.
+ *
+ * @see BTreeFile
+ * @see HashIndexFile
+ */
+public interface IndexFile extends DbFile {
+
+    /**
+     * @return the id of the indexed table.
+     */
+    public int getTableId();
+
+    /**
+     * @return the index of the indexed field in the tuples of the table.
+     */
+    public int getKeyField();
+
+    /**
+     * @return the type of the indexed field.
+     */
+    public Type getKeyType();
+
+    /**
+     * @return true if the tuples whose key satisfies a predicate with op can
+     *         be looked up in this index.
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * @return true if {@link #iterator(TransactionId, Predicate.Op, Field)}
+     *         returns tuples in ascending order on the indexed field.
+     */
+    public boolean isSorted();
+
+    /**
+     * Returns the tuples of the indexed table whose key satisfies
+     * key op operand.
+     *
+     * @throws IllegalArgumentException
+     *             if the index does not support op
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field operand);
+}
@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator joins two children on the equality of a
+ * field of each by looking up, for every tuple of the left (outer) child,
+ * the matching right tuples in an index on the right join field, instead of
+ * scanning the right side. The right (inner) child reads a table through an
+ * {@link IndexScan} on its join field, possibly under Filters, which the
+ * join points at the key of each outer tuple in turn; it is built from a
+ * plan that scans the table with {@link #probing}.
+ * <p>
+ * The output is in the order of the left child.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private IndexScan probe;
+    private TupleDesc comboTD;
+    // the current outer tuple
+    transient private Tuple t1 = null;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join, which reads
+     *            its tuples from an IndexScan on field p.getField2(), with
+     *            no operators between them but Filters
+     * @throws IllegalArgumentException
+     *             if the predicate or child2 cannot be joined this way
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this.probe = probeOf(child2);
+        if (p.getOperator() != Predicate.Op.EQUALS || this.probe == null
+                || this.probe.getKeyField() != p.getField2()) {
+            throw new IllegalArgumentException("cannot probe an index for " + p.getOperator()
+                    + " on field " + p.getField2());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the IndexScan plan reads from through Filters, or null if it
+     *         has none.
+     */
+    private static IndexScan probeOf(DbIterator plan) {
+        if (plan instanceof IndexScan) {
+            return (IndexScan) plan;
+        }
+        if (plan instanceof Filter) {
+            return probeOf(((Filter) plan).getChildren()[0]);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the scan of a table that plan reads from through Filters by
+     * an IndexScan of an index on field that can look up equal keys, so
+     * that it can be the right child of an IndexNestedLoopJoin on field.
+     *
+     * @return the new plan, or null if plan is not a scan with Filters
+     *         over it or its table has no such index
+     */
+    public static DbIterator probing(DbIterator plan, int field) {
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            DbIterator child = probing(f.getChildren()[0], field);
+            if (child == null) {
+                return null;
+            }
+            f.setChildren(new DbIterator[] { child });
+            return f;
+        }
+        if (!(plan instanceof SeqScan) || plan instanceof IndexScan
+                || plan instanceof BatchSeqScan) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) plan;
+        IndexFile index = Database.getCatalog().getIndex(scan.getTableId(), field,
+                Predicate.Op.EQUALS);
+        if (index == null) {
+            return null;
+        }
+        return new IndexScan(scan.getTransactionId(), index, scan.getAlias(),
+                Predicate.Op.EQUALS, null);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by alias or
+     *         table name.
+     */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by alias or
+     *         table name.
+     */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        probe.setOperand(null);
+        child2.open();
+        t1 = null;
+        super.open();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the current outer tuple joined with the next inner tuple
+     * the index finds for its key, or the first one for the next outer tuple
+     * that has any.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && child2.hasNext()) {
+                return mergeTuples(t1, child2.next());
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            t1 = child1.next();
+            probe.setOperand(t1.getField(pred.getField1()));
+            child2.rewind();
+        }
+    }
+
+    private Tuple mergeTuples(Tuple tup1, Tuple tup2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = tup1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, tup1.getField(i));
+        }
+        for (int i = 0; i < tup2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, tup2.getField(i));
+        }
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        // reopened rather than rewound, to drop what its operators read ahead
+        child2.close();
+        probe.setOperand(null);
+        child2.open();
+        t1 = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        t1 = null;
+    }
+
+    @Override
+    public int getSortField() {
+        return sortFieldOf(child1);
+    }
+
+    @Override
+    public boolean isSortAscending() {
+        return sortedAscendingOn(child1, sortFieldOf(child1));
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.probe = probeOf(this.child2);
+    }
+
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate from an {@link IndexFile} on that
+ * field, rather than scanning the whole table; from a {@link BTreeFile},
+ * they come in ascending order on it. Its tuples are those of a SeqScan of
+ * the table under the same alias followed by a Filter on the predicate.
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private IndexFile index;
+    private Predicate.Op op;
+    private Field operand;
+    private boolean open = false;
+    private DbFileIterator indexIterator;
+    // the next tuple that passed the key filter
+    private Tuple nextTuple;
+
+    /**
+     * Creates a scan of the tuples of the table index is on whose indexed
+     * field satisfies field op operand.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read the table from.
+     * @param tableAlias
+     *            the alias of the table, as for a SeqScan.
+     * @param op
+     *            a predicate operator the index supports
+     * @param operand
+     *            the field to compare the indexed field with; if null, the
+     *            scan returns no tuples until one is set
+     */
+    public IndexScan(TransactionId tid, IndexFile index, String tableAlias,
+            Predicate.Op op, Field operand) {
+        super(tid, index.getTableId(), tableAlias);
+        if (!index.supports(op)) {
+            throw new IllegalArgumentException("cannot look up " + op + " in an index");
+        }
+        this.tid = tid;
+        this.index = index;
+        this.op = op;
+        this.operand = operand;
+    }
+
+    /**
+     * @return the index of the indexed field in the tuples of this scan.
+     */
+    public int getKeyField() {
+        return this.index.getKeyField();
+    }
+
+    /**
+     * @return the field on which the tuples of this scan come in ascending
+     *         order, or -1 if the index does not return them in order.
+     */
+    public int getSortField() {
+        return this.index.isSorted() ? this.index.getKeyField() : -1;
+    }
+
+    /**
+     * Sets the field to compare the indexed field with, e.g. the join field
+     * of each outer tuple of an {@link IndexNestedLoopJoin}. If the scan is
+     * open, it then returns the tuples that satisfy the new predicate.
+     */
+    void setOperand(Field operand) throws DbException, TransactionAbortedException {
+        this.operand = operand;
+        if (this.open) {
+            closeIterator();
+            openIterator();
+        }
+    }
+
+    private void openIterator() throws DbException, TransactionAbortedException {
+        if (this.operand != null) {
+            this.indexIterator = this.index.iterator(this.tid, this.op, this.operand);
+            this.indexIterator.open();
+        }
+        this.nextTuple = null;
+    }
+
+    private void closeIterator() {
+        if (this.indexIterator != null) {
+            this.indexIterator.close();
+        }
+        this.indexIterator = null;
+        this.nextTuple = null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (this.open) {
+            throw new DbException("Already Open");
+        }
+        this.open = true;
+        openIterator();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (this.indexIterator == null) {
+            return false;
+        }
+        while (this.nextTuple == null && this.indexIterator.hasNext()) {
+            Tuple t = this.indexIterator.next();
+            KeyFilter filter = this.keyFilter;
+            if (filter == null || filter.mightContain(TupleBatch.valueOf(t.getField(this.keyField)))) {
+                this.nextTuple = t;
+            }
+        }
+        return this.nextTuple != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = this.nextTuple;
+        this.nextTuple = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (this.indexIterator != null) {
+            this.indexIterator.rewind();
+        }
+        this.nextTuple = null;
+    }
+
+    public void close() {
+        this.open = false;
+        closeIterator();
+    }
+}
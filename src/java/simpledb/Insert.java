@@ -1,21 +1,33 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
- * constructor
+ * constructor. A child with fewer than BATCH_SIZE tuples has them inserted one
+ * at a time, locking only the pages they go to; larger ones are inserted in
+ * batches of BATCH_SIZE under a single lock on the whole table. An insert
+ * constructed as direct lets those batches write new pages straight to the
+ * file instead of through the buffer pool.
+ *
+ * @see BufferPool#insertTuples
  */
 public class Insert extends Operator {
 
 	private static final long serialVersionUID = 1L;
+
+	/** Number of tuples inserted together by a bulk insert. */
+	public static final int BATCH_SIZE = 1024;
+
 	private TransactionId tid;
 	private DbIterator child;
 	private int tableId;
 	private DbIterator aggregateIterator;
 	private boolean calledFetchNext;
 	private TupleDesc tupleDesc;
+	private boolean direct;
 
 	/**
 	 * Constructor.
@@ -32,6 +44,18 @@ public class Insert extends Operator {
 	 */
 	public Insert(TransactionId t,DbIterator child, int tableid)
 			throws DbException {
+		this(t, child, tableid, false);
+	}
+
+	/**
+	 * Constructor for an insert whose batches may bypass the buffer pool.
+	 * 
+	 * @param direct
+	 *            whether bulk inserts write new pages straight to disk
+	 * @see BufferPool#insertTuples
+	 */
+	public Insert(TransactionId t, DbIterator child, int tableid, boolean direct)
+			throws DbException {
 		// some code goes here
 		//		if(!child.getTupleDesc().equals(Database.getCatalog().getTupleDesc(tableid))) {
 		//			throw new DbException("Child TupleDesc does not match table");
@@ -39,6 +63,7 @@ public class Insert extends Operator {
 		this.tid = t;
 		this.child = child;
 		this.tableId = tableid;
+		this.direct = direct;
 	}
 
 	public TupleDesc getTupleDesc() {
@@ -86,17 +111,28 @@ public class Insert extends Operator {
 			return null;
 		}
 		int count = 0;
-		while(this.child.hasNext()) {
-			try {
-				Database.getBufferPool().insertTuple(this.tid, this.tableId, this.child.next());
-			} catch (NoSuchElementException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		ArrayList<Tuple> batch = new ArrayList<Tuple>(BATCH_SIZE);
+		boolean bulk = false;
+		try {
+			while(this.child.hasNext()) {
+				batch.add(this.child.next());
+				if (batch.size() == BATCH_SIZE) {
+					Database.getBufferPool().insertTuples(this.tid, this.tableId, batch, this.direct);
+					count += batch.size();
+					batch.clear();
+					bulk = true;
+				}
+			}
+			if (bulk) {
+				Database.getBufferPool().insertTuples(this.tid, this.tableId, batch, this.direct);
+			} else {
+				for (Tuple t : batch) {
+					Database.getBufferPool().insertTuple(this.tid, this.tableId, t);
+				}
 			}
-			count++;
+			count += batch.size();
+		} catch (IOException e) {
+			throw new DbException("insert failed: " + e.getMessage());
 		}
 		Tuple toReturn = new Tuple(getTupleDesc());
 		toReturn.setField(0, new IntField(count));
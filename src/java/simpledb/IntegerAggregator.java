@@ -1,12 +1,14 @@
 package simpledb;
 
+import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.Arrays;
 
 /**
- * Knows how to compute some aggregate over a set of IntFields.
+ * Knows how to compute some aggregate over a set of IntFields. Groups are
+ * numbered by a {@link GroupTable} and their state is kept in long[] arrays
+ * indexed by group, so merging a tuple into an existing group allocates
+ * nothing.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -31,8 +33,16 @@ public class IntegerAggregator implements Aggregator {
 	private Type gbFieldType;
 	private int aField;
 	private Op what;
-	private HashMap<Field, Integer> aggregateVal;
-	private HashMap<Field, Integer> aggregateCounter;
+	private Accumulator accumulator;
+	// null if there is no grouping, in which case every tuple is in group 0
+	private GroupTable groups;
+	private int numGroups;
+	// the state of each group: the running min, max or sum, and the number
+	// of values merged into it
+	private long[] values;
+	private long[] counts;
+	// the group of each selected row of the batch being merged
+	private int[] batchGroups = new int[0];
 
 	public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
 		// some code goes here
@@ -42,8 +52,12 @@ public class IntegerAggregator implements Aggregator {
 
 		this.aField = afield;
 		this.what = what;
-		this.aggregateVal = new HashMap<Field, Integer>();
-		this.aggregateCounter = new HashMap<Field, Integer>();
+		this.accumulator = accumulator(what);
+		if (gbfield != Aggregator.NO_GROUPING) {
+			this.groups = new GroupTable(gbfieldtype == null ? Type.INT_TYPE : gbfieldtype);
+		}
+		this.values = new long[0];
+		this.counts = new long[0];
 	}
 
 	/**
@@ -55,47 +69,240 @@ public class IntegerAggregator implements Aggregator {
 	 */
 	public void mergeTupleIntoGroup(Tuple tup) {
 		// some code goes here
-		int value;
-		Field key;
-		if (this.gbField == Aggregator.NO_GROUPING) {
-			key = new IntField(-1);
-		}
-		else {
-			key = tup.getField(this.gbField);
+		int g = this.groups == null ? 0 : this.groups.group(tup.getField(this.gbField));
+		if (g >= this.numGroups) {
+			addGroups(g + 1);
 		}
+		this.accumulator.add(this.values, this.counts, g, this.accumulator.value(tup, this.aField));
+	}
 
-		if(aggregateVal.get(key) == null) {
-			if(this.what.toString().equals("min")) {
-				value = Integer.MAX_VALUE;
-			}
-			else if(this.what.toString().equals("max")) {
-				value = Integer.MIN_VALUE;
-			}
-			else {
-				value = 0;
+	public void mergeBatchIntoGroups(TupleBatch batch) {
+		int[] sel = batch.getSelection();
+		int n = batch.numSelected();
+		if (this.batchGroups.length < n) {
+			this.batchGroups = new int[batch.capacity()];
+		}
+		int[] g = this.batchGroups;
+		if (this.groups == null) {
+			Arrays.fill(g, 0, n, 0);
+		}
+		else if (batch.getIntColumn(this.gbField) != null) {
+			int[] keys = batch.getIntColumn(this.gbField);
+			for (int i = 0; i < n; i++) {
+				g[i] = this.groups.group(keys[sel[i]]);
 			}
 		}
 		else {
-			value = aggregateVal.get(key);
+			String[] keys = batch.getStringColumn(this.gbField);
+			for (int i = 0; i < n; i++) {
+				g[i] = this.groups.group(keys[sel[i]]);
+			}
+		}
+		int total = this.groups == null ? (n > 0 ? 1 : 0) : this.groups.size();
+		if (total > this.numGroups) {
+			addGroups(total);
 		}
+		this.accumulator.addAll(this.values, this.counts, g, batch.getIntColumn(this.aField), sel, n);
+	}
 
-		if(this.what.toString().equals("min")) {
-			aggregateVal.put(key, Math.min(value, ((IntField)tup.getField(this.aField)).getValue()));
+	/**
+	 * Extends the state arrays to hold n groups, starting the new ones out
+	 * empty.
+	 */
+	private void addGroups(int n) {
+		if (n > this.values.length) {
+			int capacity = Math.max(n, 2 * this.values.length);
+			this.values = Arrays.copyOf(this.values, capacity);
+			this.counts = Arrays.copyOf(this.counts, capacity);
 		}
-		else if(this.what.toString().equals("max")) {
-			aggregateVal.put(key, Math.max(value, ((IntField)tup.getField(this.aField)).getValue()));
+		Arrays.fill(this.values, this.numGroups, n, this.accumulator.initial());
+		Arrays.fill(this.counts, this.numGroups, n, 0);
+		this.numGroups = n;
+	}
+
+	/**
+	 * An Accumulator updates the state of groups for one aggregation
+	 * operator. The one for the operator is chosen when the aggregator is
+	 * constructed, so merging a value neither tests the operator nor boxes
+	 * anything.
+	 */
+	private static abstract class Accumulator implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/** @return the value of a group into which nothing was merged */
+		long initial() {
+			return 0;
 		}
-		else if(this.what.toString().equals("sum") || this.what.toString().equals("avg")) {
-			aggregateVal.put(key, value + ((IntField)tup.getField(this.aField)).getValue());
+
+		/** @return the value to merge of field afield of t */
+		int value(Tuple t, int afield) {
+			return ((IntField) t.getField(afield)).getValue();
 		}
-		if(this.what.toString().equals("count") || this.what.toString().equals("avg")) {
-			if(aggregateCounter.get(key) == null) {
-				aggregateCounter.put(key, 1);
-			}
-			else {
-				aggregateCounter.put(key, aggregateCounter.get(key) + 1);
+
+		/** Merges v into group g. */
+		abstract void add(long[] values, long[] counts, int g, int v);
+
+		/**
+		 * Merges v[sel[i]] into group groups[i], for i from 0 to n - 1.
+		 */
+		abstract void addAll(long[] values, long[] counts, int[] groups, int[] v, int[] sel, int n);
+
+		/**
+		 * Merges the partial state of a group, its value and count, into
+		 * group g.
+		 */
+		void merge(long[] values, long[] counts, int g, long value, long count) {
+			values[g] += value;
+			counts[g] += count;
+		}
+
+		/** @return the aggregate value of group g */
+		abstract int result(long[] values, long[] counts, int g);
+	}
+
+	private static Accumulator accumulator(Op what) {
+		switch (what) {
+		case MIN:
+			return new Accumulator() {
+				private static final long serialVersionUID = 1L;
+				long initial() { return Integer.MAX_VALUE; }
+				void add(long[] values, long[] counts, int g, int v) {
+					if (v < values[g]) values[g] = v;
+				}
+				void merge(long[] values, long[] counts, int g, long value, long count) {
+					if (value < values[g]) values[g] = value;
+				}
+				void addAll(long[] values, long[] counts, int[] groups, int[] v, int[] sel, int n) {
+					for (int i = 0; i < n; i++) {
+						int x = v[sel[i]];
+						if (x < values[groups[i]]) values[groups[i]] = x;
+					}
+				}
+				int result(long[] values, long[] counts, int g) { return (int) values[g]; }
+			};
+		case MAX:
+			return new Accumulator() {
+				private static final long serialVersionUID = 1L;
+				long initial() { return Integer.MIN_VALUE; }
+				void add(long[] values, long[] counts, int g, int v) {
+					if (v > values[g]) values[g] = v;
+				}
+				void merge(long[] values, long[] counts, int g, long value, long count) {
+					if (value > values[g]) values[g] = value;
+				}
+				void addAll(long[] values, long[] counts, int[] groups, int[] v, int[] sel, int n) {
+					for (int i = 0; i < n; i++) {
+						int x = v[sel[i]];
+						if (x > values[groups[i]]) values[groups[i]] = x;
+					}
+				}
+				int result(long[] values, long[] counts, int g) { return (int) values[g]; }
+			};
+		case SUM:
+			return new Accumulator() {
+				private static final long serialVersionUID = 1L;
+				void add(long[] values, long[] counts, int g, int v) {
+					values[g] += v;
+				}
+				void addAll(long[] values, long[] counts, int[] groups, int[] v, int[] sel, int n) {
+					for (int i = 0; i < n; i++) {
+						values[groups[i]] += v[sel[i]];
+					}
+				}
+				int result(long[] values, long[] counts, int g) { return (int) values[g]; }
+			};
+		case AVG:
+			return new Accumulator() {
+				private static final long serialVersionUID = 1L;
+				void add(long[] values, long[] counts, int g, int v) {
+					values[g] += v;
+					counts[g]++;
+				}
+				void addAll(long[] values, long[] counts, int[] groups, int[] v, int[] sel, int n) {
+					for (int i = 0; i < n; i++) {
+						values[groups[i]] += v[sel[i]];
+						counts[groups[i]]++;
+					}
+				}
+				int result(long[] values, long[] counts, int g) { return (int) (values[g] / counts[g]); }
+			};
+		case COUNT:
+			return new Accumulator() {
+				private static final long serialVersionUID = 1L;
+				// counting does not look at the field, which need not be an int
+				int value(Tuple t, int afield) { return 0; }
+				void add(long[] values, long[] counts, int g, int v) {
+					counts[g]++;
+				}
+				void addAll(long[] values, long[] counts, int[] groups, int[] v, int[] sel, int n) {
+					for (int i = 0; i < n; i++) {
+						counts[groups[i]]++;
+					}
+				}
+				int result(long[] values, long[] counts, int g) { return (int) counts[g]; }
+			};
+		default:
+			throw new IllegalArgumentException("unknown aggregation operator " + what);
+		}
+	}
+
+	public int numGroups() {
+		return this.numGroups;
+	}
+
+	/**
+	 * The state of a group is its value (the running min, max or sum) and
+	 * the number of values merged into it, each a long stored as two
+	 * INT_TYPE fields, high half first.
+	 */
+	public TupleDesc getPartialTupleDesc() {
+		Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+		String[] names = new String[] { "valueHi", "valueLo", "countHi", "countLo" };
+		TupleDesc state = new TupleDesc(types, names);
+		if (this.gbField == Aggregator.NO_GROUPING) {
+			return state;
+		}
+		Type gbType = this.gbFieldType == null ? Type.INT_TYPE : this.gbFieldType;
+		return TupleDesc.merge(new TupleDesc(new Type[] { gbType }, new String[] { "groupVal" }), state);
+	}
+
+	public DbIterator partialIterator() {
+		TupleDesc td = getPartialTupleDesc();
+		int first = this.gbField == Aggregator.NO_GROUPING ? 0 : 1;
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int g = 0; g < this.numGroups; g++) {
+			Tuple t = new Tuple(td);
+			if (first == 1) {
+				t.setField(0, this.groups.key(g));
 			}
+			t.setField(first, new IntField((int) (this.values[g] >>> 32)));
+			t.setField(first + 1, new IntField((int) this.values[g]));
+			t.setField(first + 2, new IntField((int) (this.counts[g] >>> 32)));
+			t.setField(first + 3, new IntField((int) this.counts[g]));
+			tuples.add(t);
+		}
+		return new TupleIterator(td, tuples);
+	}
+
+	private static long longOf(Tuple t, int hi) {
+		return ((long) ((IntField) t.getField(hi)).getValue() << 32)
+				| (((IntField) t.getField(hi + 1)).getValue() & 0xffffffffL);
+	}
+
+	public void mergePartial(Tuple partial) {
+		int first = this.gbField == Aggregator.NO_GROUPING ? 0 : 1;
+		int g = this.groups == null ? 0 : this.groups.group(partial.getField(0));
+		if (g >= this.numGroups) {
+			addGroups(g + 1);
 		}
+		this.accumulator.merge(this.values, this.counts, g, longOf(partial, first), longOf(partial, first + 2));
+	}
+
+	public void clear() {
+		if (this.groups != null) {
+			this.groups.clear();
+		}
+		this.numGroups = 0;
 	}
 
 	/**
@@ -127,43 +334,17 @@ public class IntegerAggregator implements Aggregator {
 		tupleDesc = new TupleDesc(descTypes, descNames);
 
 		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-		Iterator<Field> keyIterator;
-		if(this.what.toString().equals("count")) { keyIterator = this.aggregateCounter.keySet().iterator();}
-		else { keyIterator = this.aggregateVal.keySet().iterator();}
-		Field currentKey;
 		Tuple toAdd;
 
-		while(keyIterator.hasNext()) {
-			currentKey = keyIterator.next();
+		for (int g = 0; g < this.numGroups; g++) {
 			toAdd = new Tuple(tupleDesc);
-
+			IntField aggregateVal = new IntField(this.accumulator.result(this.values, this.counts, g));
 			if(this.gbField != Aggregator.NO_GROUPING) {
-
-				toAdd.setField(0, currentKey);
-
-				if(this.what.toString().equals("count")) { 
-					toAdd.setField(1, new IntField(this.aggregateCounter.get(currentKey)));						
-				}
-				else if(this.what.toString().equals("avg")) { 
-					toAdd.setField(1, new IntField(this.aggregateVal.get(currentKey)/this.aggregateCounter.get(currentKey)));					
-				}
-				else {
-					toAdd.setField(1, new IntField(this.aggregateVal.get(currentKey)));
-				}
+				toAdd.setField(0, this.groups.key(g));
+				toAdd.setField(1, aggregateVal);
 			}
 			else {
-
-				if(this.what.toString().equals("count")) { 
-					toAdd.setField(0, new IntField(this.aggregateCounter.get(currentKey)));			
-					System.out.println("No Group count ");		
-				}
-				else if(this.what.toString().equals("avg")) { 
-					toAdd.setField(0, new IntField(this.aggregateVal.get(currentKey)/this.aggregateCounter.get(currentKey)));					
-				}
-				else {
-					toAdd.setField(0, new IntField(this.aggregateVal.get(currentKey)));
-
-				}
+				toAdd.setField(0, aggregateVal);
 			}
 			tuples.add(toAdd);
 		}
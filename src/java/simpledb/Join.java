@@ -3,14 +3,42 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, as a block
+ * nested-loop join: the outer child is read a block of tuples at a time, a
+ * given number of pages worth of them, and the inner child is scanned once
+ * per block rather than once per outer tuple. If a scan of the inner child
+ * fits in the same number of pages it is kept in memory, and the inner
+ * child is not scanned again.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Pages worth of outer tuples joined per scan of the inner child, and of
+     * inner tuples kept in memory, unless another number is given.
+     */
+    public static final int DEFAULT_BLOCK_PAGES = 1024;
+
     private JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;
+    private int blockPages;
+
+    // the current block of outer tuples, the inner tuple it is joined with,
+    // and the next outer tuple of the block to test against it
+    transient private ArrayList<Tuple> block = null;
+    transient private Tuple tuple2 = null;
+    transient private int blockPos;
+    // every inner tuple, once a scan of child2 has fit in memory, and the
+    // next of them to test against tuple1
+    transient private ArrayList<Tuple> inner = null;
+    transient private int innerPos;
+    // the inner tuples read by the current scan of child2, while they fit
+    transient private ArrayList<Tuple> innerCopy = null;
+    transient private boolean innerTooBig;
+    // true if child2 is at its start
+    transient private boolean child2Rewound;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -25,9 +53,27 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
         // some code goes here
+    	this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * @param blockPages
+     *            the number of pages worth of outer tuples to join per scan
+     *            of the inner child, and of inner tuples to keep in memory
+     * @see #Join(JoinPredicate, DbIterator, DbIterator)
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
     	this.p = p;
     	this.child1 = child1;
     	this.child2 = child2;
+    	this.blockPages = blockPages;
+    }
+
+    /**
+     * @return the number of tuples of tupleSize bytes in blockPages pages.
+     */
+    static long blockTuples(int tupleSize, int blockPages) {
+    	return Math.max(1, (long) blockPages * BufferPool.PAGE_SIZE / tupleSize);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -69,6 +115,11 @@ public class Join extends Operator {
         // some code goes here
     	this.child1.open();
     	this.child2.open();
+    	this.child2Rewound = true;
+    	this.inner = null;
+    	this.innerTooBig = false;
+    	this.block = null;
+    	this.tuple1 = null;
     	super.open();
     }
 
@@ -76,20 +127,32 @@ public class Join extends Operator {
         // some code goes here
     	this.child1.close();
     	this.child2.close();
+    	this.block = null;
+    	this.inner = null;
+    	this.innerCopy = null;
+    	this.tuple1 = null;
+    	this.tuple2 = null;
     	super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
     	this.child1.rewind();
-    	this.child2.rewind();
+    	if (this.inner == null) {
+    		this.child2.rewind();
+    		this.child2Rewound = true;
+    		this.innerCopy = null;
+    	}
+    	this.block = null;
+    	this.tuple1 = null;
     }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
      * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * the simplest is a nested loops join. Within a block of outer tuples
+     * the matches come out inner tuple by inner tuple.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -104,27 +167,109 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     
-    private Tuple tuple1 = null;
+    transient private Tuple tuple1 = null;
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-		if(this.tuple1 == null && this.child1.hasNext()) {
-			this.tuple1 = this.child1.next();
-		}
-    	while(this.tuple1 != null) {
-
-    		while(this.child2.hasNext()){
-    			Tuple currentTuple2 = this.child2.next();
-    			if(this.p.filter(this.tuple1, currentTuple2)){
-    				return mergeTuples(this.tuple1, currentTuple2);
+    	while (true) {
+    		if (this.block != null) {
+    			while (this.blockPos < this.block.size()) {
+    				Tuple t1 = this.block.get(this.blockPos++);
+    				if (this.p.filter(t1, this.tuple2)) {
+    					return mergeTuples(t1, this.tuple2);
+    				}
+    			}
+    			this.tuple2 = nextInner();
+    			if (this.tuple2 != null) {
+    				this.blockPos = 0;
+    				continue;
     			}
+    			this.block = null;
     		}
+    		if (this.inner != null) {
+    			return fetchNextInMemory();
+    		}
+    		if (!nextBlock()) {
+    			return null;
+    		}
+    	}
+    }
+
+    /**
+     * Reads the next block of outer tuples and starts a scan of child2 for
+     * it.
+     *
+     * @return false if there are no more outer tuples
+     */
+    private boolean nextBlock() throws TransactionAbortedException, DbException {
+    	long maxTuples = blockTuples(this.child1.getTupleDesc().getSize(), this.blockPages);
+    	ArrayList<Tuple> b = new ArrayList<Tuple>();
+    	while (b.size() < maxTuples && this.child1.hasNext()) {
+    		Tuple t = this.child1.next();
+    		t.materialize();
+    		b.add(t);
+    	}
+    	if (b.isEmpty()) {
+    		return false;
+    	}
+    	if (!this.child2Rewound) {
     		this.child2.rewind();
-    		if(this.child1.hasNext())
-    			this.tuple1 = this.child1.next();
-    		else
-    			this.tuple1 = null;
     	}
-    	return null;
+    	this.child2Rewound = false;
+    	this.innerCopy = this.innerTooBig ? null : new ArrayList<Tuple>();
+    	this.tuple2 = nextInner();
+    	if (this.tuple2 != null) {
+    		this.block = b;
+    		this.blockPos = 0;
+    	}
+    	return true;
+    }
+
+    /**
+     * @return the next tuple of the current scan of child2, or null at its
+     *         end, when the scan is kept as the inner tuples if it fit.
+     */
+    private Tuple nextInner() throws TransactionAbortedException, DbException {
+    	if (!this.child2.hasNext()) {
+    		if (this.innerCopy != null) {
+    			this.inner = this.innerCopy;
+    			this.innerCopy = null;
+    		}
+    		return null;
+    	}
+    	Tuple t = this.child2.next();
+    	if (this.innerCopy != null) {
+    		if (this.innerCopy.size() == blockTuples(this.child2.getTupleDesc().getSize(),
+    				this.blockPages)) {
+    			this.innerCopy = null;
+    			this.innerTooBig = true;
+    		} else {
+    			t.materialize();
+    			this.innerCopy.add(t);
+    		}
+    	}
+    	return t;
+    }
+
+    /**
+     * Joins the rest of the outer tuples one at a time with the inner tuples
+     * kept in memory.
+     */
+    private Tuple fetchNextInMemory() throws TransactionAbortedException, DbException {
+    	while (true) {
+    		if (this.tuple1 != null) {
+    			while (this.innerPos < this.inner.size()) {
+    				Tuple t2 = this.inner.get(this.innerPos++);
+    				if (this.p.filter(this.tuple1, t2)) {
+    					return mergeTuples(this.tuple1, t2);
+    				}
+    			}
+    		}
+    		if (!this.child1.hasNext()) {
+    			return null;
+    		}
+    		this.tuple1 = this.child1.next();
+    		this.innerPos = 0;
+    	}
     }
 
     @Override
@@ -11,6 +11,9 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+    // pages of an index read to look up a key
+    private static final int INDEX_PROBE_PAGES = 2;
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
@@ -68,12 +71,65 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // an equi-join for which the optimizer chose to probe an index on
+        // the right table does so if that table is still read by a plain
+        // scan; one of inputs that are both sorted on the join fields
+        // already is merged rather than hashed; other comparisons are
+        // merged unless they cannot be, like LIKE and NOT_EQUALS. The
+        // nested-loop join rescans its inner side for every block of outer
+        // tuples that it does not keep in memory, which is cheaper a tuple
+        // at a time
+        DbIterator probe = null;
+        if (lj.indexJoin)
+            probe = IndexNestedLoopJoin.probing(tupleAtATime(plan2), t2id);
+        if (probe != null) {
+            j = new IndexNestedLoopJoin(p, plan1, probe);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            if (Operator.sortedAscendingOn(plan1, t1id)
+                    && Operator.sortedAscendingOn(plan2, t2id))
+                j = new SortMergeJoin(p, plan1, plan2);
+            else
+                j = new HashEquiJoin(p, plan1, plan2);
+        } else if (SortMergeJoin.supports(lj.p)) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p, plan1, tupleAtATime(plan2));
+        }
 
         return j;
 
     }
 
+    /**
+     * Replaces the batched scans in plan with tuple-at-a-time ones, so that
+     * none of its operators produce batches. A parallel scan built by
+     * {@link LogicalPlan#physicalPlan} is replaced by its first partition,
+     * which then scans the whole table, since restarting its workers on
+     * every rescan would cost more than it saves.
+     * 
+     * @return plan, or the replacement scan if plan is itself a batched scan
+     */
+    static DbIterator tupleAtATime(DbIterator plan) {
+        if (plan instanceof BatchSeqScan) {
+            return ((BatchSeqScan) plan).asSeqScan();
+        }
+        if (plan instanceof Exchange) {
+            return tupleAtATime(((Exchange) plan).getChildren()[0]);
+        }
+        if (plan instanceof Operator) {
+            Operator o = (Operator) plan;
+            DbIterator[] children = o.getChildren();
+            if (children != null) {
+                DbIterator[] replaced = new DbIterator[children.length];
+                for (int i = 0; i < children.length; i++) {
+                    replaced[i] = tupleAtATime(children[i]);
+                }
+                o.setChildren(replaced);
+            }
+        }
+        return plan;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -111,10 +167,97 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic nested-loops
             // join.
-        	return cost1 + (card1 * cost2) + (card1 * card2);
+        	if (j.p == Predicate.Op.EQUALS) {
+        		// hybrid hash join: both inputs are read once, the left one is
+        		// hashed and the right one probes it; the part of the left input
+        		// over the memory budget is written out with the matching part
+        		// of the right one, and read back
+        		double spilled = HashEquiJoin.spillFraction(card1, tupleSize(j.t1Alias),
+        				HashEquiJoin.DEFAULT_MEMORY_BUDGET);
+        		return cost1 + cost2 + card1 + card2 + 2 * spilled * (cost1 + cost2);
+        	}
+        	if (SortMergeJoin.supports(j.p)) {
+        		// sort-merge join: both inputs are sorted, the right one is
+        		// kept, on disk if it is too large, and each left tuple is
+        		// joined with its range of right tuples, which for a range
+        		// predicate is about as many as the output
+        		int size2 = tupleSize(j.t2Alias);
+        		double cost = sortCost(card1, cost1, tupleSize(j.t1Alias))
+        				+ sortCost(card2, cost2, size2) + card1 + card2
+        				+ 0.3 * card1 * card2;
+        		if ((long) card2 * size2 > SortMergeJoin.DEFAULT_MEMORY_BUDGET)
+        			cost += 2 * cost2;
+        		return cost;
+        	}
+        	// block nested-loop join: the right input is read once per block
+        	// of left tuples, or only once if it fits in memory
+        	double scans = Math.ceil(card1 / (double) Join.blockTuples(
+        			tupleSize(j.t1Alias), Join.DEFAULT_BLOCK_PAGES));
+        	if (card2 <= Join.blockTuples(tupleSize(j.t2Alias), Join.DEFAULT_BLOCK_PAGES))
+        		scans = Math.min(scans, 1);
+        	return cost1 + (scans * cost2) + (card1 * card2);
         }
     }
 
+    /**
+     * @return the cost of joining j by looking up, for each left tuple, the
+     *         matching tuples of the right table in an index on its join
+     *         field (see {@link IndexNestedLoopJoin}), or -1 if it has no
+     *         index that can look up equal keys; the right table is read
+     *         only through the index, so cost2 just gives the cost of
+     *         reading one of its pages
+     */
+    private double indexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean t2pkey) {
+        if (j instanceof LogicalSubplanJoinNode || j.p != Predicate.Op.EQUALS)
+            return -1;
+        Integer id = p.getTableAliasToIdMapping().get(j.t2Alias);
+        if (id == null)
+            return -1;
+        DbFile file = Database.getCatalog().getDbFile(id);
+        int field;
+        try {
+            field = file.getTupleDesc().fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+        if (Database.getCatalog().getIndex(id, field, Predicate.Op.EQUALS) == null)
+            return -1;
+        int pages = file instanceof HeapFile ? ((HeapFile) file).numPages() : 1;
+        double pageCost = cost2 / Math.max(1, pages);
+        double matches = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, card1, card2, false, t2pkey, null,
+                p.getTableAliasToIdMapping()) / (double) Math.max(1, card1);
+        // each probe reads a few pages of the index, then a page of the
+        // table per match
+        return cost1 + card1 * (INDEX_PROBE_PAGES + matches) * pageCost
+                + card1 * matches;
+    }
+
+    /**
+     * @return the cost of sorting card tuples of tupleSize bytes that cost
+     *         cost to scan: scanning them, comparing them, and writing out
+     *         and reading back sorted runs if they do not fit in memory
+     */
+    private static double sortCost(int card, double cost, int tupleSize) {
+        double c = cost + card * (Math.log(Math.max(card, 2)) / Math.log(2));
+        if ((long) card * tupleSize > OrderBy.DEFAULT_MEMORY_BUDGET)
+            c += 2 * cost;
+        return c;
+    }
+
+    /**
+     * @return the size of the tuples of the table with the given alias, or
+     *         of an int if the alias is unknown
+     */
+    private int tupleSize(String alias) {
+        Integer id = p.getTableAliasToIdMapping().get(alias);
+        if (id == null) {
+            return Type.INT_TYPE.getLen();
+        }
+        return Database.getCatalog().getTupleDesc(id).getSize();
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -236,6 +379,10 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
 
+    	if (joins.isEmpty()) {
+    		// a single table: nothing to order
+    		return joins;
+    	}
     	PlanCache planCache = new PlanCache();
     	Set<Set<LogicalJoinNode>> j = enumerateSubsets(joins, 1);
     	for(Set<LogicalJoinNode> s : j) {
@@ -402,6 +549,23 @@ public class JoinOptimizer {
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+
+        // either way round, the right side can be looked up in an index if
+        // it is a base table rather than prevBest
+        if (news.isEmpty() || doesJoin(prevBest, j.t1Alias)) {
+            double c = indexJoinCost(j, t1card, t2card, t1cost, t2cost, rightPkey);
+            if (c >= 0 && c < cost1) {
+                j = j.withIndexJoin();
+                cost1 = c;
+            }
+        }
+        if (news.isEmpty() || doesJoin(prevBest, j.t2Alias)) {
+            double c = indexJoinCost(j2, t2card, t1card, t2cost, t1cost, leftPkey);
+            if (c >= 0 && c < cost2) {
+                j2 = j2.withIndexJoin();
+                cost2 = c;
+            }
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * KeyFilter summarizes the join keys of the build side of a hash join, so
+ * that the probe side can drop tuples that cannot match before they are
+ * joined, or even decoded: a bloom filter of the hash codes of the keys
+ * and, for INT_TYPE keys, their range. A key that was added always passes;
+ * a key that was not passes only if it is in the range and collides in the
+ * bloom filter, about 2% of the time.
+ * <p>
+ * Keys are added first, then {@link #finish} sizes and fills the bloom
+ * filter for the number of keys added, after which the filter can be tested
+ * and pushed down with {@link #pushDown}.
+ */
+class KeyFilter {
+
+    // bits of the bloom filter per key, and bits set per key
+    private static final int BITS_PER_KEY = 8;
+    private static final int NUM_PROBES = 3;
+
+    // hash codes of the keys added, until finish
+    private int[] hashes = new int[16];
+    private int size = 0;
+    private boolean ints = true;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private long[] bits = null;
+    private int mask;
+
+    /**
+     * Adds a key, an Integer or a String as {@link TupleBatch#valueOf}
+     * returns it.
+     */
+    void add(Object key) {
+        if (key instanceof Integer) {
+            int v = (Integer) key;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        } else {
+            ints = false;
+        }
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, 2 * size);
+        }
+        hashes[size++] = key.hashCode();
+    }
+
+    /**
+     * Builds the bloom filter from the keys added.
+     */
+    void finish() {
+        int numBits = 64;
+        while (numBits < (long) BITS_PER_KEY * size && numBits < (1 << 30)) {
+            numBits <<= 1;
+        }
+        bits = new long[numBits / 64];
+        mask = numBits - 1;
+        for (int i = 0; i < size; i++) {
+            int h1 = mix(hashes[i]);
+            int h2 = mix(h1) | 1;
+            for (int j = 0; j < NUM_PROBES; j++) {
+                int b = (h1 + j * h2) & mask;
+                bits[b >>> 6] |= 1L << b;
+            }
+        }
+        hashes = null;
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return false if no key with hash code h was added.
+     */
+    private boolean mightContainHash(int h) {
+        int h1 = mix(h);
+        int h2 = mix(h1) | 1;
+        for (int j = 0; j < NUM_PROBES; j++) {
+            int b = (h1 + j * h2) & mask;
+            if ((bits[b >>> 6] & (1L << b)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if key, as {@link TupleBatch#valueOf} returns it, was
+     *         not added.
+     */
+    boolean mightContain(Object key) {
+        if (key instanceof Integer && ints) {
+            int v = (Integer) key;
+            if (v < min || v > max) {
+                return false;
+            }
+        }
+        return mightContainHash(key.hashCode());
+    }
+
+    /**
+     * @return false if the field of the given type encoded in buf at offset
+     *         was not added; the field is not decoded.
+     */
+    boolean mightContain(Type type, ByteBuffer buf, int offset) {
+        if (type == Type.INT_TYPE && ints) {
+            int v = buf.getInt(offset);
+            if (v < min || v > max) {
+                return false;
+            }
+        }
+        return mightContainHash(type.hash(buf, offset));
+    }
+
+    /**
+     * @return true if a filter on a field of the tuples of it can be pushed
+     *         down with {@link #pushDown}.
+     */
+    static boolean canPushDown(DbIterator it) {
+        if (it instanceof SeqScan) {
+            return true;
+        }
+        if (it instanceof Filter) {
+            return canPushDown(((Filter) it).getChildren()[0]);
+        }
+        if (it instanceof Exchange) {
+            for (DbIterator child : ((Exchange) it).getChildren()) {
+                if (!canPushDown(child)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Makes the scans under it drop the tuples whose field does not pass
+     * filter, through the operators that pass their child's tuples on
+     * unchanged; a null filter removes it again. The scans may already be
+     * open: tuples they read from then on are filtered.
+     *
+     * @see #canPushDown
+     */
+    static void pushDown(DbIterator it, int field, KeyFilter filter) {
+        if (it instanceof SeqScan) {
+            ((SeqScan) it).setKeyFilter(field, filter);
+        } else if (it instanceof Filter) {
+            pushDown(((Filter) it).getChildren()[0], field, filter);
+        } else if (it instanceof Exchange) {
+            for (DbIterator child : ((Exchange) it).getChildren()) {
+                pushDown(child, field, filter);
+            }
+        }
+    }
+}
@@ -1,151 +1,620 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager grants hierarchical locks on tables, pages and tuples, using
+ * the multi-granularity modes of {@link LockMode}. Tables are identified by
+ * their Integer table id, pages by PageId and tuples by RecordId.
+ * <p>
+ * A page lock is taken under an IS or IX lock on its table, and a tuple
+ * lock under intention locks on both its table and its page. A transaction
+ * that already holds a covering lock higher up (say S on the table) takes
+ * no finer locks at all. Once a transaction holds more page locks on one
+ * table than the escalation threshold, its next page request is turned
+ * into a table lock (S, or X if it has been writing) and its page locks on
+ * that table are dropped, so a large scan needs a handful of lock table
+ * entries rather than one per page.
+ * <p>
+ * Each locked resource has a FIFO queue of waiting requests. A blocked
+ * request sleeps on the resource's condition and is signalled when its
+ * holders or queue change, so waiting transactions use no CPU. Lock
+ * upgrades go to the front of the queue, since the upgrading transaction
+ * already holds the resource.
+ * <p>
+ * Deadlocks are detected on a waits-for graph. Every time a request has to
+ * wait, the graph is searched from the requesting transaction; a cycle can
+ * only be closed by the edges that request just added, so this catches every
+ * deadlock as it forms. The youngest transaction on the cycle (the one with
+ * the largest id) is aborted: its waiting requests fail with a
+ * TransactionAbortedException and the rest of the cycle keeps waiting.
+ */
 public class LockManager {
-	private HashMap <PageId, HashSet<TransactionId>> sharedLocks;
-	private HashMap <PageId, TransactionId> exclusiveLocks;
-	private HashMap <TransactionId, HashSet<PageId>> lockedSharedPages;
-	private HashMap <TransactionId, HashSet<PageId>> lockedExclusivePages;
-	
+
+	/** Page locks one transaction may hold on a table before escalating. */
+	public static final int DEFAULT_ESCALATION_THRESHOLD = 100;
+
+	/** A lock request, waiting in a resource's queue until it is granted. */
+	private static class Request {
+		final TransactionId tid;
+		final Object resource;
+		final LockMode mode;
+		// the thread waiting for the request to be granted
+		final Thread thread = Thread.currentThread();
+		boolean cancelled = false;
+
+		Request(TransactionId tid, Object resource, LockMode mode) {
+			this.tid = tid;
+			this.resource = resource;
+			this.mode = mode;
+		}
+	}
+
+	/** Holders and waiters of one resource. */
+	private class LockState {
+		final HashMap<TransactionId, LockMode> holders = new HashMap<TransactionId, LockMode>();
+		final LinkedList<Request> waiters = new LinkedList<Request>();
+		final Condition changed = latch.newCondition();
+
+		boolean isFree() {
+			return holders.isEmpty() && waiters.isEmpty();
+		}
+	}
+
+	private final ReentrantLock latch = new ReentrantLock();
+	private final HashMap<Object, LockState> locks;
+	private final HashMap<TransactionId, HashSet<Object>> lockedResources;
+	// number of page locks each transaction holds, per table id
+	private final HashMap<TransactionId, HashMap<Integer, Integer>> pageLockCounts;
+	private final HashMap<TransactionId, ArrayList<Request>> waiting;
+	private final HashSet<TransactionId> victims;
+
+	private int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+	private long lockWaits = 0;
+	private long lockWaitNanos = 0;
+	private long deadlocks = 0;
+	private long escalations = 0;
+
 	public LockManager() {
-		this.sharedLocks = new HashMap<PageId, HashSet<TransactionId>>();
-		this.exclusiveLocks = new HashMap<PageId, TransactionId>();
-		lockedSharedPages = new HashMap<TransactionId, HashSet<PageId>>();
-        lockedExclusivePages = new HashMap<TransactionId, HashSet<PageId>>();
+		this.locks = new HashMap<Object, LockState>();
+		this.lockedResources = new HashMap<TransactionId, HashSet<Object>>();
+		this.pageLockCounts = new HashMap<TransactionId, HashMap<Integer, Integer>>();
+		this.waiting = new HashMap<TransactionId, ArrayList<Request>>();
+		this.victims = new HashSet<TransactionId>();
 	}
-	
+
+	/**
+	 * Sets the number of page locks a transaction may hold on one table
+	 * before its locks are escalated to a table lock.
+	 *
+	 * @param threshold the page lock limit; 0 disables escalation
+	 */
+	public void setEscalationThreshold(int threshold) {
+		latch.lock();
+		try {
+			this.escalationThreshold = threshold;
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * Acquires a lock on pid for tid, blocking until it can be granted. An
+	 * intention lock on the page's table is taken first.
+	 *
+	 * @throws TransactionAbortedException
+	 *             if tid was chosen as a deadlock victim while waiting
+	 */
 	public void acquireLock(PageId pid, TransactionId tid, Permissions perm) throws TransactionAbortedException {
-		long startTime = System.currentTimeMillis();
-		long currentTime;
-		boolean blocked = getLock(pid, tid, perm);
-		while (!blocked) {
-			blocked = getLock(pid, tid, perm);
-			currentTime = System.currentTimeMillis();
-			if (currentTime - startTime >= 750){
-				System.out.println("Deadlock detected.");
-				throw new TransactionAbortedException();
-			}
-			try {
-				Thread.sleep(10);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-	}
-	
-	public synchronized boolean getLock(PageId pid, TransactionId tid, Permissions perm) {
-		if (perm.equals(Permissions.READ_ONLY)) {
-			return getSharedLock(pid, tid);
-		}
-		else {
-			return getExclusiveLock(pid, tid);
-		}
-	}
-	
-	private synchronized boolean getSharedLock(PageId pid, TransactionId tid) {
-		// if no exclusive locks for pid, give lock to transaction, else busy wait
-		if (this.exclusiveLocks.get(pid) == null || this.exclusiveLocks.get(pid).equals(tid)) { 
-			if (this.sharedLocks.get(pid) == null) {
-				HashSet<TransactionId> tidSet = new HashSet<TransactionId>();
-				tidSet.add(tid);
-				this.sharedLocks.put(pid, tidSet);
-			}
-			else {
-				this.sharedLocks.get(pid).add(tid);
-			}
-			
-			if (this.lockedSharedPages.get(tid) == null) {
-				this.lockedSharedPages.put(tid, new HashSet<PageId>());
-			}
-			this.lockedSharedPages.get(tid).add(pid);
-			
-			return true;
-		}
-		return false;
-	}
-	
-	private synchronized boolean getExclusiveLock(PageId pid, TransactionId tid) {
-		if (this.exclusiveLocks.get(pid) == null || this.exclusiveLocks.get(pid).equals(tid)) {
-			HashSet<TransactionId> conflictingSLocks = this.sharedLocks.get(pid);
-			if (conflictingSLocks != null) {
-				if (conflictingSLocks.size() == 0 || (conflictingSLocks.size() == 1 && conflictingSLocks.contains(tid))){
-					// upgrade lock
-					this.exclusiveLocks.put(pid, tid);
-					this.sharedLocks.remove(pid);
-					System.out.println("If not null there is a problem in LockManager#getExclusiveLock: " + this.sharedLocks.get(pid));
-					
-					if(this.lockedExclusivePages.get(tid) == null) {
-						this.lockedExclusivePages.put(tid, new HashSet<PageId>());
-					}
-					if(!this.lockedExclusivePages.get(tid).contains(pid)) {
-						this.lockedExclusivePages.get(tid).add(pid);
+		LockMode mode = LockMode.forPermissions(perm);
+		Integer table = Integer.valueOf(pid.getTableId());
+		latch.lock();
+		try {
+			if (covered(table, tid, mode)) {
+				return;
+			}
+			lock(table, tid, LockMode.intentionFor(perm));
+			if (covered(pid, tid, mode)) {
+				return;
+			}
+			if (escalationThreshold > 0 && pageLockCount(tid, table) >= escalationThreshold) {
+				escalate(table, tid, mode);
+				return;
+			}
+			lock(pid, tid, mode);
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * Acquires a lock on a whole table, e.g. for a scan that will read all
+	 * of it. Page locks tid holds on the table that the table lock covers
+	 * are released.
+	 */
+	public void acquireTableLock(int tableId, TransactionId tid, LockMode mode) throws TransactionAbortedException {
+		Integer table = Integer.valueOf(tableId);
+		latch.lock();
+		try {
+			if (covered(table, tid, mode)) {
+				return;
+			}
+			lock(table, tid, mode);
+			releaseCoveredPages(table, tid);
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * Acquires a lock on a single tuple, under intention locks on its table
+	 * and page. Tuple locks do not count towards escalation; a page X lock
+	 * still conflicts with another transaction's tuple locks on that page.
+	 */
+	public void acquireTupleLock(RecordId rid, TransactionId tid, Permissions perm) throws TransactionAbortedException {
+		LockMode mode = LockMode.forPermissions(perm);
+		LockMode intention = LockMode.intentionFor(perm);
+		PageId pid = rid.getPageId();
+		Integer table = Integer.valueOf(pid.getTableId());
+		latch.lock();
+		try {
+			if (covered(table, tid, mode)) {
+				return;
+			}
+			lock(table, tid, intention);
+			if (covered(pid, tid, mode)) {
+				return;
+			}
+			lock(pid, tid, intention);
+			lock(rid, tid, mode);
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/** Releases tid's lock on pid. Locks on the page's table are kept. */
+	public void releaseLock(PageId pid, TransactionId tid) {
+		latch.lock();
+		try {
+			LockState state = locks.get(pid);
+			if (state != null && state.holders.containsKey(tid)) {
+				unlock(pid, state, tid);
+				HashSet<Object> resources = lockedResources.get(tid);
+				resources.remove(pid);
+				if (resources.isEmpty()) {
+					lockedResources.remove(tid);
+				}
+			}
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * Releases every lock held by tid, withdraws any requests it still has
+	 * queued, and clears its deadlock victim mark. Only tid's own locks are
+	 * visited, so the cost is independent of the size of the lock table.
+	 */
+	public void releaseAllLocks(TransactionId tid) {
+		latch.lock();
+		try {
+			// requests still queued, e.g. by another thread of tid or by a
+			// thread that died while waiting
+			ArrayList<Request> pending = waiting.remove(tid);
+			if (pending != null) {
+				for (Request request : pending) {
+					LockState state = locks.get(request.resource);
+					request.cancelled = true;
+					state.waiters.remove(request);
+					release(request.resource, state);
+				}
+			}
+			HashSet<Object> resources = lockedResources.remove(tid);
+			if (resources != null) {
+				for (Object resource : resources) {
+					unlock(resource, locks.get(resource), tid);
+				}
+			}
+			pageLockCounts.remove(tid);
+			victims.remove(tid);
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * @return true if tid may read pid, through a lock on the page itself or
+	 *         on its table
+	 */
+	public boolean holdsLock(PageId pid, TransactionId tid) {
+		latch.lock();
+		try {
+			return covered(Integer.valueOf(pid.getTableId()), tid, LockMode.S)
+					|| covered(pid, tid, LockMode.S);
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/**
+	 * @return the mode tid holds on a table (Integer table id), page (PageId)
+	 *         or tuple (RecordId), or null if it holds none
+	 */
+	public LockMode getLockMode(Object resource, TransactionId tid) {
+		latch.lock();
+		try {
+			LockState state = locks.get(resource);
+			return state == null ? null : state.holders.get(tid);
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/** @return a copy of the set of pages tid holds a lock on */
+	public Set<PageId> getLockedPages(TransactionId tid) {
+		latch.lock();
+		try {
+			HashSet<PageId> pages = new HashSet<PageId>();
+			HashSet<Object> resources = lockedResources.get(tid);
+			if (resources != null) {
+				for (Object resource : resources) {
+					if (resource instanceof PageId) {
+						pages.add((PageId) resource);
 					}
-					if (this.lockedSharedPages.get(tid) != null && this.lockedSharedPages.get(tid).contains(pid)) {
-						this.lockedSharedPages.get(tid).remove(pid);
+				}
+			}
+			return pages;
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/** @return the number of locked resources in the lock table */
+	public int getLockTableSize() {
+		latch.lock();
+		try {
+			return locks.size();
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/** @return the number of lock requests that had to wait */
+	public long getLockWaitCount() {
+		latch.lock();
+		try {
+			return lockWaits;
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/** @return the total time, in nanoseconds, spent waiting for locks */
+	public long getLockWaitTimeNanos() {
+		latch.lock();
+		try {
+			return lockWaitNanos;
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/** @return the number of deadlocks detected, each costing one abort */
+	public long getDeadlockCount() {
+		latch.lock();
+		try {
+			return deadlocks;
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	/** @return the number of page-to-table lock escalations */
+	public long getEscalationCount() {
+		latch.lock();
+		try {
+			return escalations;
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	private boolean covered(Object resource, TransactionId tid, LockMode mode) {
+		LockState state = locks.get(resource);
+		if (state == null) {
+			return false;
+		}
+		LockMode held = state.holders.get(tid);
+		return held != null && held.covers(mode);
+	}
+
+	private int pageLockCount(TransactionId tid, Integer table) {
+		HashMap<Integer, Integer> counts = pageLockCounts.get(tid);
+		if (counts == null) {
+			return 0;
+		}
+		Integer count = counts.get(table);
+		return count == null ? 0 : count.intValue();
+	}
+
+	private void countPageLock(TransactionId tid, Integer table, int delta) {
+		HashMap<Integer, Integer> counts = pageLockCounts.get(tid);
+		if (counts == null) {
+			counts = new HashMap<Integer, Integer>();
+			pageLockCounts.put(tid, counts);
+		}
+		int count = pageLockCount(tid, table) + delta;
+		if (count > 0) {
+			counts.put(table, Integer.valueOf(count));
+		} else {
+			counts.remove(table);
+		}
+	}
+
+	/**
+	 * Replaces tid's page locks on a table with a single table lock: X if
+	 * tid has been writing to the table or wants to now, S otherwise.
+	 */
+	private void escalate(Integer table, TransactionId tid, LockMode mode) throws TransactionAbortedException {
+		boolean writing = mode == LockMode.X || locks.get(table).holders.get(tid).covers(LockMode.IX);
+		lock(table, tid, writing ? LockMode.X : LockMode.S);
+		escalations++;
+		releaseCoveredPages(table, tid);
+	}
+
+	/** Drops the page locks of tid that its lock on table makes redundant. */
+	private void releaseCoveredPages(Integer table, TransactionId tid) {
+		if (pageLockCount(tid, table) == 0) {
+			return;
+		}
+		LockMode tableMode = locks.get(table).holders.get(tid);
+		HashSet<Object> resources = lockedResources.get(tid);
+		Iterator<Object> it = resources.iterator();
+		while (it.hasNext()) {
+			Object resource = it.next();
+			if (!(resource instanceof PageId) || ((PageId) resource).getTableId() != table.intValue()) {
+				continue;
+			}
+			LockState state = locks.get(resource);
+			if (tableMode.covers(state.holders.get(tid))) {
+				unlock(resource, state, tid);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Grants resource to tid in mode (combined with any mode tid already
+	 * holds), waiting if needed. The latch must be held.
+	 */
+	private void lock(Object resource, TransactionId tid, LockMode mode) throws TransactionAbortedException {
+		if (victims.contains(tid)) {
+			throw new TransactionAbortedException();
+		}
+		LockState state = stateFor(resource);
+		LockMode held = state.holders.get(tid);
+		LockMode target = held == null ? mode : held.combine(mode);
+		if (held == target) {
+			return;
+		}
+		if (state.waiters.isEmpty() && compatible(state, tid, target)) {
+			grant(resource, state, tid, target);
+			return;
+		}
+
+		Request request = new Request(tid, resource, target);
+		if (held != null) {
+			state.waiters.addFirst(request);
+		} else {
+			state.waiters.addLast(request);
+		}
+		ArrayList<Request> pending = waiting.get(tid);
+		if (pending == null) {
+			pending = new ArrayList<Request>();
+			waiting.put(tid, pending);
+		}
+		pending.add(request);
+
+		lockWaits++;
+		long start = System.nanoTime();
+		try {
+			while (true) {
+				if (request.cancelled || victims.contains(tid)) {
+					throw new TransactionAbortedException();
+				}
+				if (state.waiters.getFirst() == request && compatible(state, tid, target)) {
+					grant(resource, state, tid, target);
+					return;
+				}
+				TransactionId victim = findDeadlockVictim(tid);
+				if (victim != null) {
+					deadlocks++;
+					victims.add(victim);
+					if (victim.equals(tid)) {
+						throw new TransactionAbortedException();
 					}
-					return true;
+					wakeWaiters(victim);
+				}
+				try {
+					state.changed.await();
+				} catch (InterruptedException e) {
+					throw new TransactionAbortedException();
 				}
+			}
+		} finally {
+			// a thread stopped inside await() leaves without the latch
+			if (!latch.isHeldByCurrentThread()) {
+				latch.lock();
+			}
+			lockWaitNanos += System.nanoTime() - start;
+			state.waiters.remove(request);
+			pending.remove(request);
+			if (pending.isEmpty() && waiting.get(tid) == pending) {
+				waiting.remove(tid);
+			}
+			// the next request in line may now be grantable
+			state.changed.signalAll();
+			if (state.isFree() && locks.get(resource) == state) {
+				locks.remove(resource);
+			}
+		}
+	}
+
+	private LockState stateFor(Object resource) {
+		LockState state = locks.get(resource);
+		if (state == null) {
+			state = new LockState();
+			locks.put(resource, state);
+		}
+		return state;
+	}
+
+	/** @return true if no other holder's mode conflicts with mode */
+	private static boolean compatible(LockState state, TransactionId tid, LockMode mode) {
+		for (Map.Entry<TransactionId, LockMode> holder : state.holders.entrySet()) {
+			if (!same(holder.getKey(), tid) && !holder.getValue().isCompatible(mode)) {
 				return false;
 			}
-			this.exclusiveLocks.put(pid, tid);
-			if(this.lockedExclusivePages.get(tid) == null) {
-				this.lockedExclusivePages.put(tid, new HashSet<PageId>());
-			}
-			if(!this.lockedExclusivePages.get(tid).contains(pid)) {
-				this.lockedExclusivePages.get(tid).add(pid);
-			}
-			return true;
-		}
-		return false;
-	}
-	
-	public synchronized void releaseLock(PageId pid, TransactionId tid) {
-		if (this.sharedLocks.get(pid) != null) {
-			this.sharedLocks.get(pid).remove(tid);
-			this.lockedSharedPages.get(tid).remove(pid);
-		}
-		if (tid != null && this.exclusiveLocks.get(pid) != null && this.exclusiveLocks.get(pid).equals(tid)) {
-			this.exclusiveLocks.remove(pid);
-			this.lockedExclusivePages.get(tid).remove(pid);
-		}
-	}
-	
-	public synchronized void releaseAllLocks(TransactionId tid) {
-		// release all exclusive locks
-        Set<PageId> exclusivePageIdSet = exclusiveLocks.keySet();
-        Set<PageId> exclusivePageIdSetCopy = new HashSet<PageId>();
-        for(PageId exclusivePageId : exclusivePageIdSet) {
-                exclusivePageIdSetCopy.add(exclusivePageId);
-        }
-        for(PageId pageIdToRemove : exclusivePageIdSetCopy) {
-                TransactionId transactionToRemove = exclusiveLocks.get(pageIdToRemove);
-                if(transactionToRemove != null && transactionToRemove.equals(tid)){
-                        exclusiveLocks.remove(pageIdToRemove);
-                }
-        }
-        this.lockedExclusivePages.remove(tid);
-        
-        
-        // release all shared locks
-        Set<PageId> sharedPageIdSet = sharedLocks.keySet();
-        for(PageId sharedPageId : sharedPageIdSet){
-                HashSet<TransactionId> transactionIdSet = sharedLocks.get(sharedPageId);
-                if(transactionIdSet != null){
-                        transactionIdSet.remove(tid);
-                        sharedLocks.put(sharedPageId, transactionIdSet);
-                }
-        }
-        this.lockedSharedPages.remove(tid);
-	}
-	
-	public synchronized boolean holdsLock(PageId pid, TransactionId tid) {
-		if (this.sharedLocks.get(pid) != null) {
-			if (this.sharedLocks.get(pid).contains(tid)) {
-				return true;
-			}
-		}
-		return (tid != null && this.exclusiveLocks.get(pid).equals(tid));
+		}
+		return true;
+	}
+
+	// some callers lock on behalf of a null transaction
+	private static boolean same(TransactionId a, TransactionId b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private void grant(Object resource, LockState state, TransactionId tid, LockMode mode) {
+		if (state.holders.put(tid, mode) == null) {
+			HashSet<Object> resources = lockedResources.get(tid);
+			if (resources == null) {
+				resources = new HashSet<Object>();
+				lockedResources.put(tid, resources);
+			}
+			resources.add(resource);
+			if (resource instanceof PageId) {
+				countPageLock(tid, Integer.valueOf(((PageId) resource).getTableId()), 1);
+			}
+		}
+	}
+
+	/**
+	 * Removes tid from the holders of resource. The caller removes resource
+	 * from tid's lock set.
+	 */
+	private void unlock(Object resource, LockState state, TransactionId tid) {
+		state.holders.remove(tid);
+		if (resource instanceof PageId) {
+			countPageLock(tid, Integer.valueOf(((PageId) resource).getTableId()), -1);
+		}
+		release(resource, state);
+	}
+
+	private void release(Object resource, LockState state) {
+		state.changed.signalAll();
+		if (state.isFree()) {
+			locks.remove(resource);
+		}
+	}
+
+	/**
+	 * Makes the lock request thread is waiting on, if any, fail with a
+	 * TransactionAbortedException. Only that request is affected: the
+	 * locks and other requests of its transaction are left alone. Used to
+	 * stop the workers of an {@link Exchange} without interrupting them,
+	 * which would close any file channel they are reading.
+	 *
+	 * @return true if thread was waiting for a lock
+	 */
+	public boolean cancelWait(Thread thread) {
+		latch.lock();
+		try {
+			for (ArrayList<Request> pending : waiting.values()) {
+				for (Request request : pending) {
+					if (request.thread == thread) {
+						request.cancelled = true;
+						locks.get(request.resource).changed.signalAll();
+						return true;
+					}
+				}
+			}
+			return false;
+		} finally {
+			latch.unlock();
+		}
+	}
+
+	private void wakeWaiters(TransactionId tid) {
+		ArrayList<Request> pending = waiting.get(tid);
+		if (pending != null) {
+			for (Request request : pending) {
+				locks.get(request.resource).changed.signalAll();
+			}
+		}
+	}
+
+	/**
+	 * Transactions that the given waiting request waits for: the other
+	 * holders of the resource, and requests queued ahead of it, whose modes
+	 * conflict with the requested one.
+	 */
+	private void addBlockers(Request request, Set<TransactionId> blockers) {
+		LockState state = locks.get(request.resource);
+		for (Map.Entry<TransactionId, LockMode> holder : state.holders.entrySet()) {
+			if (!same(holder.getKey(), request.tid) && !holder.getValue().isCompatible(request.mode)) {
+				blockers.add(holder.getKey());
+			}
+		}
+		for (Request ahead : state.waiters) {
+			if (ahead == request) {
+				break;
+			}
+			if (!same(ahead.tid, request.tid) && !ahead.mode.isCompatible(request.mode)) {
+				blockers.add(ahead.tid);
+			}
+		}
+	}
+
+	/**
+	 * Searches the waits-for graph for a cycle through tid.
+	 *
+	 * @return the youngest transaction on the cycle, or null if there is none
+	 */
+	private TransactionId findDeadlockVictim(TransactionId tid) {
+		HashMap<TransactionId, TransactionId> parent = new HashMap<TransactionId, TransactionId>();
+		LinkedList<TransactionId> stack = new LinkedList<TransactionId>();
+		parent.put(tid, null);
+		stack.push(tid);
+		while (!stack.isEmpty()) {
+			TransactionId t = stack.pop();
+			ArrayList<Request> pending = waiting.get(t);
+			if (pending == null) {
+				continue;
+			}
+			HashSet<TransactionId> blockers = new HashSet<TransactionId>();
+			for (Request request : pending) {
+				addBlockers(request, blockers);
+			}
+			for (TransactionId next : blockers) {
+				if (same(next, tid)) {
+					// walk the cycle back to tid and pick the youngest
+					TransactionId victim = tid;
+					for (TransactionId u = t; u != null; u = parent.get(u)) {
+						if (u.getId() > victim.getId()) {
+							victim = u;
+						}
+					}
+					return victim;
+				}
+				if (!parent.containsKey(next)) {
+					parent.put(next, t);
+					stack.push(next);
+				}
+			}
+		}
+		return null;
 	}
 }
@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * Lock modes for multi-granularity locking. Intention modes (IS, IX) are
+ * taken on a table before its pages or tuples are locked, so that a table
+ * lock can be checked against every finer lock in O(1).
+ */
+public enum LockMode {
+    /** Intention to read at a finer granularity. */
+    IS,
+    /** Intention to write at a finer granularity. */
+    IX,
+    /** Shared. */
+    S,
+    /** Shared, with intention to write at a finer granularity. */
+    SIX,
+    /** Exclusive. */
+    X;
+
+    private static final boolean[][] COMPATIBLE = {
+        //            IS     IX     S      SIX    X
+        /* IS  */ { true,  true,  true,  true,  false },
+        /* IX  */ { true,  true,  false, false, false },
+        /* S   */ { true,  false, true,  false, false },
+        /* SIX */ { true,  false, false, false, false },
+        /* X   */ { false, false, false, false, false },
+    };
+
+    /** @return true if this mode and other may be held by two transactions */
+    public boolean isCompatible(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return the weakest mode granting everything this mode and other
+     *         grant; used when a transaction upgrades a lock it holds
+     */
+    public LockMode combine(LockMode other) {
+        if (this == other)
+            return this;
+        if (this == X || other == X)
+            return X;
+        if (this == SIX || other == SIX)
+            return SIX;
+        if (this == IS)
+            return other;
+        if (other == IS)
+            return this;
+        // the remaining pair is S and IX
+        return SIX;
+    }
+
+    /** @return true if holding this mode implies holding other */
+    public boolean covers(LockMode other) {
+        return combine(other) == this;
+    }
+
+    /** @return the mode to lock a page or tuple with for perm */
+    public static LockMode forPermissions(Permissions perm) {
+        return perm.equals(Permissions.READ_WRITE) ? X : S;
+    }
+
+    /** @return the intention mode to lock a table with for perm */
+    public static LockMode intentionFor(Permissions perm) {
+        return perm.equals(Permissions.READ_WRITE) ? IX : IS;
+    }
+}
@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** True if the optimizer chose to join by looking up each t1 tuple in an index on
+     * f2 of t2, see {@link IndexNestedLoopJoin} */
+    public boolean indexJoin = false;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +67,14 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a new LogicalJoinNode for the same join that is computed with an
+     * {@link IndexNestedLoopJoin}. */
+    public LogicalJoinNode withIndexJoin() {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName,p);
+        j2.indexJoin = true;
+        return j2;
+    }
+
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
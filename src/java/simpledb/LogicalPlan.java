@@ -6,6 +6,7 @@ import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.HashSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -33,9 +34,22 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAsc = new Vector<Boolean>();
+    private int limit = OrderBy.NO_LIMIT;
     private String query;
+    private boolean vectorized = true;
+    private int parallelism = Exchange.DEFAULT_DEGREE;
+
+    /** Number of tuples a table must be expected to have before {@link #physicalPlan}
+        scans it in parallel. */
+    public static final int PARALLEL_SCAN_THRESHOLD = 50000;
+
+    /** Largest selectivity, as estimated by {@link TableStats}, of a filter on an
+        indexed field for which {@link #physicalPlan} reads the table with an
+        {@link IndexScan} rather than scanning all of it. */
+    public static final double INDEX_SCAN_THRESHOLD = 0.1;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -66,6 +80,27 @@ public class LogicalPlan {
         return query;
     }
 
+    /** Choose whether {@link #physicalPlan} may use batch-at-a-time
+        (vectorised) operators where the plan allows them; it does by
+        default.
+
+        @param vectorized true to allow batch-at-a-time execution
+    */
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    /** Set the number of workers {@link #physicalPlan} may use to scan a large
+        table; it uses {@link Exchange#DEFAULT_DEGREE} by default.  Parallel scans
+        are batched, so they also need {@link #setVectorized} to be on.
+
+        @param degree the number of workers per parallel scan; 1 turns parallel
+          scans off
+    */
+    public void setParallelism(int degree) {
+        this.parallelism = degree;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDbFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -203,19 +238,29 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields are
+        sorted on in the order they are added, most significant first.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAsc.add(asc);
         hasOrderBy = true;
     }
 
+    /** Limit the output of the query to its first n tuples, as a LIMIT clause does.
+        Only supported together with an ORDER BY, which then keeps just the first
+        n tuples in memory instead of sorting all of them.
+
+        @param n the number of tuples to return
+    */
+    public void addLimit(int n) {
+        limit = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -273,6 +318,17 @@ public class LogicalPlan {
 
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   Unless disabled with {@link #setVectorized}, tables are read with {@link BatchSeqScan}s, so
+     *   that the operators above them run a batch at a time where they can.  Tables that
+     *   baseTableStats expects to hold at least {@link #PARALLEL_SCAN_THRESHOLD} tuples are
+     *   scanned by an {@link Exchange} of partitioned scans, with the filters on the table
+     *   applied by each partition (see {@link #setParallelism}).  An aggregate whose input is
+     *   known to be sorted on its group-by field is computed a group at a time rather than in a
+     *   hash table (see {@link Aggregate#setInputSorted}).  A table with an index (see
+     *   {@link Catalog#addIndex}) on the field of a filter whose selectivity is below
+     *   {@link #INDEX_SCAN_THRESHOLD} is read with an {@link IndexScan} that applies the
+     *   most selective such filter.  Equi-joins whose right table has an index on its
+     *   join field may look up each left tuple in it (see {@link IndexNestedLoopJoin}).
      *  @param t The transaction that the returned DbIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -289,18 +345,34 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashSet<LogicalFilterNode> indexedFilters = new HashSet<LogicalFilterNode>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbIterator ss = null;
+            String baseTableName = Database.getCatalog().getTableName(table.t);
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 DbFile file = Database.getCatalog().getDbFile(table.t);
+                 LogicalFilterNode lookup = indexLookup(table, file.getTupleDesc(),
+                         baseTableStats.get(baseTableName));
+                 if (lookup != null) {
+                     int field = file.getTupleDesc().fieldNameToIndex(lookup.fieldPureName);
+                     ss = new IndexScan(t, Database.getCatalog().getIndex(table.t, field, lookup.p),
+                             table.alias, lookup.p,
+                             filterConstant(file.getTupleDesc().getFieldType(field), lookup.c));
+                     indexedFilters.add(lookup);
+                 } else if (vectorized && parallelism > 1 && file instanceof HeapFile
+                         && isLarge(baseTableStats.get(baseTableName)))
+                     ss = Exchange.parallelScan(t, file.getId(), table.alias, parallelism);
+                 else if (vectorized)
+                     ss = new BatchSeqScan(t, file.getId(), table.alias);
+                 else
+                     ss = new SeqScan(t, file.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
-            String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
@@ -323,10 +395,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -334,7 +403,16 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (indexedFilters.contains(lf)) {
+                // the index scan applies it
+            } else if (subplan instanceof Exchange) {
+                // filter each partition, on its worker
+                DbIterator[] parts = ((Exchange) subplan).getChildren();
+                for (int i = 0; i < parts.length; i++)
+                    parts[i] = new Filter(p, parts[i]);
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -471,16 +549,73 @@ public class LogicalPlan {
             } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
+            // groups of a child sorted on the group-by field are adjacent,
+            // so they can be aggregated one at a time
+            if (aggNode.groupField() != Aggregator.NO_GROUPING
+                    && Operator.sortFieldOf(node) == aggNode.groupField())
+                aggNode.setInputSorted(true);
             node = aggNode;
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                asc[i] = oByAsc.get(i);
+            }
+            OrderBy oBy = new OrderBy(fields, asc, node);
+            oBy.setLimit(limit);
+            node = oBy;
+        } else if (limit != OrderBy.NO_LIMIT) {
+            throw new ParsingException("LIMIT is only supported with ORDER BY");
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /** @return the constant c of a filter, as a field of type ftyp */
+    private static Field filterConstant(Type ftyp, String c) {
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(c).intValue());
+        else
+            return new StringField(c, Type.STRING_LEN);
+    }
+
+    /** Returns the most selective filter on table that an index on its field can
+        apply, or null if there is none or it is not selective enough to read the
+        table with an {@link IndexScan}.  */
+    private LogicalFilterNode indexLookup(LogicalScanNode table, TupleDesc td, TableStats stats) {
+        if (stats == null)
+            return null;
+        LogicalFilterNode best = null;
+        double bestSel = INDEX_SCAN_THRESHOLD;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            if (Database.getCatalog().getIndex(table.t, field, lf.p) == null)
+                continue;
+            double sel = stats.estimateSelectivity(field, lf.p,
+                    filterConstant(td.getFieldType(field), lf.c));
+            if (sel < bestSel) {
+                best = lf;
+                bestSel = sel;
+            }
+        }
+        return best;
+    }
+
+    /** @return true if stats predicts that its table is large enough to scan in parallel */
+    private static boolean isLarge(TableStats stats) {
+        return stats != null && stats.estimateTableCardinality(1.0) >= PARALLEL_SCAN_THRESHOLD;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * LoserTree merges k sorted sources of tuples into one sorted stream, with
+ * about log2(k) comparisons per tuple. Each internal node of the tree holds
+ * the source that lost the match played there, so that after the winner is
+ * taken only the matches on the path from its leaf to the root are replayed.
+ * Ties are won by the source with the lower index, which keeps the merge
+ * stable.
+ */
+class LoserTree {
+
+    private final DbFileIterator[] sources;
+    private final Comparator<Tuple> comparator;
+    private final int k;
+    // heads[i] is the next tuple of source i, or null if it is exhausted
+    private final Tuple[] heads;
+    // tree[0] is the overall winner, tree[1..k-1] the losers of each match;
+    // leaf i is node k + i
+    private final int[] tree;
+
+    /**
+     * Creates a loser tree over sources, which must be open and sorted by
+     * comparator.
+     */
+    LoserTree(DbFileIterator[] sources, Comparator<Tuple> comparator)
+            throws DbException, TransactionAbortedException {
+        this.sources = sources;
+        this.comparator = comparator;
+        this.k = sources.length;
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(k, 1)];
+        for (int i = 0; i < k; i++) {
+            advance(i);
+        }
+        if (k > 0) {
+            this.tree[0] = k == 1 ? 0 : build(1);
+        }
+    }
+
+    private void advance(int i) throws DbException, TransactionAbortedException {
+        this.heads[i] = this.sources[i].hasNext() ? this.sources[i].next() : null;
+    }
+
+    /**
+     * @return true if source a comes before source b.
+     */
+    private boolean beats(int a, int b) {
+        if (this.heads[b] == null) {
+            return true;
+        }
+        if (this.heads[a] == null) {
+            return false;
+        }
+        int c = this.comparator.compare(this.heads[a], this.heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * Plays the matches of the subtree rooted at node.
+     *
+     * @return the winner of the subtree
+     */
+    private int build(int node) {
+        if (node >= this.k) {
+            return node - this.k;
+        }
+        int a = build(2 * node);
+        int b = build(2 * node + 1);
+        if (beats(a, b)) {
+            this.tree[node] = b;
+            return a;
+        }
+        this.tree[node] = a;
+        return b;
+    }
+
+    /**
+     * @return the next tuple of the merged stream, or null if every source
+     *         is exhausted.
+     */
+    Tuple next() throws DbException, TransactionAbortedException {
+        if (this.k == 0) {
+            return null;
+        }
+        int winner = this.tree[0];
+        Tuple t = this.heads[winner];
+        if (t == null) {
+            return null;
+        }
+        advance(winner);
+        for (int node = (winner + this.k) / 2; node > 0; node /= 2) {
+            if (beats(this.tree[node], winner)) {
+                int loser = winner;
+                winner = this.tree[node];
+                this.tree[node] = loser;
+            }
+        }
+        this.tree[0] = winner;
+        return t;
+    }
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum). The victim is the page whose
+ * K-th most recent reference is furthest in the past; pages referenced fewer
+ * than K times have an infinite backward distance and go first, oldest first.
+ * This keeps a single sequential scan from flushing pages that are
+ * referenced repeatedly.
+ * <p>
+ * Pages with fewer than K references live in an insertion-ordered set, so
+ * they are handled in O(1). Pages with K or more references are ordered by
+ * their K-th most recent reference time in a tree, which costs O(log n) per
+ * hit. Reference history is retained for a bounded number of evicted pages
+ * so that a page that comes back is not treated as brand new.
+ */
+public class LruKPolicy extends EvictionPolicy {
+
+    /** K used by {@link EvictionPolicy#create}. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final int historyCapacity;
+    private long clock = 0;
+
+    /** reference times of resident pages, most recent first */
+    private HashMap<PageId, long[]> history = new HashMap<PageId, long[]>();
+    /** resident pages with fewer than K references, oldest first */
+    private LinkedHashSet<PageId> young = new LinkedHashSet<PageId>();
+    /** resident pages with K or more references, keyed by K-th reference */
+    private TreeMap<Long, PageId> mature = new TreeMap<Long, PageId>();
+    /** reference history of pages that were recently evicted */
+    private LinkedHashMap<PageId, long[]> retained;
+
+    /**
+     * @param k
+     *            the number of references considered per page (at least 1)
+     * @param capacity
+     *            the cache capacity; history is retained for as many evicted
+     *            pages
+     */
+    public LruKPolicy(int k, int capacity) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.historyCapacity = Math.max(1, capacity);
+        this.retained = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> e) {
+                return size() > historyCapacity;
+            }
+        };
+    }
+
+    protected void onHit(PageId pid) {
+        long[] refs = history.get(pid);
+        if (refs != null)
+            reference(pid, refs);
+    }
+
+    public void pageAdmitted(PageId pid) {
+        if (history.containsKey(pid)) {
+            onHit(pid);
+            return;
+        }
+        long[] refs = retained.remove(pid);
+        if (refs == null)
+            refs = new long[k];
+        history.put(pid, refs);
+        reference(pid, refs);
+    }
+
+    public void pageRemoved(PageId pid) {
+        long[] refs = history.remove(pid);
+        if (refs != null)
+            untrack(pid, refs);
+    }
+
+    public PageId evict(VictimFilter filter) {
+        Iterator<PageId> it = young.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                retain(pid);
+                return pid;
+            }
+        }
+        Iterator<PageId> mit = mature.values().iterator();
+        while (mit.hasNext()) {
+            PageId pid = mit.next();
+            if (filter.canEvict(pid)) {
+                mit.remove();
+                retain(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return "LRU-" + k;
+    }
+
+    /** Shifts a new reference into refs and re-files the page. */
+    private void reference(PageId pid, long[] refs) {
+        untrack(pid, refs);
+        System.arraycopy(refs, 0, refs, 1, k - 1);
+        refs[0] = ++clock;
+        if (refs[k - 1] == 0)
+            young.add(pid);
+        else
+            mature.put(refs[k - 1], pid);
+    }
+
+    private void untrack(PageId pid, long[] refs) {
+        if (refs[k - 1] == 0)
+            young.remove(pid);
+        else
+            mature.remove(refs[k - 1]);
+    }
+
+    private void retain(PageId pid) {
+        long[] refs = history.remove(pid);
+        if (refs != null)
+            retained.put(pid, refs);
+    }
+}
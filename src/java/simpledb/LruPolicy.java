@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Least-recently-used replacement. Resident pages are kept in a linked hash
+ * set ordered from least to most recently used, so hits and admissions are
+ * O(1) and eviction only walks past pages that the filter rejects.
+ */
+public class LruPolicy extends EvictionPolicy {
+
+    private LinkedHashSet<PageId> order = new LinkedHashSet<PageId>();
+
+    protected void onHit(PageId pid) {
+        // move to the most recently used end
+        if (order.remove(pid))
+            order.add(pid);
+    }
+
+    public void pageAdmitted(PageId pid) {
+        order.remove(pid);
+        order.add(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        order.remove(pid);
+    }
+
+    public PageId evict(VictimFilter filter) {
+        Iterator<PageId> it = order.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return "LRU";
+    }
+}
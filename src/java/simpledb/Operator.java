@@ -87,6 +87,53 @@ public abstract class Operator implements DbIterator {
      * */
     public abstract TupleDesc getTupleDesc();
 
+    /**
+     * @return true if it is a {@link BatchIterator} that can currently
+     *         produce batches.
+     */
+    static boolean producesBatches(DbIterator it) {
+        return it instanceof BatchIterator && ((BatchIterator) it).isBatchSource();
+    }
+
+    /**
+     * @return the field on which the output of this operator is known to be
+     *         sorted, ascending or descending, so that equal values of it
+     *         are adjacent; or -1 if its order is not known.
+     */
+    public int getSortField() {
+        return -1;
+    }
+
+    /**
+     * @return true if the output of this operator is sorted in ascending
+     *         order on {@link #getSortField}, false if it is sorted in
+     *         descending order or its order is not known.
+     */
+    public boolean isSortAscending() {
+        return false;
+    }
+
+    /**
+     * @return the field on which the output of it is known to be sorted, or
+     *         -1 if its order is not known.
+     * @see #getSortField
+     */
+    static int sortFieldOf(DbIterator it) {
+        if (it instanceof IndexScan) {
+            return ((IndexScan) it).getSortField();
+        }
+        return it instanceof Operator ? ((Operator) it).getSortField() : -1;
+    }
+
+    /**
+     * @return true if the output of it is known to be sorted in ascending
+     *         order on field.
+     */
+    static boolean sortedAscendingOn(DbIterator it, int field) {
+        return field != -1 && sortFieldOf(it) == field
+                && (it instanceof IndexScan || ((Operator) it).isSortAscending());
+    }
+
     /**
      * @return The estimated cardinality of this operator. 
      * */
@@ -3,11 +3,29 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or
+ * more fields.
+ * <p>
+ * The child is sorted within a memory budget. If it fits, it is sorted in
+ * memory; otherwise it is cut into sorted runs of up to the budget, which
+ * are written to {@link SpillFile}s and merged with a {@link LoserTree}, in
+ * several passes if there are more runs than page buffers in the budget.
+ * With a limit (see {@link #setLimit}) only the first tuples of the ordering
+ * are kept, in a bounded heap, so the child is never spilled.
+ * <p>
+ * In-memory sorts, including those of runs, sort normalized keys of the
+ * tuples with {@link SortKeys}.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Bytes of tuples sorted in memory unless another budget is given. */
+    public static final long DEFAULT_MEMORY_BUDGET = 4L << 20;
+
+    /** Limit of an OrderBy that returns all of its child's tuples. */
+    public static final int NO_LIMIT = -1;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
@@ -15,6 +33,16 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private int[] orderByFields;
+    private boolean[] ascending;
+    private long memoryBudget;
+    private int limit = NO_LIMIT;
+
+    // sorted runs of the child, when it did not fit in memory
+    transient private ArrayList<SpillFile> runs = null;
+    transient private DbFileIterator[] readers = null;
+    transient private LoserTree merge = null;
+    transient private int returned = 0;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +55,70 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget
+     *            the number of bytes of tuples, as stored on a page, to sort
+     *            in memory before spilling sorted runs to disk
+     * @see #OrderBy(int, boolean, DbIterator)
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child,
+            long memoryBudget) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, memoryBudget);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each of orderbyFields, true if its sort order is
+     *            ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        this(orderbyFields, asc, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget
+     *            the number of bytes of tuples, as stored on a page, to sort
+     *            in memory before spilling sorted runs to disk
+     * @see #OrderBy(int[], boolean[], DbIterator)
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child,
+            long memoryBudget) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("need one direction per sort field");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields;
+        this.ascending = asc;
+        this.orderByField = orderbyFields[0];
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = asc[0];
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Makes this operator return only the first limit tuples of the
+     * ordering, as for an ORDER BY ... LIMIT query.
+     *
+     * @param limit
+     *            the number of tuples to return, or {@link #NO_LIMIT}
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return this.limit;
     }
     
     public boolean isASC()
@@ -48,6 +135,21 @@ public class OrderBy extends Operator {
     {
 	return this.orderByFieldName;
     }
+
+    /**
+     * @return all the fields sorted on, most significant first.
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields;
+    }
+
+    /**
+     * @return for each of {@link #getOrderByFields}, true if it is sorted in
+     *         ascending order.
+     */
+    public boolean[] getAscending() {
+        return this.ascending;
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
@@ -56,21 +158,149 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        SortKeys keys = new SortKeys(td, orderByFields, ascending);
+        int maxTuples = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                memoryBudget / td.getSize()));
+        childTups.clear();
+        if (limit != NO_LIMIT && limit <= maxTuples) {
+            topN(keys);
+        } else {
+            sort(keys, maxTuples);
+        }
         super.open();
     }
 
+    /**
+     * Keeps the first limit tuples of the child in a heap whose root is the
+     * last of them, and sorts them.
+     */
+    private void topN(SortKeys keys) throws DbException,
+            TransactionAbortedException {
+        Comparator<Tuple> comparator = keys.comparator();
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.max(1, limit),
+                Collections.reverseOrder(comparator));
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                t.materialize();
+                heap.add(t);
+            } else if (limit > 0 && comparator.compare(t, heap.peek()) < 0) {
+                t.materialize();
+                heap.poll();
+                heap.add(t);
+            }
+        }
+        childTups.addAll(heap);
+        keys.sort(childTups);
+        it = childTups.iterator();
+    }
+
+    /**
+     * Sorts the child in memory if it has at most maxTuples tuples, and
+     * spills sorted runs of maxTuples tuples and starts merging them
+     * otherwise.
+     */
+    private void sort(SortKeys keys, int maxTuples)
+            throws DbException, TransactionAbortedException {
+        Comparator<Tuple> comparator = keys.comparator();
+        runs = new ArrayList<SpillFile>();
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            t.materialize();
+            childTups.add(t);
+            if (childTups.size() == maxTuples) {
+                spillRun(keys);
+            }
+        }
+        if (runs.isEmpty()) {
+            keys.sort(childTups);
+            it = childTups.iterator();
+            return;
+        }
+        if (!childTups.isEmpty()) {
+            spillRun(keys);
+        }
+        // every run being merged reads through a page-sized buffer
+        int fanIn = (int) Math.max(2, Math.min(Integer.MAX_VALUE,
+                memoryBudget / BufferPool.PAGE_SIZE));
+        while (runs.size() > fanIn) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                SpillFile out = new SpillFile(td);
+                startMerge(group, comparator);
+                Tuple t;
+                while ((t = merge.next()) != null) {
+                    out.add(t);
+                }
+                closeMerge();
+                for (SpillFile run : group) {
+                    run.delete();
+                }
+                merged.add(out);
+            }
+            runs = merged;
+        }
+        startMerge(runs, comparator);
+    }
+
+    private void spillRun(SortKeys keys) throws DbException {
+        keys.sort(childTups);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups) {
+            run.add(t);
+        }
+        runs.add(run);
+        childTups.clear();
+    }
+
+    private void startMerge(List<SpillFile> files, Comparator<Tuple> comparator)
+            throws DbException, TransactionAbortedException {
+        readers = new DbFileIterator[files.size()];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = files.get(i).iterator();
+            readers[i].open();
+        }
+        merge = new LoserTree(readers, comparator);
+    }
+
+    private void closeMerge() {
+        if (readers != null) {
+            for (DbFileIterator reader : readers) {
+                reader.close();
+            }
+        }
+        readers = null;
+        merge = null;
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
+        childTups.clear();
+        closeMerge();
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+            runs = null;
+        }
+        returned = 0;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        returned = 0;
+        if (merge != null) {
+            closeMerge();
+            startMerge(runs, new TupleComparator(orderByFields, ascending));
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
@@ -82,10 +312,19 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+        if (limit != NO_LIMIT && returned >= limit) {
             return null;
+        }
+        Tuple t = null;
+        if (merge != null) {
+            t = merge.next();
+        } else if (it != null && it.hasNext()) {
+            t = it.next();
+        }
+        if (t != null) {
+            returned++;
+        }
+        return t;
     }
 
     @Override
@@ -94,30 +333,18 @@ public class OrderBy extends Operator {
     }
 
     @Override
-    public void setChildren(DbIterator[] children) {
-        this.child = children[0];
+    public int getSortField() {
+        return this.orderByFields[0];
     }
 
-}
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+    @Override
+    public boolean isSortAscending() {
+        return this.ascending[0];
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
     }
-    
+
 }
@@ -0,0 +1,443 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PageCache holds the pages resident in the {@link BufferPool}. Replacement
+ * decisions are delegated to an {@link EvictionPolicy}, so both hits and
+ * evictions are O(1) for the policies that support it.
+ * <p>
+ * The page table is split into stripes by PageId hash. Each stripe is a
+ * concurrent hash map, so hits never take a lock on the table itself; a
+ * stripe's lock is only held while a page of that stripe is read in from
+ * disk or removed, so a slow page fault only holds up other faults that
+ * land in the same stripe. The policy is guarded by its own lock, held for
+ * O(1) bookkeeping only, never across I/O. Hits do not take it: each stripe
+ * buffers the hits on its pages, and the buffers are applied to the policy
+ * before it picks a victim, or once one holds HIT_BUFFER hits and the lock
+ * is free.
+ * <p>
+ * Each resident page lives in a {@link Frame} that carries a pin count and
+ * a latch. Both are physical, short-term protections and are independent of
+ * the transactional locks handed out by the {@link LockManager}. Pinned or
+ * latched frames are never evicted: a frame is pinned by
+ * {@link #getPinnedFrame} until its holder calls {@link Frame#unpin}, and
+ * eviction claims a frame by swapping its pin count from 0 to -1, after
+ * which it can no longer be pinned.
+ * <p>
+ * Only clean pages are ever evicted (NO STEAL); if every resident page is
+ * dirty or pinned, a fault fails with a DbException. The capacity is a soft
+ * bound: room is made before a page is read in, so concurrent faults may
+ * briefly overshoot it by the number of faulting threads.
+ */
+public class PageCache {
+
+    /** Number of page table stripes used when none is specified. */
+    public static final int DEFAULT_STRIPES = 16;
+
+    /** Hits a stripe buffers before it tries to apply them to the policy. */
+    static final int HIT_BUFFER = 64;
+
+    /**
+     * A resident page together with its pin count and latch.
+     */
+    public static class Frame {
+        private volatile Page page;
+        private final AtomicInteger pins = new AtomicInteger(0);
+        private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
+        Frame(Page page) {
+            this.page = page;
+        }
+
+        public Page getPage() {
+            return page;
+        }
+
+        /** @return the number of outstanding pins on this frame */
+        public int getPinCount() {
+            return Math.max(0, pins.get());
+        }
+
+        /** Releases a pin taken by {@link PageCache#getPinnedFrame}. */
+        public void unpin() {
+            pins.decrementAndGet();
+        }
+
+        /**
+         * @return false if the frame was claimed for eviction and cannot be
+         *         pinned any more
+         */
+        boolean tryPin() {
+            while (true) {
+                int n = pins.get();
+                if (n < 0)
+                    return false;
+                if (pins.compareAndSet(n, n + 1))
+                    return true;
+            }
+        }
+
+        /**
+         * @return the latch protecting the physical contents of this frame.
+         *         Holders of the write latch may replace or write out the page.
+         */
+        public ReentrantReadWriteLock getLatch() {
+            return latch;
+        }
+
+        boolean isEvictable() {
+            return pins.get() == 0 && !latch.isWriteLocked()
+                    && latch.getReadLockCount() == 0 && page.isDirty() == null;
+        }
+    }
+
+    private static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final ConcurrentHashMap<PageId, Frame> frames = new ConcurrentHashMap<PageId, Frame>();
+        // hits not yet applied to the policy
+        final ConcurrentLinkedQueue<PageId> hits = new ConcurrentLinkedQueue<PageId>();
+        final AtomicInteger pendingHits = new AtomicInteger(0);
+    }
+
+    private final int capacity;
+    private final EvictionPolicy policy;
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final Stripe[] stripes;
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    // set by evictable when a stripe it looked at was locked; guarded by
+    // policyLock
+    private boolean evictionContended;
+
+    // removes the page the policy offers, if it is evictable, under the
+    // lock of its stripe: the policy forgets a page it is offered once
+    // canEvict returns true, so a page must not be pinned or dirtied
+    // between the check and its removal
+    private final EvictionPolicy.VictimFilter evictable = new EvictionPolicy.VictimFilter() {
+        public boolean canEvict(PageId pid) {
+            Stripe stripe = stripeFor(pid);
+            // stripes are locked before the policy everywhere else
+            if (!stripe.lock.tryLock()) {
+                evictionContended = true;
+                return false;
+            }
+            try {
+                Frame frame = stripe.frames.get(pid);
+                if (frame == null || !frame.isEvictable() || !frame.pins.compareAndSet(0, -1))
+                    return false;
+                stripe.frames.remove(pid);
+                size.decrementAndGet();
+                return true;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    };
+
+    /**
+     * @param capacity
+     *            maximum number of resident pages
+     * @param policy
+     *            the replacement policy deciding which page to evict
+     */
+    public PageCache(int capacity, EvictionPolicy policy) {
+        this(capacity, policy, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param capacity
+     *            maximum number of resident pages
+     * @param policy
+     *            the replacement policy deciding which page to evict
+     * @param numStripes
+     *            number of page table partitions; rounded up to a power of 2
+     */
+    public PageCache(int capacity, EvictionPolicy policy, int numStripes) {
+        int n = 1;
+        while (n < numStripes)
+            n <<= 1;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe();
+    }
+
+    /**
+     * @return the replacement policy, including its hit statistics, which
+     *         include every hit buffered so far
+     */
+    public EvictionPolicy getPolicy() {
+        policyLock.lock();
+        try {
+            drainHits();
+        } finally {
+            policyLock.unlock();
+        }
+        return policy;
+    }
+
+    /** @return the maximum number of resident pages */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of resident pages */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the requested page, reading it from its DbFile (and evicting a
+     * clean page if the cache is full) if it is not resident.
+     *
+     * @throws DbException
+     *             if the cache is full of dirty or pinned pages
+     */
+    public Page getPage(PageId pid) throws DbException {
+        return fetch(pid, false).page;
+    }
+
+    /**
+     * Returns the frame of the requested page, as getPage, pinned so that
+     * the page is not evicted until {@link Frame#unpin} is called.
+     *
+     * @throws DbException
+     *             if the cache is full of dirty or pinned pages
+     */
+    public Frame getPinnedFrame(PageId pid) throws DbException {
+        return fetch(pid, true);
+    }
+
+    private Frame fetch(PageId pid, boolean pin) throws DbException {
+        Stripe stripe = stripeFor(pid);
+        while (true) {
+            Frame frame = stripe.frames.get(pid);
+            if (frame != null) {
+                if (pin && !frame.tryPin()) {
+                    // claimed for eviction; fault the page in again
+                    continue;
+                }
+                recordHit(stripe, pid);
+                return frame;
+            }
+
+            policyLock.lock();
+            try {
+                policy.pageMissed(pid);
+            } finally {
+                policyLock.unlock();
+            }
+            makeRoom();
+            stripe.lock.lock();
+            try {
+                // another thread may have faulted the page in while we waited;
+                // under the stripe lock, no frame of the map is being evicted
+                frame = stripe.frames.get(pid);
+                if (frame != null) {
+                    if (pin)
+                        frame.tryPin();
+                    return frame;
+                }
+                DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+                frame = new Frame(file.readPage(pid));
+                if (pin)
+                    frame.tryPin();
+                stripe.frames.put(pid, frame);
+                size.incrementAndGet();
+                admitted(pid);
+                return frame;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Buffers a hit in its stripe, and applies the stripe's buffer to the
+     * policy once it is full, unless another thread holds the policy lock.
+     */
+    private void recordHit(Stripe stripe, PageId pid) {
+        stripe.hits.add(pid);
+        if (stripe.pendingHits.incrementAndGet() >= HIT_BUFFER && policyLock.tryLock()) {
+            try {
+                drainHits();
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    /** Applies the buffered hits to the policy; the policy lock is held. */
+    private void drainHits() {
+        for (int i = 0; i < stripes.length; i++) {
+            PageId pid;
+            while ((pid = stripes[i].hits.poll()) != null) {
+                stripes[i].pendingHits.decrementAndGet();
+                policy.pageHit(pid);
+            }
+        }
+    }
+
+    private void admitted(PageId pid) {
+        policyLock.lock();
+        try {
+            policy.pageAdmitted(pid);
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Admits a page that was read ahead of any request for it, unless it is
+     * resident already, or no clean page can be evicted to make room for
+     * it, or file was being written when the page was read from it or has
+     * been written since.
+     *
+     * @param writes
+     *            the write count of file before the page was read
+     * @return true if the page was admitted
+     * @see HeapFile#getWriteCount
+     */
+    public boolean admitPrefetched(Page page, HeapFile file, long writes) {
+        PageId pid = page.getId();
+        Stripe stripe = stripeFor(pid);
+        if (stripe.frames.containsKey(pid))
+            return false;
+        try {
+            makeRoom();
+        } catch (DbException e) {
+            return false;
+        }
+        stripe.lock.lock();
+        try {
+            // a page written since the read is resident, or was evicted
+            // after it was written; either way, the copy read is stale
+            if (stripe.frames.containsKey(pid) || (writes & 1) != 0
+                    || file.getWriteCount() != writes)
+                return false;
+            stripe.frames.put(pid, new Frame(page));
+            size.incrementAndGet();
+            admitted(pid);
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the resident copy of the page, or null if it is not resident.
+     *         Does not count as a reference.
+     */
+    public Page peekPage(PageId pid) {
+        Frame frame = stripeFor(pid).frames.get(pid);
+        return frame == null ? null : frame.page;
+    }
+
+    /** @return the frame holding the page, or null if it is not resident */
+    public Frame getFrame(PageId pid) {
+        return stripeFor(pid).frames.get(pid);
+    }
+
+    /**
+     * Replaces the resident copy of a page, e.g. with its before image when
+     * a transaction aborts. Admits the page if it was not resident.
+     */
+    public void putPage(Page page) {
+        PageId pid = page.getId();
+        Stripe stripe = stripeFor(pid);
+        stripe.lock.lock();
+        try {
+            Frame frame = stripe.frames.get(pid);
+            if (frame != null) {
+                frame.latch.writeLock().lock();
+                try {
+                    frame.page = page;
+                } finally {
+                    frame.latch.writeLock().unlock();
+                }
+                return;
+            }
+            stripe.frames.put(pid, new Frame(page));
+            size.incrementAndGet();
+            admitted(pid);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /** Drops a page from the cache without writing it. */
+    public void discardPage(PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        stripe.lock.lock();
+        try {
+            if (stripe.frames.remove(pid) != null) {
+                size.decrementAndGet();
+                policyLock.lock();
+                try {
+                    policy.pageRemoved(pid);
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts one clean, unpinned page chosen by the replacement policy.
+     *
+     * @throws DbException
+     *             if no resident page can be evicted
+     */
+    public void evictPage() throws DbException {
+        while (true) {
+            boolean contended;
+            policyLock.lock();
+            try {
+                // apply the hits first, so that the victim is chosen on
+                // every reference made so far
+                drainHits();
+                evictionContended = false;
+                if (policy.evict(evictable) != null)
+                    return;
+                contended = evictionContended;
+            } finally {
+                policyLock.unlock();
+            }
+            // a page skipped because its stripe was busy may be evictable
+            if (!contended)
+                throw new DbException("No clean page found to evict.");
+            Thread.yield();
+        }
+    }
+
+    /** @return a snapshot of the resident pages */
+    public ArrayList<Page> getPages() {
+        ArrayList<Page> result = new ArrayList<Page>(size.get());
+        for (int i = 0; i < stripes.length; i++) {
+            for (Frame frame : stripes[i].frames.values())
+                result.add(frame.page);
+        }
+        return result;
+    }
+
+    private void makeRoom() throws DbException {
+        while (size.get() >= capacity)
+            evictPage();
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        // spread high bits down so that table ids also pick the stripe
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+}
@@ -253,18 +253,15 @@ public class Parser {
 		if (q.getOrderBy() != null) {
 			@SuppressWarnings("unchecked")
 			Vector<ZOrderBy> obys = q.getOrderBy();
-			if (obys.size() > 1) {
-				throw new simpledb.ParsingException(
-						"Multi-attribute ORDER BY is not supported.");
-			}
-			ZOrderBy oby = obys.elementAt(0);
-			if (!(oby.getExpression() instanceof ZConstant)) {
-				throw new simpledb.ParsingException(
-						"Complex ORDER BY's are not supported");
-			}
-			ZConstant f = (ZConstant) oby.getExpression();
+			for (ZOrderBy oby : obys) {
+				if (!(oby.getExpression() instanceof ZConstant)) {
+					throw new simpledb.ParsingException(
+							"Complex ORDER BY's are not supported");
+				}
+				ZConstant f = (ZConstant) oby.getExpression();
 
-			lp.addOrderBy(f.getValue(), oby.getAscOrder());
+				lp.addOrderBy(f.getValue(), oby.getAscOrder());
+			}
 
 		}
 		return lp;
@@ -609,6 +606,7 @@ public class Parser {
 		// first add tables to database
 		Database.getCatalog().loadSchema(argv[0]);
 		TableStats.computeStatistics();
+		Database.getBufferPool().getReadAhead().setWindow(ReadAhead.DEFAULT_WINDOW);
 
 		String queryFile = null;
 
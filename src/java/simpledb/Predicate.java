@@ -114,7 +114,42 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(this.field).compare(this.op,this.operand);
+        return t.compareField(this.field, this.op, this.operand);
+    }
+
+    /**
+     * Applies this predicate to every selected row of batch, dropping the
+     * rows for which it is false from the batch's selection vector.
+     * 
+     * @param batch
+     *            The rows to filter
+     * @return the number of rows still selected
+     */
+    public int filter(TupleBatch batch) {
+        int[] sel = batch.getSelection();
+        int n = batch.numSelected();
+        int kept = 0;
+        if (this.operand instanceof IntField) {
+            int[] col = batch.getIntColumn(this.field);
+            int value = ((IntField) this.operand).getValue();
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                if (IntField.compare(col[row], this.op, value))
+                    sel[kept++] = row;
+            }
+        } else {
+            String[] col = batch.getStringColumn(this.field);
+            String value = ((StringField) this.operand).getValue();
+            for (int i = 0; i < n; i++) {
+                int row = sel[i];
+                boolean match = this.op == Op.LIKE ? col[row].indexOf(value) >= 0
+                        : StringField.compare(col[row].compareTo(value), this.op);
+                if (match)
+                    sel[kept++] = row;
+            }
+        }
+        batch.setNumSelected(kept);
+        return kept;
     }
 
     /**
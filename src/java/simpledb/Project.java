@@ -3,14 +3,19 @@ package simpledb;
 import java.util.*;
 
 /**
- * Project is an operator that implements a relational projection.
+ * Project is an operator that implements a relational projection. If its
+ * child produces batches, it projects them a batch at a time, without
+ * copying any column.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    transient private TupleBatch projected = null;
+    transient private int[] batchFields = null;
+    transient private TupleBatch.Cursor cursor = null;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -48,16 +53,57 @@ public class Project extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
+        if (isBatchSource()) {
+            projected = TupleBatch.projection(td);
+            batchFields = new int[outFieldIds.size()];
+            for (int i = 0; i < batchFields.length; i++) {
+                batchFields[i] = outFieldIds.get(i);
+            }
+            cursor = new TupleBatch.Cursor();
+        }
         super.open();
     }
 
+    public boolean isBatchSource() {
+        return producesBatches(child);
+    }
+
+    @Override
+    public int getSortField() {
+        int field = sortFieldOf(child);
+        return field == -1 ? -1 : outFieldIds.indexOf(field);
+    }
+
+    @Override
+    public boolean isSortAscending() {
+        return child instanceof Operator && ((Operator) child).isSortAscending();
+    }
+
+    /**
+     * Returns a view of the projected columns of the child's next batch.
+     */
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        TupleBatch batch = ((BatchIterator) child).nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        projected.project(batch, batchFields);
+        return projected;
+    }
+
     public void close() {
         super.close();
         child.close();
+        projected = null;
+        cursor = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child.rewind();
+        if (cursor != null) {
+            cursor.reset();
+        }
     }
 
     /**
@@ -68,6 +114,9 @@ public class Project extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (projected != null) {
+            return cursor.next(this);
+        }
         while (child.hasNext()) {
             Tuple t = child.next();
             Tuple newTuple = new Tuple(td);
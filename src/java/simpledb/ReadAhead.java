@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadAhead prefetches the pages of heap files that are being read in
+ * order. The {@link BufferPool} reports every page a transaction requests;
+ * once a transaction has requested TRIGGER consecutive pages of a table, the
+ * pages after them, up to a window, are read with a single positional read
+ * on a background thread and admitted to the {@link PageCache}. The window
+ * is refilled whenever the reader gets within half of it of its end, so a
+ * scan of a cold table finds its pages resident and overlaps its I/O with
+ * the processing of the pages before them.
+ * <p>
+ * A transaction may read a table through several scans at once, e.g. the
+ * partitions of a parallel scan or the inner child of a nested-loop join;
+ * each is tracked as a separate stream, up to MAX_STREAMS per transaction
+ * and table.
+ * <p>
+ * Prefetched pages are read without locks: the transaction still locks
+ * each page when it requests it. A page that is already resident, or whose
+ * file was being written while it was read or has been written since, is
+ * dropped rather than admitted, so the cache never holds a stale copy.
+ * Memory-mapped files are left to
+ * the read-ahead of the OS.
+ * <p>
+ * Read-ahead is off until a window is set, since it reads pages into the
+ * cache that no transaction asked for yet; the {@link Parser} turns it on.
+ */
+public class ReadAhead {
+
+	/** Suggested number of pages to read ahead of a sequential reader. */
+	public static final int DEFAULT_WINDOW = 16;
+
+	/** Consecutive pages a stream requests before it is read ahead. */
+	static final int TRIGGER = 2;
+
+	/** Streams tracked per transaction and table. */
+	static final int MAX_STREAMS = 4;
+
+	private static final int IO_THREADS = 2;
+
+	private static ExecutorService pool = null;
+
+	/** The transaction and table a set of streams belongs to. */
+	private static class StreamKey {
+		final TransactionId tid;
+		final int tableId;
+
+		StreamKey(TransactionId tid, int tableId) {
+			this.tid = tid;
+			this.tableId = tableId;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof StreamKey)) {
+				return false;
+			}
+			StreamKey other = (StreamKey) o;
+			return this.tableId == other.tableId
+					&& (this.tid == null ? other.tid == null : this.tid.equals(other.tid));
+		}
+
+		public int hashCode() {
+			return 31 * this.tableId + (this.tid == null ? 0 : this.tid.hashCode());
+		}
+	}
+
+	/** One scan in progress: the page it should request next, and so on. */
+	private static class Stream {
+		int next;
+		int run = 1;
+		// the first page that has not been read ahead yet
+		int prefetched;
+
+		Stream(int page) {
+			this.next = page + 1;
+			this.prefetched = page + 1;
+		}
+	}
+
+	private final PageCache cache;
+	private volatile int window = 0;
+	private final ConcurrentHashMap<StreamKey, ArrayList<Stream>> streams;
+	private final AtomicLong prefetchedPages = new AtomicLong(0);
+
+	/**
+	 * @param cache the cache to admit prefetched pages to
+	 */
+	public ReadAhead(PageCache cache) {
+		this.cache = cache;
+		this.streams = new ConcurrentHashMap<StreamKey, ArrayList<Stream>>();
+	}
+
+	/**
+	 * Sets the number of pages read ahead of a sequential reader. The window
+	 * is capped at a quarter of the cache, so that pages read ahead are not
+	 * evicted before they are requested.
+	 *
+	 * @param pages the window; 0 disables read-ahead
+	 */
+	public void setWindow(int pages) {
+		this.window = Math.max(0, pages);
+	}
+
+	/** @return the number of pages read ahead and admitted to the cache */
+	public long getPrefetchCount() {
+		return this.prefetchedPages.get();
+	}
+
+	/**
+	 * Records that tid requested pid and, if that continues a sequential
+	 * stream, reads ahead of it.
+	 */
+	void pageRequested(TransactionId tid, PageId pid) {
+		int window = Math.min(this.window, this.cache.getCapacity() / 4);
+		if (window <= 0 || !(pid instanceof HeapPageId)) {
+			return;
+		}
+		StreamKey key = new StreamKey(tid, pid.getTableId());
+		ArrayList<Stream> list = this.streams.get(key);
+		if (list == null) {
+			ArrayList<Stream> created = new ArrayList<Stream>();
+			list = this.streams.putIfAbsent(key, created);
+			if (list == null) {
+				list = created;
+			}
+		}
+
+		int page = pid.pageNumber();
+		final HeapFile heapFile;
+		final int first;
+		final int n;
+		synchronized (list) {
+			Stream s = null;
+			for (int i = 0; i < list.size(); i++) {
+				if (list.get(i).next == page + 1) {
+					// the page a stream requested last, requested again
+					return;
+				}
+				if (list.get(i).next == page) {
+					s = list.remove(i);
+					break;
+				}
+			}
+			if (s == null) {
+				// a new stream replaces the one used least recently
+				if (list.size() == MAX_STREAMS) {
+					list.remove(0);
+				}
+				list.add(new Stream(page));
+				return;
+			}
+			list.add(s);
+			s.next = page + 1;
+			s.run++;
+			if (s.run < TRIGGER || page + window / 2 < s.prefetched) {
+				return;
+			}
+			// the file is only looked up once the stream is found sequential
+			DbFile file;
+			try {
+				file = Database.getCatalog().getDbFile(pid.getTableId());
+			} catch (NoSuchElementException e) {
+				return;
+			}
+			if (!(file instanceof HeapFile) || ((HeapFile) file).isMemoryMapped()) {
+				return;
+			}
+			heapFile = (HeapFile) file;
+			first = Math.max(page + 1, s.prefetched);
+			n = Math.min(page + 1 + window, heapFile.numPages()) - first;
+			if (n <= 0) {
+				return;
+			}
+			s.prefetched = first + n;
+		}
+		pool().execute(new Runnable() {
+			public void run() {
+				prefetch(heapFile, first, n);
+			}
+		});
+	}
+
+	/** Forgets the streams of tid. */
+	void transactionComplete(TransactionId tid) {
+		for (StreamKey key : this.streams.keySet()) {
+			if (tid == null ? key.tid == null : tid.equals(key.tid)) {
+				this.streams.remove(key);
+			}
+		}
+	}
+
+	private void prefetch(HeapFile file, int first, int n) {
+		try {
+			long writes = file.getWriteCount();
+			if ((writes & 1) != 0) {
+				// a write is in progress, so what is read may be torn
+				return;
+			}
+			for (HeapPage page : file.readPages(first, n)) {
+				if (this.cache.admitPrefetched(page, file, writes)) {
+					this.prefetchedPages.incrementAndGet();
+				}
+			}
+		} catch (IOException e) {
+			// read-ahead is only a hint; the pages are read when requested
+		} catch (NoSuchElementException e) {
+			// the table was removed from the catalog meanwhile
+		}
+	}
+
+	private static synchronized ExecutorService pool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "read-ahead-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+}
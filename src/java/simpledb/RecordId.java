@@ -69,7 +69,9 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-    	return Integer.parseInt(Integer.toString(this.getPageId().hashCode()) + Integer.toString(this.tupleno()));
+    	// RecordIds key tuple locks, so this must not overflow for large
+    	// page hash codes the way concatenating their digits did
+    	return 31 * this.getPageId().hashCode() + this.tupleno();
     }
 
 }
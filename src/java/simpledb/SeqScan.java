@@ -33,6 +33,9 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFileIterator fileIterator;
     private DbFile file;
+    // see setKeyFilter
+    transient volatile int keyField = -1;
+    transient volatile KeyFilter keyFilter = null;
     
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
@@ -60,6 +63,20 @@ public class SeqScan implements DbIterator {
         return tableAlias;
     }
 
+    /**
+     * @return the id of the table this operator scans.
+     */
+    int getTableId() {
+    	return tableid;
+    }
+
+    /**
+     * @return the transaction this operator runs as a part of.
+     */
+    TransactionId getTransactionId() {
+    	return tid;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -88,6 +105,7 @@ public class SeqScan implements DbIterator {
         // some code goes here
     	if (this.fileIterator == null) {
     		this.fileIterator = this.file.iterator(this.tid);
+    		applyKeyFilter();
     		fileIterator.open();
     	} else {
     		throw new DbException("Already Open");
@@ -131,9 +149,31 @@ public class SeqScan implements DbIterator {
 
     public void close() {
         // some code goes here
+    	if (fileIterator != null) {
+    		fileIterator.close();
+    	}
     	fileIterator = null;
     }
 
+    /**
+     * Lets the scan drop tuples whose field does not pass filter, e.g. the
+     * keys of the build side of a join this scan probes, before they are
+     * decoded where the file allows; a null filter drops none. Tuples that
+     * pass may still be returned although they do not match.
+     */
+    void setKeyFilter(int field, KeyFilter filter) {
+    	this.keyField = field;
+    	this.keyFilter = filter;
+    	applyKeyFilter();
+    }
+
+    private void applyKeyFilter() {
+    	if (this.fileIterator instanceof HeapFile.HeapFileIterator) {
+    		((HeapFile.HeapFileIterator) this.fileIterator).setKeyFilter(this.keyField,
+    				this.keyFilter);
+    	}
+    }
+
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * SortKeys sorts tuples on one or more fields by normalized keys: before
+ * sorting, every sort field of every tuple is encoded as a long whose signed
+ * order is the sort order of the field, direction included. An INT_TYPE
+ * field is its value; a STRING_TYPE field is its first 4 characters, packed
+ * big-endian at 16 bits each, so that keys order strings as
+ * {@link String#compareTo} does and a full string comparison is only needed
+ * when two prefixes are equal. The sort itself is a stable merge sort of a
+ * permutation index over the keys, so tuples are not moved until the end.
+ */
+class SortKeys {
+
+    // characters of a string that fit in its key
+    private static final int PREFIX_CHARS = 4;
+
+    private final int[] fields;
+    private final boolean[] asc;
+    private final boolean[] isString;
+
+    /**
+     * @param td
+     *            the schema of the tuples to sort
+     * @param fields
+     *            the fields to sort on, most significant first
+     * @param asc
+     *            for each of fields, true if it is sorted in ascending order
+     */
+    SortKeys(TupleDesc td, int[] fields, boolean[] asc) {
+        this.fields = fields;
+        this.asc = asc;
+        this.isString = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            this.isString[i] = td.getFieldType(fields[i]) == Type.STRING_TYPE;
+        }
+    }
+
+    /**
+     * @return the key of field i of t.
+     */
+    private long key(Tuple t, int i) {
+        long k;
+        if (this.isString[i]) {
+            String s = ((StringField) t.getField(this.fields[i])).getValue();
+            k = 0;
+            for (int j = 0; j < PREFIX_CHARS; j++) {
+                k = (k << 16) | (j < s.length() ? s.charAt(j) : 0);
+            }
+            // make the unsigned order of the chars the signed order
+            k ^= Long.MIN_VALUE;
+        } else {
+            k = ((IntField) t.getField(this.fields[i])).getValue();
+        }
+        return this.asc[i] ? k : ~k;
+    }
+
+    /**
+     * Compares field i of two tuples whose keys for it are equal.
+     */
+    private int compareTail(Tuple a, Tuple b, int i) {
+        if (!this.isString[i]) {
+            return 0;
+        }
+        String sa = ((StringField) a.getField(this.fields[i])).getValue();
+        String sb = ((StringField) b.getField(this.fields[i])).getValue();
+        if (sa.length() <= PREFIX_CHARS && sb.length() <= PREFIX_CHARS
+                && sa.length() == sb.length()) {
+            return 0;
+        }
+        int c = sa.compareTo(sb);
+        return this.asc[i] ? c : -c;
+    }
+
+    /**
+     * Sorts tuples in place.
+     */
+    void sort(List<Tuple> tuples) {
+        int n = tuples.size();
+        int w = this.fields.length;
+        Tuple[] ts = tuples.toArray(new Tuple[n]);
+        long[] keys = new long[n * w];
+        int[] perm = new int[n];
+        for (int r = 0; r < n; r++) {
+            for (int i = 0; i < w; i++) {
+                keys[r * w + i] = key(ts[r], i);
+            }
+            perm[r] = r;
+        }
+        mergeSort(perm, new int[n], 0, n, keys, ts);
+        for (int r = 0; r < n; r++) {
+            tuples.set(r, ts[perm[r]]);
+        }
+    }
+
+    /**
+     * Compares the tuples with indexes a and b.
+     */
+    private int compare(int a, int b, long[] keys, Tuple[] ts) {
+        int w = this.fields.length;
+        for (int i = 0; i < w; i++) {
+            long ka = keys[a * w + i];
+            long kb = keys[b * w + i];
+            if (ka != kb) {
+                return ka < kb ? -1 : 1;
+            }
+            int c = compareTail(ts[a], ts[b], i);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private void mergeSort(int[] perm, int[] tmp, int from, int to,
+            long[] keys, Tuple[] ts) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int p = perm[i];
+                int j = i;
+                for (; j > from && compare(perm[j - 1], p, keys, ts) > 0; j--) {
+                    perm[j] = perm[j - 1];
+                }
+                perm[j] = p;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(perm, tmp, from, mid, keys, ts);
+        mergeSort(perm, tmp, mid, to, keys, ts);
+        if (compare(perm[mid - 1], perm[mid], keys, ts) <= 0) {
+            return;
+        }
+        System.arraycopy(perm, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            perm[k++] = compare(tmp[j], tmp[i], keys, ts) < 0 ? tmp[j++] : tmp[i++];
+        }
+        while (i < mid) {
+            perm[k++] = tmp[i++];
+        }
+        while (j < to) {
+            perm[k++] = tmp[j++];
+        }
+    }
+
+    /**
+     * @return a comparator of tuples in the same order, for tuples whose
+     *         keys have not been extracted, e.g. while merging sorted runs.
+     */
+    Comparator<Tuple> comparator() {
+        return new TupleComparator(this.fields, this.asc);
+    }
+}
@@ -0,0 +1,400 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two children on an equality or an
+ * inequality (&lt;, &lt;=, &gt;, &gt;=) of one field of each. Both children
+ * are sorted in ascending order on their join field, with an
+ * {@link OrderBy}, unless they are known to be sorted already. The right
+ * (inner) child is then kept for rescanning: in memory if it fits in the
+ * memory budget, in a {@link SpillFile} otherwise.
+ * <p>
+ * The left child is read once. Because both sides are sorted, the right
+ * tuples that match a left tuple form one contiguous range, whose bounds
+ * only ever move forward as the left tuples get larger: for an equality it
+ * is the run of equal keys, for a &lt; or &lt;= the rest of the right side
+ * from some point on, and for a &gt; or &gt;= the right side up to some
+ * point. Each left tuple is joined with its range, so no predicate is
+ * evaluated on a pair that does not match.
+ * <p>
+ * The output is sorted in ascending order on the left join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Bytes of tuples sorted in memory, and of right tuples kept in memory,
+     * unless another budget is given.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 4L << 20;
+
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private TupleDesc comboTD;
+    private long memoryBudget;
+
+    // the children, sorted
+    transient private DbIterator left = null;
+    transient private DbIterator right = null;
+    // the sorted right side: in rightTuples if it fits, else in rightFile
+    transient private ArrayList<Tuple> rightTuples = null;
+    transient private SpillFile rightFile = null;
+    transient private int rightSize;
+    // first right tuple whose key is >= and > that of the current left tuple
+    transient private Bound atLeast = null;
+    transient private Bound above = null;
+    // the current left tuple, and the range of right tuples to join it with
+    transient private Tuple t1 = null;
+    transient private int next;
+    transient private int end;
+    // right tuples of the current range read from rightFile, if they fit,
+    // and the range they are for
+    transient private ArrayList<Tuple> rangeTuples = null;
+    transient private int rangeStart = -1;
+    transient private int rangeEnd = -1;
+    transient private DbFileIterator rangeIt = null;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget
+     *            the number of bytes of tuples, as stored on a page, to sort
+     *            in memory before spilling sorted runs, and to keep of the
+     *            right side in memory before writing it to disk
+     * @see #SortMergeJoin(JoinPredicate, DbIterator, DbIterator)
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            long memoryBudget) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("cannot merge join on "
+                    + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryBudget = memoryBudget;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a join on op can be computed by a SortMergeJoin.
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by alias or
+     *         table name.
+     */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by alias or
+     *         table name.
+     */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /**
+     * @return child, or an OrderBy sorting it in ascending order on field if
+     *         it is not known to be sorted that way.
+     */
+    private DbIterator sorted(DbIterator child, int field) {
+        if (sortedAscendingOn(child, field)) {
+            return child;
+        }
+        return new OrderBy(field, true, child, memoryBudget);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = sorted(child1, pred.getField1());
+        right = sorted(child2, pred.getField2());
+        left.open();
+        right.open();
+        loadRight();
+        atLeast = new Bound(false);
+        above = new Bound(true);
+        t1 = null;
+        super.open();
+    }
+
+    /**
+     * Reads the sorted right side into memory, or to disk once it is over
+     * the budget.
+     */
+    private void loadRight() throws DbException, TransactionAbortedException {
+        int tupleSize = child2.getTupleDesc().getSize();
+        long maxTuples = Math.max(1, memoryBudget / tupleSize);
+        rightTuples = new ArrayList<Tuple>();
+        rightSize = 0;
+        while (right.hasNext()) {
+            Tuple t = right.next();
+            if (rightFile == null && rightSize == maxTuples) {
+                rightFile = new SpillFile(child2.getTupleDesc());
+                for (Tuple u : rightTuples) {
+                    rightFile.add(u);
+                }
+                rightTuples = null;
+            }
+            if (rightFile != null) {
+                rightFile.add(t);
+            } else {
+                t.materialize();
+                rightTuples.add(t);
+            }
+            rightSize++;
+        }
+        right.close();
+    }
+
+    /**
+     * A position in the sorted right side that only moves forward: the
+     * first right tuple whose key is at least (or, if strict, above) a key
+     * that never decreases.
+     */
+    private class Bound {
+        private final boolean strict;
+        private int index = 0;
+        private DbFileIterator it = null;
+        // the right tuple at index, when reading from rightFile
+        private Tuple current = null;
+
+        Bound(boolean strict) {
+            this.strict = strict;
+        }
+
+        private Tuple at() throws DbException, TransactionAbortedException {
+            if (rightTuples != null) {
+                return rightTuples.get(index);
+            }
+            if (it == null) {
+                it = rightFile.iterator(index);
+                it.open();
+                current = it.next();
+            }
+            return current;
+        }
+
+        /**
+         * Moves past the right tuples whose key is below key, or not above
+         * it if strict.
+         *
+         * @return the new position
+         */
+        int advance(Field key) throws DbException, TransactionAbortedException {
+            while (index < rightSize) {
+                int c = TupleComparator.compareFields(at().getField(pred.getField2()), key);
+                if (c > 0 || (c == 0 && !strict)) {
+                    break;
+                }
+                index++;
+                if (it != null) {
+                    current = it.hasNext() ? it.next() : null;
+                }
+            }
+            return index;
+        }
+
+        void close() {
+            if (it != null) {
+                it.close();
+            }
+        }
+    }
+
+    /**
+     * Sets the range of right tuples that match t1.
+     */
+    private void findRange() throws DbException, TransactionAbortedException {
+        Field key = t1.getField(pred.getField1());
+        switch (pred.getOperator()) {
+        case EQUALS:
+            next = atLeast.advance(key);
+            end = above.advance(key);
+            break;
+        case LESS_THAN:
+            next = above.advance(key);
+            end = rightSize;
+            break;
+        case LESS_THAN_OR_EQ:
+            next = atLeast.advance(key);
+            end = rightSize;
+            break;
+        case GREATER_THAN:
+            next = 0;
+            end = atLeast.advance(key);
+            break;
+        default:
+            next = 0;
+            end = above.advance(key);
+            break;
+        }
+        if (rightFile == null || next == end) {
+            return;
+        }
+        // read the range from disk, into memory if it fits; consecutive
+        // left tuples with equal keys share it
+        if (next == rangeStart && end == rangeEnd && rangeTuples != null) {
+            return;
+        }
+        closeRange();
+        int tupleSize = child2.getTupleDesc().getSize();
+        rangeIt = rightFile.iterator(next);
+        rangeIt.open();
+        if ((long) (end - next) * tupleSize <= memoryBudget) {
+            rangeTuples = new ArrayList<Tuple>(end - next);
+            for (int i = next; i < end; i++) {
+                rangeTuples.add(rangeIt.next());
+            }
+            rangeIt.close();
+            rangeIt = null;
+            rangeStart = next;
+            rangeEnd = end;
+        }
+    }
+
+    private void closeRange() {
+        if (rangeIt != null) {
+            rangeIt.close();
+            rangeIt = null;
+        }
+        rangeTuples = null;
+        rangeStart = rangeEnd = -1;
+    }
+
+    /**
+     * @return the right tuple at index, the next one of the current range.
+     */
+    private Tuple rightAt(int index) throws DbException, TransactionAbortedException {
+        if (rightTuples != null) {
+            return rightTuples.get(index);
+        }
+        if (rangeTuples != null) {
+            return rangeTuples.get(index - rangeStart);
+        }
+        return rangeIt.next();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Logically, this is the next tuple in r1 cross r2 that
+     * satisfies the join predicate. Left tuples come out in sorted order,
+     * each joined with the right tuples of its range in sorted order.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && next < end) {
+                return mergeTuples(t1, rightAt(next++));
+            }
+            if (!left.hasNext()) {
+                return null;
+            }
+            t1 = left.next();
+            findRange();
+        }
+    }
+
+    private Tuple mergeTuples(Tuple tup1, Tuple tup2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = tup1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, tup1.getField(i));
+        }
+        for (int i = 0; i < tup2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, tup2.getField(i));
+        }
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        atLeast.close();
+        above.close();
+        atLeast = new Bound(false);
+        above = new Bound(true);
+        closeRange();
+        t1 = null;
+    }
+
+    public void close() {
+        super.close();
+        if (left != null) {
+            left.close();
+        }
+        if (atLeast != null) {
+            atLeast.close();
+            above.close();
+        }
+        closeRange();
+        if (rightFile != null) {
+            rightFile.delete();
+            rightFile = null;
+        }
+        rightTuples = null;
+        t1 = null;
+    }
+
+    @Override
+    public int getSortField() {
+        return pred.getField1();
+    }
+
+    @Override
+    public boolean isSortAscending() {
+        return true;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,223 @@
+package simpledb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples of one TupleDesc, for operators
+ * that run out of memory, such as a hash join that partitions its inputs to
+ * disk. Tuples are appended in the format of {@link Field#serialize} and
+ * read back in the order they were added. The file is deleted by
+ * {@link #delete}, or when the JVM exits.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /**
+     * Creates an empty spill file.
+     *
+     * @param td the schema of the tuples of the file
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("simpledb-spill", ".dat");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(this.file), BufferPool.PAGE_SIZE));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the schema of the tuples of this file.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * @return the number of tuples added to this file.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of bytes the tuples of this file take on disk.
+     */
+    public long bytes() {
+        return (long) this.size * this.td.getSize();
+    }
+
+    /**
+     * Appends t to the file.
+     */
+    public void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < this.td.numFields(); i++) {
+                t.getField(i).serialize(this.out);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        this.size++;
+    }
+
+    /**
+     * Appends row of batch to the file.
+     */
+    public void add(TupleBatch batch, int row) throws DbException {
+        try {
+            for (int i = 0; i < this.td.numFields(); i++) {
+                if (this.td.getFieldType(i) == Type.INT_TYPE) {
+                    this.out.writeInt(batch.getIntColumn(i)[row]);
+                } else {
+                    String s = batch.getStringColumn(i)[row];
+                    int len = Math.min(s.length(), Type.STRING_LEN);
+                    this.out.writeInt(len);
+                    for (int j = 0; j < Type.STRING_LEN; j++) {
+                        this.out.write(j < len ? (byte) s.charAt(j) : 0);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        this.size++;
+    }
+
+    /**
+     * Flushes the tuples added so far, so that they can be read back. More
+     * tuples may still be added afterwards.
+     */
+    public void flush() throws DbException {
+        try {
+            this.out.flush();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return an iterator over the tuples of this file, in the order they
+     *         were added. Tuples added after the iterator is opened may or
+     *         may not be returned.
+     */
+    public DbFileIterator iterator() {
+        return new SpillFileIterator(0);
+    }
+
+    /**
+     * @return an iterator over the tuples of this file from the first'th
+     *         one on, in the order they were added. Tuples are of fixed
+     *         size, so the ones before it are not read.
+     */
+    public DbFileIterator iterator(int first) {
+        return new SpillFileIterator(first);
+    }
+
+    /**
+     * Deletes the file. It must not be used afterwards.
+     */
+    public void delete() {
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            // the file is going away anyway
+        }
+        this.file.delete();
+    }
+
+    private class SpillFileIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final int first;
+        private DataInputStream in = null;
+        private int read = 0;
+        private int count = 0;
+
+        SpillFileIterator(int first) {
+            this.first = first;
+        }
+
+        public void open() throws DbException {
+            flush();
+            this.count = size;
+            this.read = Math.min(this.first, this.count);
+            try {
+                FileInputStream fin = new FileInputStream(file);
+                fin.getChannel().position((long) this.read * td.getSize());
+                this.in = new DataInputStream(new BufferedInputStream(
+                        fin, BufferPool.PAGE_SIZE));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+        }
+
+        public boolean hasNext() {
+            if (this.in == null) {
+                throw new IllegalStateException("Iterator not yet open");
+            }
+            return this.read < this.count;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setField(i, new IntField(this.in.readInt()));
+                    } else {
+                        int len = this.in.readInt();
+                        byte[] bs = new byte[Type.STRING_LEN];
+                        this.in.readFully(bs);
+                        char[] cs = new char[len];
+                        for (int j = 0; j < len; j++) {
+                            cs[j] = (char) (bs[j] & 0xff);
+                        }
+                        t.setField(i, new StringField(new String(cs), Type.STRING_LEN));
+                    }
+                }
+            } catch (EOFException e) {
+                throw new DbException("spill file is truncated");
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            this.read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            if (this.in != null) {
+                try {
+                    this.in.close();
+                } catch (IOException e) {
+                    // nothing was written through it
+                }
+                this.in = null;
+            }
+        }
+    }
+}
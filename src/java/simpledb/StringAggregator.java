@@ -1,22 +1,16 @@
 package simpledb;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-
 import simpledb.Aggregator.Op;
 
 /**
- * Knows how to compute some aggregate over a set of StringFields.
+ * Knows how to compute some aggregate over a set of StringFields. Counting
+ * does not depend on the type of the values counted, so the groups are
+ * kept by an {@link IntegerAggregator} that counts.
  */
 public class StringAggregator implements Aggregator {
 
 	private static final long serialVersionUID = 1L;
-	private int gbField;
-	private Type gbFieldType;
-	private int aField;
-	private Op what;
-	private HashMap<Field, Integer> aggregateCounter;
+	private IntegerAggregator counter;
 
 	/**
 	 * Aggregate constructor
@@ -32,11 +26,8 @@ public class StringAggregator implements Aggregator {
 		if(what != Op.COUNT) {
 			throw new IllegalArgumentException();
 		}
-		this.gbField = gbfield;
-		this.gbFieldType = gbfieldtype;
-		this.aField = afield;
-		this.what = what;
-		this.aggregateCounter = new HashMap<Field, Integer>();
+		this.counter = new IntegerAggregator(gbfieldtype == null ? Aggregator.NO_GROUPING : gbfield,
+				gbfieldtype, afield, what);
 	}
 
 	/**
@@ -45,20 +36,11 @@ public class StringAggregator implements Aggregator {
 	 */
 	public void mergeTupleIntoGroup(Tuple tup) {
 		// some code goes here
-		Field key;
-		if (this.gbFieldType == null) {
-			key = new IntField(-1);
-		}
-		else {
-			key = tup.getField(this.gbField);
-		}
+		this.counter.mergeTupleIntoGroup(tup);
+	}
 
-		if(aggregateCounter.get(key) == null) {
-			aggregateCounter.put(key, 1);
-		}
-		else {
-			aggregateCounter.put(key, aggregateCounter.get(key) + 1);
-		}
+	public void mergeBatchIntoGroups(TupleBatch batch) {
+		this.counter.mergeBatchIntoGroups(batch);
 	}
 
 	/**
@@ -71,36 +53,26 @@ public class StringAggregator implements Aggregator {
 	 */
 	public DbIterator iterator() {
 		// some code goes here
-		TupleDesc tupleDesc;
-		Type [] descTypes;
-		String [] descNames;
+		return this.counter.iterator();
+	}
 
-		if(this.gbFieldType != null) {
-			descTypes = new Type[]{this.gbFieldType,Type.INT_TYPE};
-			descNames = new String[]{"groupVal", "aggregateVal"};
-		}
-		else {
-			descTypes = new Type[]{Type.INT_TYPE};
-			descNames = new String[]{"aggregateVal"};		
-		}
-		tupleDesc = new TupleDesc(descTypes, descNames);
+	public int numGroups() {
+		return this.counter.numGroups();
+	}
 
-		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-		Iterator<Field> keyIterator = this.aggregateCounter.keySet().iterator();
-		Field currentKey;
-		Tuple toAdd;
-		while(keyIterator.hasNext()) {
-			currentKey = keyIterator.next();
-			toAdd = new Tuple(tupleDesc);
-			if(this.gbFieldType != null) {
-				toAdd.setField(0, currentKey);
-				toAdd.setField(1, new IntField(this.aggregateCounter.get(currentKey)));					
-			}
-			else {
-				toAdd.setField(0, new IntField(this.aggregateCounter.get(currentKey)));					
-			}
-			tuples.add(toAdd);
-		}
-		return new TupleIterator(tupleDesc, tuples);
+	public TupleDesc getPartialTupleDesc() {
+		return this.counter.getPartialTupleDesc();
+	}
+
+	public DbIterator partialIterator() {
+		return this.counter.partialIterator();
+	}
+
+	public void mergePartial(Tuple partial) {
+		this.counter.mergePartial(partial);
+	}
+
+	public void clear() {
+		this.counter.clear();
 	}
 }
@@ -77,8 +77,18 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
+		if (op == Predicate.Op.LIKE) {
+			return value.indexOf(iVal.value) >= 0;
+		}
+
+		return compare(value.compareTo(iVal.value), op);
+	}
 
+	/**
+	 * Maps the result of a compareTo between this field's value and the
+	 * operand to the result of {@link #compare} for every op but LIKE.
+	 */
+	static boolean compare(int cmpVal, Predicate.Op op) {
 		switch (op) {
 		case EQUALS:
 			return cmpVal == 0;
@@ -98,11 +108,9 @@ public class StringField implements Field {
 		case LESS_THAN_OR_EQ:
 			return cmpVal <= 0;
 
-		case LIKE:
-			return value.indexOf(iVal.value) >= 0;
+		default:
+			return false;
 		}
-
-		return false;
 	}
 
 	/**
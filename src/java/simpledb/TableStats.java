@@ -145,6 +145,8 @@ public class TableStats {
 		} catch (TransactionAbortedException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			tableIterator.close();
 		}
     	return toReturn;
     }
@@ -166,6 +168,8 @@ public class TableStats {
 		} catch (TransactionAbortedException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			tableIterator.close();
 		}
 		
     }
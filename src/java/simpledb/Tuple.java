@@ -1,6 +1,9 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -16,6 +19,9 @@ public class Tuple implements Serializable {
     private TupleDesc schema;
     private ArrayList<Field> fields = new ArrayList<Field>();
     private RecordId recordId;
+    // encoded tuple that fields not set yet are decoded from, if any
+    private transient ByteBuffer source;
+    private transient int sourceOffset;
  
     /**
      * Create a new tuple with the specified schema (type).
@@ -32,6 +38,24 @@ public class Tuple implements Serializable {
     	}
     }
 
+    /**
+     * Create a new tuple whose fields are decoded from the encoded tuple at
+     * offset in source when they are first read. source must not change
+     * while the tuple is in use.
+     * 
+     * @param td
+     *            the schema of this tuple.
+     * @param source
+     *            the buffer holding the encoded tuple
+     * @param offset
+     *            absolute offset of the encoded tuple in source
+     */
+    Tuple(TupleDesc td, ByteBuffer source, int offset) {
+        this(td);
+        this.source = source;
+        this.sourceOffset = offset;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -87,13 +111,54 @@ public class Tuple implements Serializable {
     public Field getField(int i) {
         // some code goes here
     	try {
-    		return this.fields.get(i);
+    		Field f = this.fields.get(i);
+    		if (f == null && this.source != null) {
+    			f = this.schema.getFieldType(i).parse(this.source,
+    					this.sourceOffset + this.schema.getFieldOffset(i));
+    			this.fields.set(i, f);
+    		}
+    		return f;
     	}
     	catch (NullPointerException e) {
     		throw new NullPointerException();
     	}
     }
 
+    /**
+     * Compares the ith field of this tuple to operand, as
+     * getField(i).compare(op, operand) would, but against the encoded field
+     * if it has not been decoded yet.
+     * 
+     * @param i
+     *            field index to compare. Must be a valid index.
+     */
+    public boolean compareField(int i, Predicate.Op op, Field operand) {
+    	if (this.source == null || this.fields.get(i) != null) {
+    		return getField(i).compare(op, operand);
+    	}
+    	return this.schema.getFieldType(i).compare(this.source,
+    			this.sourceOffset + this.schema.getFieldOffset(i), op, operand);
+    }
+
+    /**
+     * Decodes every field not decoded yet, so that this tuple no longer
+     * depends on the bytes it was read from.
+     */
+    void materialize() {
+    	if (this.source == null) {
+    		return;
+    	}
+    	for (int i = 0; i < this.fields.size(); i++) {
+    		getField(i);
+    	}
+    	this.source = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+    	materialize();
+    	out.defaultWriteObject();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -105,8 +170,8 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuffer toReturn = new StringBuffer();
-        for(Field f : this.fields){
-        	toReturn.append(f + " ");
+        for(int i = 0; i < this.fields.size(); i++){
+        	toReturn.append(getField(i) + " ");
         }
         return toReturn.toString().trim() + "\n";
     }
@@ -118,6 +183,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+        materialize();
         return this.fields.iterator();
     }
 }
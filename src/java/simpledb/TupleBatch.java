@@ -0,0 +1,326 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of one TupleDesc in columnar
+ * form: an int[] per INT_TYPE column and a String[] per STRING_TYPE column.
+ * Batches are passed between operators by {@link BatchIterator#nextBatch}.
+ * <p>
+ * Rows are appended with {@link #addRow}. The selection vector lists, in
+ * ascending order, the rows that are still part of the batch; operators
+ * such as a filter drop rows by shrinking it rather than by moving any
+ * column data. A batch returned by nextBatch belongs to the operator that
+ * returned it and is only valid until the next call.
+ */
+public class TupleBatch {
+
+    /** Number of rows in a batch unless an operator asks for another size. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private TupleDesc td;
+    private int capacity;
+    private int[][] ints;
+    private String[][] strings;
+    // where each row was read from, if anywhere; RecordIds are only
+    // created when a row is turned back into a Tuple
+    private PageId[] pageIds;
+    private int[] tupleNos;
+    private int numRows;
+    private int[] selection;
+    private int numSelected;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the schema of the rows of this batch
+     * @param capacity the maximum number of rows of this batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                this.ints[i] = new int[capacity];
+            } else {
+                this.strings[i] = new String[capacity];
+            }
+        }
+        this.pageIds = new PageId[capacity];
+        this.tupleNos = new int[capacity];
+        this.selection = new int[capacity];
+    }
+
+    private TupleBatch(TupleDesc td) {
+        this.td = td;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+    }
+
+    /**
+     * @return a batch without columns of its own, for {@link #project} to
+     *         fill with views of other batches' columns.
+     * @param td the schema of the projected rows
+     */
+    public static TupleBatch projection(TupleDesc td) {
+        return new TupleBatch(td);
+    }
+
+    /**
+     * Makes this batch a view of the given columns of source: its ith column
+     * is column fields[i] of source. No column data is copied, so the view is
+     * only valid as long as source is.
+     */
+    public void project(TupleBatch source, int[] fields) {
+        for (int i = 0; i < fields.length; i++) {
+            this.ints[i] = source.ints[fields[i]];
+            this.strings[i] = source.strings[fields[i]];
+        }
+        this.capacity = source.capacity;
+        this.pageIds = source.pageIds;
+        this.tupleNos = source.tupleNos;
+        this.numRows = source.numRows;
+        this.selection = source.selection;
+        this.numSelected = source.numSelected;
+    }
+
+    /**
+     * @return the schema of the rows of this batch.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * @return the maximum number of rows of this batch.
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return the number of rows added since the batch was last cleared,
+     *         whether selected or not.
+     */
+    public int numRows() {
+        return this.numRows;
+    }
+
+    /**
+     * @return true if no more rows can be added.
+     */
+    public boolean isFull() {
+        return this.numRows == this.capacity;
+    }
+
+    /**
+     * Removes all rows.
+     */
+    public void clear() {
+        this.numRows = 0;
+        this.numSelected = 0;
+    }
+
+    /**
+     * Appends an empty, selected row.
+     *
+     * @return the index of the new row
+     */
+    public int addRow() {
+        int row = this.numRows++;
+        this.pageIds[row] = null;
+        this.selection[this.numSelected++] = row;
+        return row;
+    }
+
+    /**
+     * @return the selection vector; its first {@link #numSelected} entries
+     *         are the rows of this batch, in ascending order.
+     */
+    public int[] getSelection() {
+        return this.selection;
+    }
+
+    /**
+     * @return the number of rows in the selection vector.
+     */
+    public int numSelected() {
+        return this.numSelected;
+    }
+
+    /**
+     * Truncates the selection vector, e.g. after compacting it in place.
+     */
+    public void setNumSelected(int n) {
+        this.numSelected = n;
+    }
+
+    /**
+     * @return the values of INT_TYPE column i, indexed by row.
+     */
+    public int[] getIntColumn(int i) {
+        return this.ints[i];
+    }
+
+    /**
+     * @return the values of STRING_TYPE column i, indexed by row.
+     */
+    public String[] getStringColumn(int i) {
+        return this.strings[i];
+    }
+
+    /**
+     * Records that row was read from slot tupleNo of page pid.
+     */
+    public void setRecordId(int row, PageId pid, int tupleNo) {
+        this.pageIds[row] = pid;
+        this.tupleNos[row] = tupleNo;
+    }
+
+    /**
+     * @return the value of column i of row as a Field.
+     */
+    public Field getField(int i, int row) {
+        if (this.ints[i] != null) {
+            return new IntField(this.ints[i][row]);
+        }
+        return new StringField(this.strings[i][row], Type.STRING_LEN);
+    }
+
+    /**
+     * @return the value of column i of row as an Integer or a String, which
+     *         compare and hash like the corresponding Fields.
+     */
+    public Object getValue(int i, int row) {
+        if (this.ints[i] != null) {
+            return Integer.valueOf(this.ints[i][row]);
+        }
+        return this.strings[i][row];
+    }
+
+    /**
+     * @return the value of f as an Integer or a String, as
+     *         {@link #getValue} returns it.
+     */
+    public static Object valueOf(Field f) {
+        if (f instanceof IntField) {
+            return Integer.valueOf(((IntField) f).getValue());
+        }
+        return ((StringField) f).getValue();
+    }
+
+    /**
+     * Sets columns start, start+1, ... of row to the fields of t.
+     */
+    public void setFields(int row, Tuple t, int start) {
+        int n = t.getTupleDesc().numFields();
+        for (int i = 0; i < n; i++) {
+            Field f = t.getField(i);
+            if (this.ints[start + i] != null) {
+                this.ints[start + i][row] = ((IntField) f).getValue();
+            } else {
+                this.strings[start + i][row] = ((StringField) f).getValue();
+            }
+        }
+    }
+
+    /**
+     * Sets columns start, start+1, ... of row to the columns of srcRow of
+     * src.
+     */
+    public void copyFields(int row, TupleBatch src, int srcRow, int start) {
+        int n = src.td.numFields();
+        for (int i = 0; i < n; i++) {
+            if (this.ints[start + i] != null) {
+                this.ints[start + i][row] = src.ints[i][srcRow];
+            } else {
+                this.strings[start + i][row] = src.strings[i][srcRow];
+            }
+        }
+    }
+
+    /**
+     * @return a new batch holding a copy of the selected rows of this one,
+     *         e.g. to hand it to another thread while this one is reused.
+     */
+    public TupleBatch copySelected() {
+        TupleBatch copy = new TupleBatch(this.td, Math.max(this.numSelected, 1));
+        for (int k = 0; k < this.numSelected; k++) {
+            int src = this.selection[k];
+            int row = copy.addRow();
+            copy.copyFields(row, this, src, 0);
+            if (this.pageIds[src] != null) {
+                copy.setRecordId(row, this.pageIds[src], this.tupleNos[src]);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Sets every column of row to the tuple encoded at offset in buf.
+     */
+    void decodeFields(int row, ByteBuffer buf, int offset) {
+        for (int i = 0; i < this.ints.length; i++) {
+            int fieldOffset = offset + this.td.getFieldOffset(i);
+            if (this.ints[i] != null) {
+                this.ints[i][row] = buf.getInt(fieldOffset);
+            } else {
+                int strLen = buf.getInt(fieldOffset);
+                char cs[] = new char[strLen];
+                for (int j = 0; j < strLen; j++)
+                    cs[j] = (char) (buf.get(fieldOffset + 4 + j) & 0xff);
+                this.strings[i][row] = new String(cs);
+            }
+        }
+    }
+
+    /**
+     * @return row as a new Tuple of this batch's TupleDesc, with the
+     *         RecordId of the slot it was read from, if any.
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(this.td);
+        for (int i = 0; i < this.ints.length; i++) {
+            t.setField(i, getField(i, row));
+        }
+        if (this.pageIds[row] != null) {
+            t.setRecordId(new RecordId(this.pageIds[row], this.tupleNos[row]));
+        }
+        return t;
+    }
+
+    /**
+     * Reads the selected rows of a sequence of batches as Tuples, for
+     * operators that produce batches but are consumed a tuple at a time.
+     */
+    static class Cursor {
+        private TupleBatch batch;
+        private int pos;
+
+        /**
+         * @return the next selected row of source as a Tuple, or null if
+         *         source has no more batches.
+         */
+        Tuple next(BatchIterator source) throws DbException,
+                TransactionAbortedException {
+            while (this.batch == null || this.pos == this.batch.numSelected()) {
+                this.batch = source.nextBatch();
+                this.pos = 0;
+                if (this.batch == null) {
+                    return null;
+                }
+            }
+            return this.batch.getTuple(this.batch.getSelection()[this.pos++]);
+        }
+
+        /**
+         * Forgets the current batch, e.g. after its source was rewound.
+         */
+        void reset() {
+            this.batch = null;
+            this.pos = 0;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Compares tuples on one or more fields, most significant first.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    int[] fields;
+    boolean[] asc;
+
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
+        this.asc = asc;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            int c = compareFields(o1.getField(fields[i]), o2.getField(fields[i]));
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    /**
+     * Compares two fields of the same type in ascending order.
+     */
+    static int compareFields(Field t1, Field t2) {
+        if (t1 instanceof IntField) {
+            int v1 = ((IntField) t1).getValue();
+            int v2 = ((IntField) t2).getValue();
+            return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+        }
+        return ((StringField) t1).getValue().compareTo(((StringField) t2).getValue());
+    }
+    
+}
@@ -47,6 +47,8 @@ public class TupleDesc implements Serializable {
     
     private ArrayList<TDItem> tupleAr = new ArrayList<TDItem>();
     private static final long serialVersionUID = 1L;
+    // byte offset of each field in an encoded tuple, computed on first use
+    private transient int[] fieldOffsets;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -165,6 +167,26 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * @return the offset (in bytes) of the ith field from the start of an
+     *         encoded tuple of this TupleDesc.
+     * @param i
+     *            index of the field. It must be a valid index.
+     */
+    public int getFieldOffset(int i) {
+        int[] offsets = this.fieldOffsets;
+        if (offsets == null) {
+            offsets = new int[tupleAr.size()];
+            int offset = 0;
+            for (int j = 0; j < offsets.length; j++) {
+                offsets[j] = offset;
+                offset += tupleAr.get(j).fieldType.getLen();
+            }
+            this.fieldOffsets = offsets;
+        }
+        return offsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha). New pages enter a FIFO queue
+ * (A1in). Pages evicted from A1in are remembered in a ghost queue (A1out);
+ * a page that is requested again while it is remembered there has proven it
+ * is re-referenced and is admitted to the main LRU queue (Am). Pages that are
+ * touched once, as in a large scan, never displace the hot set in Am.
+ * All operations are O(1) apart from skipping pages the filter rejects.
+ */
+public class TwoQueuePolicy extends EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    private LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    private LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    private LinkedHashSet<PageId> am = new LinkedHashSet<PageId>();
+
+    /**
+     * Sizes A1in at a quarter of the cache and A1out at half of it, the
+     * settings recommended in the original paper.
+     *
+     * @param capacity
+     *            the maximum number of resident pages
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.kin = Math.max(1, capacity / 4);
+        this.kout = Math.max(1, capacity / 2);
+    }
+
+    protected void onHit(PageId pid) {
+        // hits in A1in are deliberately ignored: a page has to survive
+        // eviction from A1in before it counts as hot
+        if (am.remove(pid))
+            am.add(pid);
+    }
+
+    public void pageAdmitted(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid)) {
+            onHit(pid);
+            return;
+        }
+        if (a1out.remove(pid))
+            am.add(pid);
+        else
+            a1in.add(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+    }
+
+    public PageId evict(VictimFilter filter) {
+        PageId victim;
+        if (a1in.size() > kin) {
+            victim = evictFrom(a1in, filter);
+            if (victim != null) {
+                remember(victim);
+                return victim;
+            }
+            return evictFrom(am, filter);
+        }
+        victim = evictFrom(am, filter);
+        if (victim != null)
+            return victim;
+        victim = evictFrom(a1in, filter);
+        if (victim != null)
+            remember(victim);
+        return victim;
+    }
+
+    public String getName() {
+        return "2Q";
+    }
+
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > kout) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static PageId evictFrom(LinkedHashSet<PageId> queue,
+            VictimFilter filter) {
+        Iterator<PageId> it = queue.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (filter.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,21 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand) {
+            return IntField.compare(buf.getInt(offset), op, ((IntField) operand).getValue());
+        }
+
+        @Override
+        public int hash(ByteBuffer buf, int offset) {
+            return buf.getInt(offset);
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +58,42 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            char cs[] = new char[strLen];
+            for (int i = 0; i < strLen; i++)
+                cs[i] = (char) (buf.get(offset + 4 + i) & 0xff);
+            return new StringField(new String(cs), STRING_LEN);
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand) {
+            if (op == Predicate.Op.LIKE) {
+                return super.compare(buf, offset, op, operand);
+            }
+            // String.compareTo over the encoded characters
+            String other = ((StringField) operand).getValue();
+            int strLen = buf.getInt(offset);
+            int n = Math.min(strLen, other.length());
+            for (int i = 0; i < n; i++) {
+                int c = (buf.get(offset + 4 + i) & 0xff) - other.charAt(i);
+                if (c != 0)
+                    return StringField.compare(c, op);
+            }
+            return StringField.compare(strLen - other.length(), op);
+        }
+
+        @Override
+        public int hash(ByteBuffer buf, int offset) {
+            // String.hashCode over the encoded characters
+            int strLen = buf.getInt(offset);
+            int h = 0;
+            for (int i = 0; i < strLen; i++)
+                h = 31 * h + (buf.get(offset + 4 + i) & 0xff);
+            return h;
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +112,37 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents
+   *   are encoded in buf at the given absolute offset, in the same format
+   *   {@link Field#serialize} writes. buf's position is not changed.
+   * @param buf the buffer holding the encoded field
+   * @param offset absolute offset of the field in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Compares the field encoded in buf at the given offset to operand,
+   * without decoding it where the type allows.
+   * @return the result of {@link Field#compare} on the decoded field.
+   * @param buf the buffer holding the encoded field
+   * @param offset absolute offset of the field in buf
+   * @param op the comparison
+   * @param operand the field to compare against
+   */
+    public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand) {
+        return parse(buf, offset).compare(op, operand);
+    }
+
+  /**
+   * @return the hash code of the value of the field encoded in buf at the
+   *   given offset, as {@link TupleBatch#valueOf} returns it, without
+   *   decoding it where the type allows.
+   * @param buf the buffer holding the encoded field
+   * @param offset absolute offset of the field in buf
+   */
+    public int hash(ByteBuffer buf, int offset) {
+        return TupleBatch.valueOf(parse(buf, offset)).hashCode();
+    }
+
 }
@@ -2,13 +2,19 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -176,6 +182,121 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * @return the aggregate of each group in it, checking that every group
+   *   appears once.
+   */
+  private HashMap<Integer, Integer> groups(DbIterator it) throws Exception {
+    HashMap<Integer, Integer> groups = new HashMap<Integer, Integer>();
+    while (it.hasNext()) {
+      ArrayList<Integer> row = SystemTestUtil.tupleToList(it.next());
+      assertNull(groups.put(row.get(0), row.get(1)));
+    }
+    return groups;
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() over more groups than fit in the
+   * memory budget, which are spilled to disk and partitioned
+   */
+  @Test public void spillGroups() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 3000, null, tuples);
+    TransactionId tid = new TransactionId();
+    for (Aggregator.Op aop : Aggregator.Op.values()) {
+      Aggregate inMemory = new Aggregate(new SeqScan(tid, hf.getId(), "t"), 1, 0, aop);
+      // room for 50 groups, so that the spilled partitions are partitioned
+      // again
+      Aggregate spilled = new Aggregate(new SeqScan(tid, hf.getId(), "t"), 1, 0, aop, 1000);
+      inMemory.open();
+      spilled.open();
+      HashMap<Integer, Integer> expected = groups(inMemory);
+      assertEquals(expected, groups(spilled));
+      spilled.rewind();
+      assertEquals(expected, groups(spilled));
+      spilled.close();
+      inMemory.close();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() over an Exchange, which aggregates
+   * each partition on its own worker and merges the partial aggregates
+   */
+  @Test public void parallelGroups() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 3000, null, tuples);
+    TransactionId tid = new TransactionId();
+    for (Aggregator.Op aop : Aggregator.Op.values()) {
+      Aggregate serial = new Aggregate(new SeqScan(tid, hf.getId(), "t"), 1, 0, aop);
+      serial.open();
+      HashMap<Integer, Integer> expected = groups(serial);
+      serial.close();
+      // with the small budget the workers spill too
+      for (long budget : new long[] { Aggregate.DEFAULT_MEMORY_BUDGET, 1000 }) {
+        Aggregate parallel = new Aggregate(Exchange.parallelScan(tid, hf.getId(), "t", 4),
+            1, 0, aop, budget);
+        parallel.open();
+        assertEquals(expected, groups(parallel));
+        parallel.close();
+      }
+    }
+
+    // without grouping, AVG combines the sums and counts of the workers
+    Aggregate avg = new Aggregate(Exchange.parallelScan(tid, hf.getId(), "t", 4),
+        1, Aggregator.NO_GROUPING, Aggregator.Op.AVG);
+    avg.open();
+    long sum = 0;
+    for (ArrayList<Integer> t : tuples) {
+      sum += t.get(1);
+    }
+    assertEquals((int) (sum / tuples.size()),
+        ((IntField) avg.next().getField(0)).getValue());
+    assertTrue(TestUtil.checkExhausted(avg));
+    avg.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() over a child sorted on the group-by
+   * field, which aggregates one group at a time and returns the groups in
+   * the child's order
+   */
+  @Test public void sortedInput() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples);
+    TransactionId tid = new TransactionId();
+    for (Aggregator.Op aop : Aggregator.Op.values()) {
+      Aggregate hashed = new Aggregate(new SeqScan(tid, hf.getId(), "t"), 1, 0, aop);
+      hashed.open();
+      HashMap<Integer, Integer> expected = groups(hashed);
+      hashed.close();
+
+      OrderBy sorted = new OrderBy(0, false, new SeqScan(tid, hf.getId(), "t"));
+      assertEquals(0, Operator.sortFieldOf(sorted));
+      Aggregate streamed = new Aggregate(sorted, 1, 0, aop);
+      streamed.setInputSorted(true);
+      assertEquals(0, streamed.getSortField());
+      streamed.open();
+      ArrayList<Integer> keys = new ArrayList<Integer>();
+      HashMap<Integer, Integer> actual = new HashMap<Integer, Integer>();
+      while (streamed.hasNext()) {
+        ArrayList<Integer> row = SystemTestUtil.tupleToList(streamed.next());
+        keys.add(row.get(0));
+        assertNull(actual.put(row.get(0), row.get(1)));
+      }
+      assertEquals(expected, actual);
+      for (int i = 1; i < keys.size(); i++) {
+        assertTrue(keys.get(i - 1) > keys.get(i));
+      }
+      streamed.rewind();
+      assertEquals(expected, groups(streamed));
+      streamed.close();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
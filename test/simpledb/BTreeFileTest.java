@@ -0,0 +1,151 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private BTreeFile index;
+    private TransactionId tid;
+
+    /**
+     * A table of 3000 tuples with many duplicate keys in column 0, which is
+     * indexed.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, tuples, "c");
+        index = createIndex();
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private BTreeFile createIndex() throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        BTreeFile index = BTreeFile.create(f, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private void checkLookups() throws Exception {
+        for (Predicate.Op op : OPS) {
+            for (int operand : new int[] { -1, 0, 57, 100, 199, 250 }) {
+                TestUtil.checkIndexScan(tid, index, tuples, op, operand);
+            }
+        }
+    }
+
+    /**
+     * Equality and range lookups in a bulk-loaded index.
+     */
+    @Test
+    public void lookups() throws Exception {
+        assertTrue(index.numPages() > 2);
+        checkLookups();
+    }
+
+    /**
+     * Inserts into an empty index, which split its leaves.
+     */
+    @Test
+    public void inserts() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = tuples;
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 0, 200, null, tuples, "c");
+        index = createIndex();
+        assertEquals(1, index.numPages());
+        for (ArrayList<Integer> row : rows) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(row.get(0)));
+            t.setField(1, new IntField(row.get(1)));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertTrue(index.numPages() > 3);
+        checkLookups();
+    }
+
+    /**
+     * Deleted tuples are removed from the index.
+     */
+    @Test
+    public void deletes() throws Exception {
+        Delete delete = new Delete(tid, new IndexScan(tid, index, "t",
+                Predicate.Op.LESS_THAN, new IntField(100)));
+        delete.open();
+        assertEquals(TestUtil.matchingRows(tuples, Predicate.Op.LESS_THAN, 100).size(),
+                ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        ArrayList<ArrayList<Integer>> rest = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= 100) {
+                rest.add(t);
+            }
+        }
+        tuples = rest;
+        checkLookups();
+    }
+
+    /**
+     * The planner reads the table with an index scan for a selective filter
+     * on the indexed field only.
+     */
+    @Test
+    public void physicalPlan() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        String name = Database.getCatalog().getTableName(table.getId());
+        stats.put(name, new TableStats(table.getId(), 1000));
+        String field = "t." + table.getTupleDesc().getFieldName(0);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter(field, Predicate.Op.EQUALS, "57");
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(TestUtil.hasOperator(plan, IndexScan.class));
+        plan.open();
+        assertEquals(TestUtil.matchingRows(tuples, Predicate.Op.EQUALS, 57),
+                TestUtil.sortedRows(plan, true));
+        plan.close();
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter(field, Predicate.Op.GREATER_THAN, "57");
+        lp.addProjectField("*", null);
+        assertFalse(TestUtil.hasOperator(lp.physicalPlan(tid, stats, false), IndexScan.class));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchSeqScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 500;
+    private static final int BATCH = 100;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up a table spanning two pages, with values small enough to repeat
+     * so that filters, joins and groups are not trivial.
+     */
+    @Before
+    public void setUp() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 50, null, null);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private BatchSeqScan batchScan() {
+        return new BatchSeqScan(tid, hf.getId(), "t", BATCH);
+    }
+
+    private int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Unit test for BatchSeqScan.nextBatch()
+     */
+    @Test
+    public void nextBatch() throws Exception {
+        BatchSeqScan scan = batchScan();
+        scan.open();
+        int rows = 0;
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            assertTrue(batch.numSelected() <= BATCH);
+            rows += batch.numSelected();
+        }
+        assertEquals(ROWS, rows);
+        assertNull(scan.nextBatch());
+
+        scan.rewind();
+        assertEquals(BATCH, scan.nextBatch().numSelected());
+        scan.close();
+    }
+
+    /**
+     * A batched scan read a tuple at a time returns the same tuples, in the
+     * same order and with the same RecordIds, as a SeqScan.
+     */
+    @Test
+    public void sameTuplesAsSeqScan() throws Exception {
+        SeqScan expected = new SeqScan(tid, hf.getId(), "t");
+        BatchSeqScan actual = batchScan();
+        expected.open();
+        actual.open();
+        while (expected.hasNext()) {
+            assertTrue(actual.hasNext());
+            Tuple e = expected.next();
+            Tuple a = actual.next();
+            assertTrue(TestUtil.compareTuples(e, a));
+            assertEquals(e.getRecordId(), a.getRecordId());
+        }
+        assertTrue(TestUtil.checkExhausted(actual));
+    }
+
+    /**
+     * Filter and Project over batches agree with their tuple-at-a-time
+     * versions.
+     */
+    @Test
+    public void filterAndProject() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20));
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+
+        Project expected = new Project(fields, types,
+                new Filter(p, new SeqScan(tid, hf.getId(), "t")));
+        Project actual = new Project(fields, types, new Filter(p, batchScan()));
+        assertTrue(actual.isBatchSource());
+
+        expected.open();
+        actual.open();
+        TestUtil.compareDbIterators(expected, actual);
+    }
+
+    /**
+     * HashEquiJoin probing batches finds the same matches as a nested-loop
+     * join.
+     */
+    @Test
+    public void hashJoin() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 200, 100, null, null);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        Join expected = new Join(p, new SeqScan(tid, small.getId(), "a"),
+                new SeqScan(tid, small.getId(), "b"));
+        HashEquiJoin actual = new HashEquiJoin(p, new SeqScan(tid, small.getId(), "a"),
+                new BatchSeqScan(tid, small.getId(), "b", BATCH));
+        assertTrue(actual.isBatchSource());
+
+        assertEquals(count(expected), count(actual));
+        expected.open();
+        actual.open();
+        TestUtil.matchAllTuples(expected, actual);
+    }
+
+    /**
+     * Aggregate over batches computes the same groups.
+     */
+    @Test
+    public void aggregate() throws Exception {
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            Aggregate expected = new Aggregate(new SeqScan(tid, hf.getId(), "t"), 1, 0, op);
+            Aggregate actual = new Aggregate(batchScan(), 1, 0, op);
+            assertEquals(count(expected), count(actual));
+            expected.open();
+            actual.open();
+            TestUtil.matchAllTuples(expected, actual);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchSeqScanTest.class);
+    }
+}
@@ -7,6 +7,8 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -211,6 +213,46 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Unit test for victim selection: only the youngest transaction on the
+   * cycle is aborted, and the older one is granted its lock.
+   */
+  @Test public void testYoungestVictim() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    lg2.join();
+    lg1.join();
+
+    assertTrue(lg2.getError() instanceof TransactionAbortedException);
+    assertTrue(lg1.acquired());
+    assertEquals(1, bp.getLockManager().getDeadlockCount());
+    bp.transactionComplete(tid1);
+  }
+
+  /**
+   * Unit test for waits without a deadlock: however long a transaction
+   * waits, it is not aborted.
+   */
+  @Test public void testLongWaitNotAborted() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_ONLY);
+    Thread.sleep(1000);
+    assertFalse(lg2.acquired());
+    assertNull(lg2.getError());
+
+    bp.transactionComplete(tid1);
+    lg2.join();
+    assertTrue(lg2.acquired());
+    assertEquals(0, bp.getLockManager().getDeadlockCount());
+    assertEquals(1, bp.getLockManager().getLockWaitCount());
+    assertTrue(bp.getLockManager().getLockWaitTimeNanos() >= 1000000000L);
+    bp.transactionComplete(tid2);
+  }
+
   /**
    * JUnit suite target
    */
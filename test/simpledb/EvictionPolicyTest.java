@@ -0,0 +1,219 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final EvictionPolicy.VictimFilter ANY = new EvictionPolicy.VictimFilter() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /** Simulates a request for pgNo against a cache of the given size. */
+    private static void access(EvictionPolicy policy, java.util.Set<PageId> resident,
+            int capacity, int pgNo) {
+        PageId pid = pid(pgNo);
+        if (resident.contains(pid)) {
+            policy.pageHit(pid);
+            return;
+        }
+        policy.pageMissed(pid);
+        while (resident.size() >= capacity)
+            assertTrue(resident.remove(policy.evict(ANY)));
+        resident.add(pid);
+        policy.pageAdmitted(pid);
+    }
+
+    /**
+     * Unit test for LruPolicy: the least recently used page goes first.
+     */
+    @Test public void lruOrder() {
+        EvictionPolicy lru = EvictionPolicy.create(EvictionPolicy.Kind.LRU, 3);
+        lru.pageAdmitted(pid(0));
+        lru.pageAdmitted(pid(1));
+        lru.pageAdmitted(pid(2));
+        lru.pageHit(pid(0));
+        assertEquals(pid(1), lru.evict(ANY));
+        assertEquals(pid(2), lru.evict(ANY));
+        assertEquals(pid(0), lru.evict(ANY));
+        assertNull(lru.evict(ANY));
+    }
+
+    /**
+     * Unit test for ClockPolicy: referenced pages get a second chance.
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy clock = EvictionPolicy.create(EvictionPolicy.Kind.CLOCK, 3);
+        clock.pageAdmitted(pid(0));
+        clock.pageAdmitted(pid(1));
+        clock.pageAdmitted(pid(2));
+        // first sweep clears every bit, so the hand comes back to page 0
+        assertEquals(pid(0), clock.evict(ANY));
+        clock.pageAdmitted(pid(3));
+        clock.pageHit(pid(1));
+        assertEquals(pid(2), clock.evict(ANY));
+    }
+
+    /**
+     * Unit test for the VictimFilter: rejected pages are never evicted.
+     */
+    @Test public void filterSkipsPages() {
+        EvictionPolicy.Kind[] kinds = EvictionPolicy.Kind.values();
+        final PageId pinned = pid(0);
+        EvictionPolicy.VictimFilter notPinned = new EvictionPolicy.VictimFilter() {
+            public boolean canEvict(PageId p) {
+                return !p.equals(pinned);
+            }
+        };
+        for (int i = 0; i < kinds.length; i++) {
+            EvictionPolicy policy = EvictionPolicy.create(kinds[i], 2);
+            policy.pageAdmitted(pid(0));
+            policy.pageAdmitted(pid(1));
+            assertEquals(kinds[i].toString(), pid(1), policy.evict(notPinned));
+            assertNull(kinds[i].toString(), policy.evict(notPinned));
+        }
+    }
+
+    /**
+     * Unit test for scan resistance: a hot page survives a long scan under
+     * LRU-K, 2Q and ARC, but not under LRU.
+     */
+    @Test public void scanResistance() {
+        EvictionPolicy.Kind[] kinds = new EvictionPolicy.Kind[] {
+                EvictionPolicy.Kind.LRU_K, EvictionPolicy.Kind.TWO_Q,
+                EvictionPolicy.Kind.ARC };
+        for (int i = 0; i < kinds.length; i++) {
+            assertTrue(kinds[i].toString(), hotPageSurvivesScan(kinds[i]));
+        }
+        assertTrue(!hotPageSurvivesScan(EvictionPolicy.Kind.LRU));
+    }
+
+    private boolean hotPageSurvivesScan(EvictionPolicy.Kind kind) {
+        int capacity = 8;
+        EvictionPolicy policy = EvictionPolicy.create(kind, capacity);
+        java.util.Set<PageId> resident = new java.util.HashSet<PageId>();
+        // make page 0 hot; for 2Q it has to come back after leaving A1in
+        for (int round = 0; round < 3; round++) {
+            access(policy, resident, capacity, 0);
+            access(policy, resident, capacity, 0);
+            for (int i = 1; i <= capacity; i++)
+                access(policy, resident, capacity, 1000 * (round + 1) + i);
+        }
+        access(policy, resident, capacity, 0);
+        access(policy, resident, capacity, 0);
+        // a one-pass scan of pages that are never seen again
+        for (int i = 0; i < 4 * capacity; i++)
+            access(policy, resident, capacity, 100000 + i);
+        return resident.contains(pid(0));
+    }
+
+    /**
+     * Unit test for the hit ratio statistics.
+     */
+    @Test public void hitRatio() {
+        EvictionPolicy policy = EvictionPolicy.create(EvictionPolicy.Kind.ARC, 4);
+        java.util.Set<PageId> resident = new java.util.HashSet<PageId>();
+        access(policy, resident, 4, 1);
+        access(policy, resident, 4, 1);
+        access(policy, resident, 4, 2);
+        access(policy, resident, 4, 1);
+        assertEquals(2, policy.getHits());
+        assertEquals(2, policy.getMisses());
+        assertEquals(0.5, policy.getHitRatio(), 0.0001);
+        policy.resetStats();
+        assertEquals(0.0, policy.getHitRatio(), 0.0001);
+    }
+
+    /**
+     * Unit test for BufferPool hit statistics through the page cache.
+     */
+    @Test public void bufferPoolHitRatio() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        PageId p0 = new HeapPageId(hf.getId(), 0);
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        assertEquals(1, bp.getEvictionPolicy().getHits());
+        assertEquals(1, bp.getEvictionPolicy().getMisses());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for PageCache pins: a pinned page stays resident until it is
+     * unpinned, and the other pages are evicted instead.
+     */
+    @Test public void pinnedPagesStayResident() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        PageCache cache = new PageCache(2, EvictionPolicy.create(EvictionPolicy.Kind.LRU, 2));
+        PageId[] pids = new PageId[5];
+        for (int i = 0; i < pids.length; i++)
+            pids[i] = new HeapPageId(hf.getId(), i);
+        PageCache.Frame frame = cache.getPinnedFrame(pids[0]);
+        assertEquals(1, frame.getPinCount());
+        for (int i = 1; i < 4; i++)
+            cache.getPage(pids[i]);
+        assertNotNull(cache.peekPage(pids[0]));
+        assertNull(cache.peekPage(pids[2]));
+        frame.unpin();
+        cache.getPage(pids[4]);
+        assertNull(cache.peekPage(pids[0]));
+    }
+
+    /**
+     * Scans that run to the end, closed or not, leave no pages pinned, so
+     * a small buffer pool can keep serving new tables.
+     */
+    @Test public void exhaustedScansReleasePins() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10);
+        for (int i = 0; i < 15; i++) {
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = hf.iterator(tid);
+            it.open();
+            while (it.hasNext())
+                it.next();
+            Aggregate count = new Aggregate(new SeqScan(tid, hf.getId()), 0,
+                    Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+            count.open();
+            assertEquals(504 * 2, ((IntField) count.next().getField(0)).getValue());
+            count.close();
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Unit test for hits buffered by the page cache: the policy sees all of
+     * them once its statistics are read.
+     */
+    @Test public void bufferedHits() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        PageCache cache = new PageCache(4, EvictionPolicy.create(EvictionPolicy.Kind.LRU, 4));
+        PageId p0 = new HeapPageId(hf.getId(), 0);
+        for (int i = 0; i < 3 * PageCache.HIT_BUFFER + 1; i++)
+            cache.getPage(p0);
+        assertEquals(3 * PageCache.HIT_BUFFER, cache.getPolicy().getHits());
+        assertEquals(1, cache.getPolicy().getMisses());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
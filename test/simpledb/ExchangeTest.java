@@ -0,0 +1,143 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up a table spanning several pages.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private int count(DbIterator it) throws Exception {
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * A parallel scan returns every tuple of the table exactly once.
+     */
+    @Test
+    public void parallelScan() throws Exception {
+        Exchange scan = Exchange.parallelScan(tid, hf.getId(), "t", 3);
+        assertEquals(3, scan.getDegree());
+        SystemTestUtil.matchTuples(scan, tuples);
+    }
+
+    /**
+     * Partitions without any pages produce nothing.
+     */
+    @Test
+    public void moreWorkersThanPages() throws Exception {
+        assertTrue(hf.numPages() < 16);
+        SystemTestUtil.matchTuples(Exchange.parallelScan(tid, hf.getId(), "t", 16), tuples);
+    }
+
+    /**
+     * Filters run on the workers, and a rewound Exchange runs them again.
+     */
+    @Test
+    public void filterPartitionsAndRewind() throws Exception {
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 30) {
+                expected++;
+            }
+        }
+
+        Exchange scan = Exchange.parallelScan(tid, hf.getId(), "t", 4);
+        DbIterator[] parts = scan.getChildren();
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new Filter(p, parts[i]);
+        }
+        scan.open();
+        assertEquals(expected, count(scan));
+        scan.rewind();
+        assertEquals(expected, count(scan));
+        scan.close();
+    }
+
+    /**
+     * Tuple-at-a-time children are gathered too.
+     */
+    @Test
+    public void tupleChildren() throws Exception {
+        DbIterator[] parts = new DbIterator[] {
+                new SeqScan(tid, hf.getId(), "t"),
+                new SeqScan(tid, hf.getId(), "t") };
+        Exchange exchange = new Exchange(parts);
+        assertTrue(exchange.isBatchSource());
+        exchange.open();
+        assertEquals(2 * ROWS, count(exchange));
+        exchange.close();
+    }
+
+    /**
+     * Closing an Exchange before its workers are done stops them, and it can
+     * be opened again.
+     */
+    @Test
+    public void closeEarly() throws Exception {
+        Exchange scan = Exchange.parallelScan(tid, hf.getId(), "t", 2);
+        scan.open();
+        assertTrue(scan.hasNext());
+        scan.next();
+        scan.close();
+        SystemTestUtil.matchTuples(scan, tuples);
+    }
+
+    /**
+     * Closing an Exchange whose workers wait for a lock another transaction
+     * holds does not wait for that transaction.
+     */
+    @Test(timeout = 10000)
+    public void closeWhileWaitingForLock() throws Exception {
+        TransactionId other = new TransactionId();
+        Database.getBufferPool().lockTable(other, hf.getId(), LockMode.X);
+        Exchange scan = Exchange.parallelScan(tid, hf.getId(), "t", 2);
+        scan.open();
+        Thread.sleep(50);
+        scan.close();
+        Database.getBufferPool().transactionComplete(other);
+        SystemTestUtil.matchTuples(scan, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
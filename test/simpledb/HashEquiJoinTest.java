@@ -0,0 +1,192 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+    // room for 512 of the left tuples, so that the joins below spill
+    private static final long SMALL_BUDGET = BufferPool.PAGE_SIZE;
+
+    private ArrayList<ArrayList<Integer>> left;
+    private ArrayList<ArrayList<Integer>> right;
+    private HeapFile leftFile;
+    private HeapFile rightFile;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        left = new ArrayList<ArrayList<Integer>>();
+        right = new ArrayList<ArrayList<Integer>>();
+        leftFile = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, left);
+        rightFile = SystemTestUtil.createRandomHeapFile(3, 1500, 500, null, right);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return the number of times each row of the join of l and r on
+     *         column f1 of l and column f2 of r occurs.
+     */
+    private Map<ArrayList<Integer>, Integer> expected(ArrayList<ArrayList<Integer>> l,
+            ArrayList<ArrayList<Integer>> r, int f1, int f2) {
+        Map<ArrayList<Integer>, Integer> rows = new HashMap<ArrayList<Integer>, Integer>();
+        for (ArrayList<Integer> a : l) {
+            for (ArrayList<Integer> b : r) {
+                if (a.get(f1).equals(b.get(f2))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(a);
+                    row.addAll(b);
+                    Integer n = rows.get(row);
+                    rows.put(row, n == null ? 1 : n + 1);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private Map<ArrayList<Integer>, Integer> actual(DbIterator it) throws Exception {
+        Map<ArrayList<Integer>, Integer> rows = new HashMap<ArrayList<Integer>, Integer>();
+        while (it.hasNext()) {
+            ArrayList<Integer> row = SystemTestUtil.tupleToList(it.next());
+            Integer n = rows.get(row);
+            rows.put(row, n == null ? 1 : n + 1);
+        }
+        return rows;
+    }
+
+    private HashEquiJoin join(DbIterator probe, long budget) {
+        return new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, leftFile.getId(), "l"), probe, budget);
+    }
+
+    /**
+     * A join whose left side fits in memory.
+     */
+    @Test
+    public void inMemory() throws Exception {
+        HashEquiJoin j = join(new SeqScan(tid, rightFile.getId(), "r"),
+                HashEquiJoin.DEFAULT_MEMORY_BUDGET);
+        j.open();
+        assertEquals(expected(left, right, 0, 1), actual(j));
+        j.close();
+    }
+
+    /**
+     * A join that partitions both inputs to disk finds the same rows.
+     */
+    @Test
+    public void spill() throws Exception {
+        HashEquiJoin j = join(new SeqScan(tid, rightFile.getId(), "r"), SMALL_BUDGET);
+        j.open();
+        Map<ArrayList<Integer>, Integer> expected = expected(left, right, 0, 1);
+        assertEquals(expected, actual(j));
+        j.rewind();
+        assertEquals(expected, actual(j));
+        j.close();
+    }
+
+    /**
+     * Spilling works when the right side is probed a batch at a time.
+     */
+    @Test
+    public void spillBatches() throws Exception {
+        HashEquiJoin j = join(new BatchSeqScan(tid, rightFile.getId(), "r", 100),
+                SMALL_BUDGET);
+        j.open();
+        assertEquals(expected(left, right, 0, 1), actual(j));
+        j.close();
+    }
+
+    /**
+     * A spilled partition whose tuples all have the same key cannot be split
+     * up by repartitioning and is joined in chunks.
+     */
+    @Test
+    public void skewedKey() throws Exception {
+        Map<Integer, Integer> sameKey = new HashMap<Integer, Integer>();
+        sameKey.put(0, 7);
+        leftFile = SystemTestUtil.createRandomHeapFile(2, 3000, 500, sameKey, left);
+        sameKey.clear();
+        sameKey.put(1, 7);
+        rightFile = SystemTestUtil.createRandomHeapFile(3, 20, 500, sameKey, right);
+
+        HashEquiJoin j = join(new SeqScan(tid, rightFile.getId(), "r"), SMALL_BUDGET);
+        j.open();
+        assertEquals(expected(left, right, 0, 1), actual(j));
+        j.close();
+    }
+
+    /**
+     * The keys of the left side are pushed down into the scans of the right
+     * side, which then return few of the tuples that do not match.
+     */
+    @Test
+    public void keyFilter() throws Exception {
+        left.clear();
+        leftFile = SystemTestUtil.createRandomHeapFile(2, 50, 500, null, left);
+        Map<ArrayList<Integer>, Integer> expected = expected(left, right, 0, 1);
+        for (DbIterator probe : new DbIterator[] {
+                new SeqScan(tid, rightFile.getId(), "r"),
+                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                        new BatchSeqScan(tid, rightFile.getId(), "r", 100)) }) {
+            assertTrue(KeyFilter.canPushDown(probe));
+            HashEquiJoin j = join(probe, HashEquiJoin.DEFAULT_MEMORY_BUDGET);
+            j.open();
+            assertEquals(expected, actual(j));
+            j.rewind();
+            assertEquals(expected, actual(j));
+            j.close();
+        }
+
+        KeyFilter keys = new KeyFilter();
+        HashSet<Integer> leftKeys = new HashSet<Integer>();
+        for (ArrayList<Integer> t : left) {
+            keys.add(t.get(0));
+            leftKeys.add(t.get(0));
+        }
+        keys.finish();
+        int matching = 0;
+        for (ArrayList<Integer> t : right) {
+            if (leftKeys.contains(t.get(1)))
+                matching++;
+        }
+        SeqScan scan = new SeqScan(tid, rightFile.getId(), "r");
+        scan.open();
+        scan.setKeyFilter(1, keys);
+        int returned = 0;
+        int returnedMatching = 0;
+        while (scan.hasNext()) {
+            returned++;
+            if (leftKeys.contains(((IntField) scan.next().getField(1)).getValue()))
+                returnedMatching++;
+        }
+        scan.close();
+        assertEquals(matching, returnedMatching);
+        // about 2% of the other tuples pass the bloom filter
+        assertTrue(returned < matching + right.size() / 10);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
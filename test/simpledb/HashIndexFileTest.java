@@ -0,0 +1,210 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+    private static final int[] KEYS = { -1, 0, 57, 100, 1999, 5000 };
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private HashIndexFile index;
+    private TransactionId tid;
+
+    /**
+     * A table of 3000 tuples with some duplicate keys in column 0, which is
+     * indexed.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 3000, 2000, null, tuples, "c");
+        index = createIndex(table);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static HashIndexFile createIndex(HeapFile table) throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        HashIndexFile index = HashIndexFile.create(f, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private void checkLookups() throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int key : KEYS) {
+            keys.add(key);
+        }
+        for (int i = 0; i < 20; i++) {
+            keys.add(tuples.get(i * tuples.size() / 20).get(0));
+        }
+        for (int key : keys) {
+            TestUtil.checkIndexScan(tid, index, tuples, Predicate.Op.EQUALS, key);
+        }
+        DbFileIterator all = index.iterator(tid);
+        all.open();
+        int n = 0;
+        while (all.hasNext()) {
+            all.next();
+            n++;
+        }
+        all.close();
+        assertEquals(tuples.size(), n);
+    }
+
+    /**
+     * Lookups in a bulk-loaded index.
+     */
+    @Test
+    public void lookups() throws Exception {
+        assertTrue(index.numPages() > 4);
+        checkLookups();
+    }
+
+    /**
+     * Inserts into an empty index, which split its buckets.
+     */
+    @Test
+    public void inserts() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = tuples;
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 0, 2000, null, tuples, "c");
+        index = createIndex(table);
+        assertEquals(2, index.numPages());
+        for (ArrayList<Integer> row : rows) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(row.get(0)));
+            t.setField(1, new IntField(row.get(1)));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertTrue(index.numPages() > 4);
+        checkLookups();
+    }
+
+    /**
+     * Deleted tuples are removed from the index.
+     */
+    @Test
+    public void deletes() throws Exception {
+        int key = tuples.get(0).get(0);
+        Delete delete = new Delete(tid, new IndexScan(tid, index, "t",
+                Predicate.Op.EQUALS, new IntField(key)));
+        delete.open();
+        assertEquals(TestUtil.matchingRows(tuples, Predicate.Op.EQUALS, key).size(), ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        ArrayList<ArrayList<Integer>> rest = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) != key) {
+                rest.add(t);
+            }
+        }
+        tuples = rest;
+        checkLookups();
+    }
+
+    /**
+     * Range predicates cannot be looked up in a hash index.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void range() throws Exception {
+        new IndexScan(tid, index, "t", Predicate.Op.LESS_THAN, new IntField(5));
+    }
+
+    /**
+     * An index nested-loop join probes the index once per outer tuple, and
+     * the optimizer picks one to join a few tuples to a large table on its
+     * primary key.
+     */
+    @Test
+    public void indexJoin() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 50000, 100000, null, tuples, "c");
+        String name = Database.getCatalog().getTableName(table.getId());
+        Database.getCatalog().addTable(table, name, "c0");
+        index = createIndex(table);
+        // 20 tuples, half of which match one tuple of table or more
+        File f = File.createTempFile("outer", ".dat");
+        HeapFile outerTable = Utility.openHeapFile(2, "d", f);
+        outerTable.deleteOnExit();
+        ArrayList<ArrayList<Integer>> outer = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(i < 10 ? tuples.get(i * 1000).get(0) : -1 - i);
+            outer.add(row);
+            Tuple t = new Tuple(outerTable.getTupleDesc());
+            t.setField(0, new IntField(row.get(0)));
+            t.setField(1, new IntField(row.get(1)));
+            Database.getBufferPool().insertTuple(tid, outerTable.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        List<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> a : outer) {
+            for (ArrayList<Integer> b : tuples) {
+                if (a.get(1).equals(b.get(0))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(a);
+                    row.addAll(b);
+                    expected.add(row.toString());
+                }
+            }
+        }
+        Collections.sort(expected);
+        assertTrue(expected.size() >= 10);
+
+        DbIterator probe = IndexNestedLoopJoin.probing(new SeqScan(tid, table.getId(), "t"), 0);
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outerTable.getId(), "o"), probe);
+        j.open();
+        assertEquals(expected, TestUtil.sortedRows(j, false));
+        j.rewind();
+        assertEquals(expected, TestUtil.sortedRows(j, false));
+        j.close();
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+        stats.put(Database.getCatalog().getTableName(outerTable.getId()),
+                new TableStats(outerTable.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outerTable.getId(), "o");
+        lp.addScan(table.getId(), "t");
+        lp.addJoin("o.d1", "t.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("*", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(TestUtil.hasOperator(plan, IndexNestedLoopJoin.class));
+        plan.open();
+        assertEquals(expected, TestUtil.sortedRows(plan, false));
+        plan.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -77,6 +77,31 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520,
+                null, null);
+        HeapFile mapped = new HeapFile(twoPageFile.getFile(), td, true);
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals(twoPageFile.getId(), mapped.getId());
+
+        for (int i = 0; i < twoPageFile.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(twoPageFile.getId(), i);
+            HeapPage expected = (HeapPage) twoPageFile.readPage(pid);
+            HeapPage actual = (HeapPage) mapped.readPage(pid);
+            assertEquals(expected.getNumEmptySlots(), actual.getNumEmptySlots());
+            assertArrayEquals(expected.getPageData(), actual.getPageData());
+            Iterator<Tuple> it = actual.iterator();
+            for (Iterator<Tuple> ex = expected.iterator(); ex.hasNext(); ) {
+                assertTrue(TestUtil.compareTuples(ex.next(), it.next()));
+            }
+            assertFalse(it.hasNext());
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -43,6 +43,58 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts go to the page the free-space map lists without locking the
+     * full pages before it, and the map is kept next to the file.
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        Tuple onPage1 = null;
+        for (int i = 0; i < 3 * 504; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i == 504)
+                onPage1 = t;
+        }
+        assertEquals(3, empty.numPages());
+        assertEquals(1, onPage1.getRecordId().getPageId().pageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        empty.deleteTuple(tid, onPage1);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+        assertEquals(3, empty.numPages());
+        assertTrue(new java.io.File(empty.getFile().getPath() + ".fsm").exists());
+    }
+
+    /**
+     * The file grows by whole extents of zeroes, which do not count as pages
+     * when it is opened again.
+     */
+    @Test public void extents() throws Exception {
+        empty.setExtentPages(8);
+        for (int i = 0; i < 2 * 504 + 1; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+        assertEquals(9 * BufferPool.PAGE_SIZE, empty.getFile().length());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        assertEquals(3, reopened.numPages());
+        for (int i = 0; i < 504; ++i) {
+            reopened.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(4, reopened.numPages());
+        assertEquals(9 * BufferPool.PAGE_SIZE, reopened.getFile().length());
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -56,6 +58,97 @@ public class InsertTest extends TestUtil.CreateHeapFile {
     assertEquals(1, empty.numPages());
   }
 
+  /**
+   * @return an iterator over n tuples (i, -i)
+   */
+  private static DbIterator tuples(int n) {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < n; i++) {
+      Tuple t = new Tuple(Utility.getTupleDesc(2));
+      t.setField(0, new IntField(i));
+      t.setField(1, new IntField(-i));
+      tuples.add(t);
+    }
+    return new TupleIterator(Utility.getTupleDesc(2), tuples);
+  }
+
+  private int countTuples(TransactionId tid) throws Exception {
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /**
+   * Unit test for a bulk insert, which locks the whole table and fills the
+   * pages it appends through the buffer pool
+   */
+  @Test public void bulk() throws Exception {
+    int n = 3 * Insert.BATCH_SIZE + 10;
+    Insert op = new Insert(tid, tuples(n), empty.getId());
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(n, 1), op.next()));
+    op.close();
+    assertEquals(LockMode.X, Database.getBufferPool().getLockManager()
+        .getLockMode(empty.getId(), tid));
+    int perPage = (BufferPool.PAGE_SIZE * 8) / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+    assertEquals((n + perPage - 1) / perPage, empty.numPages());
+    // nothing reaches the file before tid commits
+    HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 1));
+    assertEquals(perPage, page.getNumEmptySlots());
+    assertEquals(n, countTuples(tid));
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(n, countTuples(new TransactionId()));
+  }
+
+  /**
+   * Unit test for a direct bulk insert, whose new pages are written
+   * straight to disk and emptied if it aborts
+   */
+  @Test public void direct() throws Exception {
+    int n = 2 * Insert.BATCH_SIZE;
+    Insert op = new Insert(tid, tuples(n), empty.getId(), true);
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(n, 1), op.next()));
+    op.close();
+    // the file's empty page goes through the buffer pool, but the new
+    // pages are on disk before tid commits
+    HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 1));
+    assertEquals(0, page.getNumEmptySlots());
+    assertEquals(n, countTuples(tid));
+    Database.getBufferPool().transactionComplete(tid, false);
+
+    TransactionId tid2 = new TransactionId();
+    assertEquals(0, countTuples(tid2));
+    op = new Insert(tid2, tuples(n), empty.getId(), true);
+    op.open();
+    op.next();
+    op.close();
+    Database.getBufferPool().transactionComplete(tid2);
+    assertEquals(n, countTuples(new TransactionId()));
+  }
+
+  /**
+   * Unit test for a direct bulk insert of many more pages than the buffer
+   * pool holds, which must not run out of clean pages to evict
+   */
+  @Test public void largerThanBufferPool() throws Exception {
+    Database.resetBufferPool(16);
+    int n = 504 * 40;
+    Insert op = new Insert(tid, tuples(n), empty.getId(), true);
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(n, 1), op.next()));
+    op.close();
+    assertEquals(40, empty.numPages());
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(n, countTuples(new TransactionId()));
+  }
+
   /**
    * JUnit suite target
    */
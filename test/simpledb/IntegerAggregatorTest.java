@@ -179,6 +179,43 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Test IntegerAggregator.mergeBatchIntoGroups() over enough groups to
+	 * grow its table, against the same rows merged a tuple at a time
+	 */
+	@Test public void mergeBatchesManyGroups() throws Exception {
+		TupleDesc td = Utility.getTupleDesc(width1);
+		for (Aggregator.Op op : Aggregator.Op.values()) {
+			IntegerAggregator byTuple = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+			IntegerAggregator byBatch = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+			TupleBatch batch = new TupleBatch(td, 100);
+			for (int i = 0; i < 5000; i++) {
+				int key = (i * 7919) % 1000 - 500;
+				int value = i % 13 - 6;
+				byTuple.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { key, value }));
+				int row = batch.addRow();
+				batch.getIntColumn(0)[row] = key;
+				batch.getIntColumn(1)[row] = value;
+				if (batch.isFull()) {
+					byBatch.mergeBatchIntoGroups(batch);
+					batch.clear();
+				}
+			}
+			DbIterator expected = byTuple.iterator();
+			DbIterator actual = byBatch.iterator();
+			expected.open();
+			actual.open();
+			TestUtil.compareDbIterators(expected, actual);
+			expected.rewind();
+			int count = 0;
+			while (expected.hasNext()) {
+				expected.next();
+				count++;
+			}
+			assertEquals(1000, count);
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
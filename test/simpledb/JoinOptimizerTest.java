@@ -26,9 +26,10 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 	 */
 	public static HeapFile createDuplicateHeapFile(ArrayList<ArrayList<Integer>> tuples, int columns, String colPrefix) throws IOException {
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
-        return Utility.openHeapFile(columns, colPrefix, temp);
+        HeapFile hf = Utility.openHeapFile(columns, colPrefix, temp);
+        hf.deleteOnExit();
+        return hf;
 	}
 
 	ArrayList<ArrayList<Integer>> tuples1;
@@ -3,6 +3,11 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -106,6 +111,76 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * @return the rows of it, sorted
+   */
+  private static List<String> rows(DbIterator it) throws Exception {
+    List<String> rows = new ArrayList<String>();
+    while (it.hasNext())
+      rows.add(it.next().toString());
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Joins n1 outer tuples of width1 with n2 inner tuples of width2 on a &lt;
+   * of their first fields, and checks the result, rewound too.
+   */
+  private void checkLtJoin(int n1, int n2, int blockPages) throws Exception {
+    int[] outer = new int[n1 * width1];
+    for (int i = 0; i < outer.length; i++)
+      outer[i] = (i * 7) % 100;
+    int[] inner = new int[n2 * width2];
+    for (int i = 0; i < inner.length; i++)
+      inner[i] = (i * 13) % 100;
+    DbIterator scan1 = TestUtil.createTupleList(width1, outer);
+    DbIterator scan2 = TestUtil.createTupleList(width2, inner);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    List<String> expected = new ArrayList<String>();
+    scan1.open();
+    scan2.open();
+    while (scan1.hasNext()) {
+      Tuple t1 = scan1.next();
+      scan2.rewind();
+      while (scan2.hasNext()) {
+        Tuple t2 = scan2.next();
+        if (pred.filter(t1, t2)) {
+          Tuple t = new Tuple(Utility.getTupleDesc(width1 + width2));
+          for (int k = 0; k < width1; k++)
+            t.setField(k, t1.getField(k));
+          for (int k = 0; k < width2; k++)
+            t.setField(width1 + k, t2.getField(k));
+          expected.add(t.toString());
+        }
+      }
+    }
+    Collections.sort(expected);
+
+    Join op = new Join(pred, TestUtil.createTupleList(width1, outer),
+        TestUtil.createTupleList(width2, inner), blockPages);
+    op.open();
+    assertEquals(expected, rows(op));
+    op.rewind();
+    assertEquals(expected, rows(op));
+    op.close();
+  }
+
+  /**
+   * Outer tuples over a block are joined a block at a time, with an inner
+   * child too large to keep in memory.
+   */
+  @Test public void blocks() throws Exception {
+    // a page holds 512 outer tuples and 341 inner ones
+    checkLtJoin(1200, 400, 1);
+  }
+
+  /**
+   * An inner child that fits in memory is kept there after its first scan.
+   */
+  @Test public void innerInMemory() throws Exception {
+    checkLtJoin(1200, 300, 1);
+  }
+
   /**
    * JUnit suite target
    */
@@ -3,7 +3,9 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -186,6 +188,86 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A transaction blocked on one page must not hold up requests for
+   * other pages.
+   */
+  @Test public void blockedRequestDoesNotStallOtherPages() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+
+    TestUtil.LockGrabber blocked = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    blocked.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(blocked.acquired());
+
+    grabLock(new TransactionId(), p1, Permissions.READ_ONLY, true);
+    blocked.stop();
+  }
+
+  /**
+   * Unit test for multi-granularity locking: page locks take intention
+   * locks on their table, and a table S lock blocks page writers.
+   */
+  @Test public void intentionLocks() throws Exception {
+    LockManager lm = bp.getLockManager();
+    Integer table = Integer.valueOf(p0.getTableId());
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    assertEquals(LockMode.IS, lm.getLockMode(table, tid1));
+    bp.getPage(tid1, p1, Permissions.READ_WRITE);
+    assertEquals(LockMode.IX, lm.getLockMode(table, tid1));
+
+    grabLock(new TransactionId(), p0, Permissions.READ_ONLY, true);
+    bp.transactionComplete(tid1);
+
+    bp.lockTable(tid2, p0.getTableId(), LockMode.S);
+    bp.getPage(tid2, p2, Permissions.READ_ONLY);
+    assertTrue(bp.holdsLock(tid2, p2));
+    assertTrue(lm.getLockedPages(tid2).isEmpty());
+
+    grabLock(new TransactionId(), p2, Permissions.READ_ONLY, true);
+    grabLock(new TransactionId(), p2, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Unit test for lock escalation: past the threshold a transaction's page
+   * locks are replaced by a single table lock.
+   */
+  @Test public void lockEscalation() throws Exception {
+    LockManager lm = bp.getLockManager();
+    lm.setEscalationThreshold(2);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertEquals(2, lm.getLockedPages(tid1).size());
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+    assertEquals(1, lm.getEscalationCount());
+    assertTrue(lm.getLockedPages(tid1).isEmpty());
+    assertEquals(LockMode.S, lm.getLockMode(Integer.valueOf(p0.getTableId()), tid1));
+    assertTrue(bp.holdsLock(tid1, p1));
+
+    grabLock(tid2, p1, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Unit test for tuple locks: writers of different tuples of one page do
+   * not block each other, but writers of the same tuple do.
+   */
+  @Test public void tupleLocks() throws Exception {
+    RecordId r0 = new RecordId(p0, 0);
+    RecordId r1 = new RecordId(p0, 1);
+    bp.lockTuple(tid1, r0, Permissions.READ_WRITE);
+    bp.lockTuple(tid2, r1, Permissions.READ_WRITE);
+    LockManager lm = bp.getLockManager();
+    assertEquals(LockMode.IX, lm.getLockMode(p0, tid1));
+    assertEquals(LockMode.X, lm.getLockMode(r1, tid2));
+
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(t.acquired());
+    t.stop();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    // room for 341 of the tuples, so that sorting them takes several runs
+    // and merge passes
+    private static final long SMALL_BUDGET = BufferPool.PAGE_SIZE;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, tuples);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return the values of field in tuples, sorted.
+     */
+    private ArrayList<Integer> expectedKeys(int field, boolean asc) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            keys.add(t.get(field));
+        }
+        Collections.sort(keys);
+        if (!asc) {
+            Collections.reverse(keys);
+        }
+        return keys;
+    }
+
+    /**
+     * @return the values of field in the rest of the tuples of it.
+     */
+    private ArrayList<Integer> keys(DbIterator it, int field) throws Exception {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            keys.add(SystemTestUtil.tupleToList(it.next()).get(field));
+        }
+        return keys;
+    }
+
+    /**
+     * Checks that orderBy, rewound, returns every tuple of the table.
+     */
+    private void checkAllTuples(OrderBy orderBy) throws Exception {
+        Comparator<ArrayList<Integer>> byAll = new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+        orderBy.rewind();
+        while (orderBy.hasNext()) {
+            actual.add(SystemTestUtil.tupleToList(orderBy.next()));
+        }
+        Collections.sort(expected, byAll);
+        Collections.sort(actual, byAll);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * A table that fits in the budget is sorted in memory.
+     */
+    @Test
+    public void inMemory() throws Exception {
+        OrderBy orderBy = new OrderBy(1, true, new SeqScan(tid, hf.getId(), "t"));
+        orderBy.open();
+        assertEquals(expectedKeys(1, true), keys(orderBy, 1));
+        checkAllTuples(orderBy);
+        orderBy.close();
+    }
+
+    /**
+     * A table over the budget is sorted in spilled runs, which are merged.
+     */
+    @Test
+    public void external() throws Exception {
+        OrderBy orderBy = new OrderBy(2, false, new SeqScan(tid, hf.getId(), "t"),
+                SMALL_BUDGET);
+        orderBy.open();
+        assertEquals(expectedKeys(2, false), keys(orderBy, 2));
+        orderBy.rewind();
+        assertEquals(expectedKeys(2, false), keys(orderBy, 2));
+        checkAllTuples(orderBy);
+        orderBy.close();
+    }
+
+    /**
+     * With a limit only the first tuples are returned, whether they fit in
+     * the budget or not.
+     */
+    @Test
+    public void limit() throws Exception {
+        for (int limit : new int[] { 0, 1, 100, 1000 }) {
+            OrderBy orderBy = new OrderBy(0, true, new SeqScan(tid, hf.getId(), "t"),
+                    SMALL_BUDGET);
+            orderBy.setLimit(limit);
+            orderBy.open();
+            assertEquals(expectedKeys(0, true).subList(0, limit), keys(orderBy, 0));
+            orderBy.rewind();
+            assertEquals(limit, keys(orderBy, 0).size());
+            orderBy.close();
+        }
+    }
+
+    /**
+     * Ties on the first field are broken by the second one, sorted in its
+     * own direction, whether the sort is in memory or external.
+     */
+    @Test
+    public void multipleFields() throws Exception {
+        ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+        HeapFile ties = SystemTestUtil.createRandomHeapFile(3, ROWS, 10, null, small);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : small) {
+            expected.add(new ArrayList<Integer>(t.subList(0, 2)));
+        }
+        Collections.sort(expected, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = a.get(0).compareTo(b.get(0));
+                return c != 0 ? c : b.get(1).compareTo(a.get(1));
+            }
+        });
+
+        for (long budget : new long[] { OrderBy.DEFAULT_MEMORY_BUDGET, SMALL_BUDGET }) {
+            OrderBy orderBy = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+                    new SeqScan(tid, ties.getId(), "t"), budget);
+            orderBy.open();
+            ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+            while (orderBy.hasNext()) {
+                actual.add(new ArrayList<Integer>(
+                        SystemTestUtil.tupleToList(orderBy.next()).subList(0, 2)));
+            }
+            orderBy.close();
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Strings that only differ after the part of them kept in their sort keys
+     * are still ordered, and characters outside Latin-1 order as they do in
+     * String.compareTo.
+     */
+    @Test
+    public void stringKeys() throws Exception {
+        String[] values = { "abcdefgh", "abcdefghz", "b", "abcdefgha", "abcdefg",
+                "", "abcdefghz", "abcdefgh", "abd", "\u0101", "a\u0100", "abc\u0100d",
+                "abc\u00ffd", "\u0201b" };
+        Object[] data = new Object[values.length * 2];
+        for (int i = 0; i < values.length; i++) {
+            data[2 * i] = values[i];
+            data[2 * i + 1] = i;
+        }
+        for (boolean asc : new boolean[] { true, false }) {
+            ArrayList<String> expected = new ArrayList<String>(Arrays.asList(values));
+            Collections.sort(expected);
+            if (!asc) {
+                Collections.reverse(expected);
+            }
+            OrderBy orderBy = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+            orderBy.open();
+            ArrayList<String> actual = new ArrayList<String>();
+            while (orderBy.hasNext()) {
+                actual.add(((StringField) orderBy.next().getField(0)).getValue());
+            }
+            orderBy.close();
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -55,6 +55,34 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for Predicate.filter() on tuples whose fields have not been
+   * decoded from their page yet
+   */
+  @Test public void filterEncoded() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(2 * td.getSize());
+    buf.putInt(7).putInt(3).put("abc".getBytes());
+    buf.position(td.getSize());
+    buf.putInt(-2).putInt(2).put("ab".getBytes());
+
+    Tuple t1 = new Tuple(td, buf, 0);
+    Tuple t2 = new Tuple(td, buf, td.getSize());
+    StringField ab = new StringField("ab", Type.STRING_LEN);
+
+    assertTrue(new Predicate(0, Predicate.Op.EQUALS, TestUtil.getField(7)).filter(t1));
+    assertTrue(new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(0)).filter(t2));
+    assertFalse(new Predicate(1, Predicate.Op.EQUALS, ab).filter(t1));
+    assertTrue(new Predicate(1, Predicate.Op.GREATER_THAN, ab).filter(t1));
+    assertTrue(new Predicate(1, Predicate.Op.EQUALS, ab).filter(t2));
+    assertTrue(new Predicate(1, Predicate.Op.LIKE, new StringField("bc", Type.STRING_LEN)).filter(t1));
+
+    // the lazily decoded fields agree with the encoded comparisons
+    t1.materialize();
+    assertTrue(t1.getField(0).equals(TestUtil.getField(7)));
+    assertTrue(t2.getField(1).equals(ab));
+  }
+
   /**
    * JUnit suite target
    */
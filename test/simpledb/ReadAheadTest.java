@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    /**
+     * A table of PAGES full pages, and an empty buffer pool that reads 8
+     * pages ahead.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.getReadAhead().setWindow(8);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        bp.transactionComplete(tid);
+    }
+
+    private void request(int page) throws Exception {
+        bp.getPage(tid, new HeapPageId(table.getId(), page), Permissions.READ_ONLY);
+    }
+
+    private void awaitPrefetchCount(long n) throws Exception {
+        for (int i = 0; i < 1000 && bp.getReadAhead().getPrefetchCount() < n; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(n, bp.getReadAhead().getPrefetchCount());
+    }
+
+    /**
+     * Pages requested in order are read ahead of the reader, a window at a
+     * time.
+     */
+    @Test
+    public void sequential() throws Exception {
+        request(0);
+        assertEquals(0, bp.getReadAhead().getPrefetchCount());
+        request(1);
+        awaitPrefetchCount(8);
+        for (int i = 2; i < 6; i++) {
+            request(i);
+        }
+        Thread.sleep(50);
+        assertEquals(8, bp.getReadAhead().getPrefetchCount());
+        // within half a window of page 10, the first not read ahead yet
+        request(6);
+        awaitPrefetchCount(13);
+    }
+
+    /**
+     * Pages requested out of order are not read ahead, and each of two
+     * interleaved scans is.
+     */
+    @Test
+    public void streams() throws Exception {
+        request(7);
+        request(3);
+        request(30);
+        request(12);
+        Thread.sleep(50);
+        assertEquals(0, bp.getReadAhead().getPrefetchCount());
+        request(20);
+        request(31);
+        awaitPrefetchCount(8);
+        request(21);
+        awaitPrefetchCount(16);
+    }
+
+    /**
+     * A scan with read-ahead returns the same tuples.
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(table, tid, tuples);
+        assertTrue(bp.getReadAhead().getPrefetchCount() > 0);
+    }
+
+    /**
+     * A page read while its file was being written, or before a write to
+     * it, is not admitted.
+     */
+    @Test
+    public void staleCopies() throws Exception {
+        PageCache cache = new PageCache(4, EvictionPolicy.create(EvictionPolicy.Kind.LRU, 4));
+        HeapPage page = table.readPages(0, 1)[0];
+        long writes = table.getWriteCount();
+        assertEquals(0, writes & 1);
+        assertFalse(cache.admitPrefetched(page, table, writes + 1));
+        table.writePage(page);
+        assertFalse(cache.admitPrefetched(page, table, writes));
+        assertTrue(cache.admitPrefetched(page, table, table.getWriteCount()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    // room for 341 of the right tuples, so that the right side is written to
+    // disk and only its shorter ranges are read back into memory
+    private static final long SMALL_BUDGET = BufferPool.PAGE_SIZE;
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private ArrayList<ArrayList<Integer>> left;
+    private ArrayList<ArrayList<Integer>> right;
+    private HeapFile leftFile;
+    private HeapFile rightFile;
+    private TransactionId tid;
+
+    @Before
+    public void setUp() throws Exception {
+        left = new ArrayList<ArrayList<Integer>>();
+        right = new ArrayList<ArrayList<Integer>>();
+        leftFile = SystemTestUtil.createRandomHeapFile(2, 200, 100, null, left);
+        rightFile = SystemTestUtil.createRandomHeapFile(3, 500, 100, null, right);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return the number of times each row of the join of left and right on
+     *         column 0 of left op column 1 of right occurs.
+     */
+    private Map<ArrayList<Integer>, Integer> expected(Predicate.Op op) {
+        Map<ArrayList<Integer>, Integer> rows = new HashMap<ArrayList<Integer>, Integer>();
+        for (ArrayList<Integer> a : left) {
+            for (ArrayList<Integer> b : right) {
+                if (new IntField(a.get(0)).compare(op, new IntField(b.get(1)))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(a);
+                    row.addAll(b);
+                    Integer n = rows.get(row);
+                    rows.put(row, n == null ? 1 : n + 1);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return the number of times each row of it occurs, checking that the
+     *         rows come out sorted on their first column.
+     */
+    private Map<ArrayList<Integer>, Integer> actual(DbIterator it) throws Exception {
+        Map<ArrayList<Integer>, Integer> rows = new HashMap<ArrayList<Integer>, Integer>();
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            ArrayList<Integer> row = SystemTestUtil.tupleToList(it.next());
+            assertTrue(row.get(0) >= last);
+            last = row.get(0);
+            Integer n = rows.get(row);
+            rows.put(row, n == null ? 1 : n + 1);
+        }
+        return rows;
+    }
+
+    private SortMergeJoin join(Predicate.Op op, DbIterator l, long budget) {
+        return new SortMergeJoin(new JoinPredicate(0, op, 1), l,
+                new SeqScan(tid, rightFile.getId(), "r"), budget);
+    }
+
+    /**
+     * Every operator, with the right side in memory.
+     */
+    @Test
+    public void inMemory() throws Exception {
+        for (Predicate.Op op : OPS) {
+            SortMergeJoin j = join(op, new SeqScan(tid, leftFile.getId(), "l"),
+                    SortMergeJoin.DEFAULT_MEMORY_BUDGET);
+            j.open();
+            assertEquals(expected(op), actual(j));
+            j.close();
+        }
+    }
+
+    /**
+     * Every operator, with the right side on disk, and rewound.
+     */
+    @Test
+    public void spilled() throws Exception {
+        for (Predicate.Op op : OPS) {
+            SortMergeJoin j = join(op, new SeqScan(tid, leftFile.getId(), "l"),
+                    SMALL_BUDGET);
+            j.open();
+            Map<ArrayList<Integer>, Integer> expected = expected(op);
+            assertEquals(expected, actual(j));
+            j.rewind();
+            assertEquals(expected, actual(j));
+            j.close();
+        }
+    }
+
+    /**
+     * An input that is sorted already is used as it is.
+     */
+    @Test
+    public void sortedInput() throws Exception {
+        OrderBy sorted = new OrderBy(0, true, new SeqScan(tid, leftFile.getId(), "l"));
+        assertTrue(Operator.sortedAscendingOn(sorted, 0));
+        SortMergeJoin j = join(Predicate.Op.EQUALS, sorted, SMALL_BUDGET);
+        j.open();
+        assertEquals(expected(Predicate.Op.EQUALS), actual(j));
+        j.close();
+        assertTrue(Operator.sortedAscendingOn(j, 0));
+    }
+
+    /**
+     * Predicates that cannot be merged are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void notEquals() throws Exception {
+        join(Predicate.Op.NOT_EQUALS, new SeqScan(tid, leftFile.getId(), "l"),
+                SMALL_BUDGET);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
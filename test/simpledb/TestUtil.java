@@ -3,6 +3,8 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 
+import simpledb.systemtest.SystemTestUtil;
+
 import static org.junit.Assert.*;
 
 public class TestUtil {
@@ -166,6 +168,76 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the rows of tuples whose column 0 satisfies op operand, sorted.
+     */
+    public static List<String> matchingRows(List<ArrayList<Integer>> tuples,
+            Predicate.Op op, int operand) {
+        List<String> rows = new ArrayList<String>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(operand))) {
+                rows.add(t.toString());
+            }
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * @return the rows of it, sorted, checking that they come out in
+     *   ascending order on column 0 if ordered is set.
+     */
+    public static List<String> sortedRows(DbIterator it, boolean ordered)
+            throws DbException, TransactionAbortedException {
+        List<String> rows = new ArrayList<String>();
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            ArrayList<Integer> row = SystemTestUtil.tupleToList(it.next());
+            if (ordered) {
+                assertTrue(row.get(0) >= last);
+                last = row.get(0);
+            }
+            rows.add(row.toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Verifies that a scan of index for the tuples whose column 0 satisfies
+     * op operand returns the rows of tuples that do, before and after a
+     * rewind, and in order if the index is sorted.
+     */
+    public static void checkIndexScan(TransactionId tid, IndexFile index,
+            List<ArrayList<Integer>> tuples, Predicate.Op op, int operand)
+            throws DbException, TransactionAbortedException {
+        IndexScan scan = new IndexScan(tid, index, "t", op, new IntField(operand));
+        boolean ordered = index.isSorted();
+        scan.open();
+        List<String> expected = matchingRows(tuples, op, operand);
+        assertEquals(expected, sortedRows(scan, ordered));
+        scan.rewind();
+        assertEquals(expected, sortedRows(scan, ordered));
+        scan.close();
+    }
+
+    /**
+     * @return true if it or one of the operators below it is an instance of c
+     */
+    public static boolean hasOperator(DbIterator it, Class<?> c) {
+        if (c.isInstance(it)) {
+            return true;
+        }
+        if (it instanceof Operator) {
+            for (DbIterator child : ((Operator) it).getChildren()) {
+                if (hasOperator(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -385,6 +457,7 @@ public class TestUtil {
             try{
             	Database.reset();
                 empty = Utility.createEmptyHeapFile(emptyFile.getAbsolutePath(), 2);
+                empty.deleteOnExit();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
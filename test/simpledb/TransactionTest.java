@@ -4,6 +4,8 @@ import java.util.*;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class TransactionTest extends TestUtil.CreateHeapFile {
@@ -61,6 +63,24 @@ public class TransactionTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid2, p0, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.transactionComplete().
+   * Only the completing transaction's locks are released, and its lock set
+   * is emptied.
+   */
+  @Test public void completeReleasesOnlyOwnLocks() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_WRITE);
+    bp.getPage(tid2, p2, Permissions.READ_WRITE);
+    assertEquals(2, bp.getLockManager().getLockedPages(tid1).size());
+
+    bp.transactionComplete(tid1, true);
+    assertTrue(bp.getLockManager().getLockedPages(tid1).isEmpty());
+    assertFalse(bp.holdsLock(tid1, p1));
+    assertTrue(bp.holdsLock(tid2, p2));
+    bp.transactionComplete(tid2, true);
+  }
+
   /**
    * Common unit test code for BufferPool.transactionComplete() covering
    * commit and abort. Verify that commit persists changes to disk, and
@@ -28,9 +28,10 @@ public class QueryTest {
 	 */
 	public static HeapFile createDuplicateHeapFile(ArrayList<ArrayList<Integer>> tuples, int columns, String colPrefix) throws IOException {
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
-        return Utility.openHeapFile(columns, colPrefix, temp);
+        HeapFile hf = Utility.openHeapFile(columns, colPrefix, temp);
+        hf.deleteOnExit();
+        return hf;
 	}
 	
 	@Test(timeout=20000) public void queryTest() throws IOException, DbException, TransactionAbortedException {
@@ -93,6 +93,7 @@ public class ScanTest extends SimpleDbTestBase {
         File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
         TupleDesc td = Utility.getTupleDesc(1);
         InstrumentedHeapFile table = new InstrumentedHeapFile(f, td);
+        table.deleteOnExit();
         Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
 
         // Scan the table once